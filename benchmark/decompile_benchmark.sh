@@ -0,0 +1,54 @@
+#!/usr/bin/env bash
+# Imports the bundled Go samples into a throwaway Ghidra project, then symbolicates, restores
+# prototypes and decompiles every function of each, and writes the measurements as JSON.
+#
+# Usage: benchmark/decompile_benchmark.sh [output.json] [processes]
+#
+# Requires GHIDRA_INSTALL_DIR and the ugo extension installed in that Ghidra.  Run it before and
+# after a change to the decompile pipeline, on an otherwise idle machine, and compare the files.
+set -euo pipefail
+
+if [ -z "${GHIDRA_INSTALL_DIR:-}" ]; then
+    echo "GHIDRA_INSTALL_DIR is not defined" >&2
+    exit 1
+fi
+
+repo="$(cd "$(dirname "$0")/.." && pwd)"
+output="${1:-benchmark-results.json}"
+processes="${2:-0}"
+samples=(
+    "sample/sample"
+    "sample/defer/defer"
+    "sample/goroutine/goroutine"
+    "sample_calls/sample_calls"
+)
+
+work="$(mktemp -d)"
+trap 'rm -rf "$work"' EXIT
+results="$work/results.ndjson"
+: > "$results"
+
+for sample in "${samples[@]}"; do
+    echo "Benchmarking $sample"
+    "$GHIDRA_INSTALL_DIR/support/analyzeHeadless" "$work" "ugo-benchmark" \
+        -import "$repo/$sample" \
+        -overwrite \
+        -scriptPath "$repo/ghidra_scripts" \
+        -postScript UgoBenchmark.java "$results" "$processes" \
+        -deleteProject \
+        > "$work/$(basename "$sample").log" 2>&1 || {
+            echo "analyzeHeadless failed for $sample; see the log below" >&2
+            cat "$work/$(basename "$sample").log" >&2
+            exit 1
+        }
+done
+
+commit="$(git -C "$repo" rev-parse HEAD 2>/dev/null || echo unknown)"
+{
+    printf '{"commit":"%s","date":"%s","host":"%s","cpus":%s,"results":[\n' \
+        "$commit" "$(date -u +%Y-%m-%dT%H:%M:%SZ)" "$(uname -n)" \
+        "$(getconf _NPROCESSORS_ONLN)"
+    sed '$!s/$/,/' "$results"
+    printf ']}\n'
+} > "$output"
+echo "Wrote $output"
@@ -0,0 +1,53 @@
+// Decompiles every function of the current program (or the current selection) in parallel
+// across a pool of decompiler processes and reports how many succeeded.
+// Headless: analyzeHeadless <project> <name> -process <binary> -postScript UgoBatchDecompile.java
+//@author tnek
+//@category Analysis
+//@keybinding
+//@menupath Analysis.[UGO] Batch Decompile
+//@toolbar
+
+import ghidra.app.decompiler.DecompileOptions;
+import ghidra.app.script.GhidraScript;
+import ghidra.program.model.address.AddressSetView;
+import ugo.UgoBatchDecompileResult;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilerPool;
+import ugo.cache.UgoDiskDecompileCache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UgoBatchDecompile extends GhidraScript {
+
+    public void run() throws Exception {
+        DecompileOptions options = new DecompileOptions();
+        options.grabFromProgram(currentProgram);
+
+        AddressSetView addresses = null;
+        if (currentSelection != null && !currentSelection.isEmpty()) {
+            addresses = currentSelection;
+        }
+
+        AtomicInteger failed = new AtomicInteger();
+        UgoDecompilerPool pool = new UgoDecompilerPool(options);
+        try {
+            UgoBatchDecompiler batchDecompiler =
+                    new UgoBatchDecompiler(pool, UgoDiskDecompileCache.createDefault(),
+                            options.getDefaultTimeout());
+            long start = System.currentTimeMillis();
+            int count = batchDecompiler.decompile(currentProgram, addresses,
+                    (UgoBatchDecompileResult result) -> {
+                        if (!result.isSuccess()) {
+                            failed.incrementAndGet();
+                            printerr(result.getFunction().getName() + ": " +
+                                    result.getErrorMessage());
+                        }
+                    }, monitor);
+            long elapsed = System.currentTimeMillis() - start;
+            printf("Decompiled %d functions (%d failed) in %d ms using %d processes\n", count,
+                    failed.get(), elapsed, pool.getMaxSize());
+        } finally {
+            pool.dispose();
+        }
+    }
+}
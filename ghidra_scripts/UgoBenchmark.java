@@ -0,0 +1,43 @@
+// Symbolicates the current program, restores its prototypes and decompiles every function,
+// timing each phase, and appends the measurements as one line of JSON to a results file.
+// Arguments: [results.ndjson] [processes]; processes defaults to one per processor.
+// Headless: analyzeHeadless <project> <name> -import <binary> -postScript UgoBenchmark.java out.ndjson
+// See benchmark/decompile_benchmark.sh to run it over the bundled samples.
+//@author tnek
+//@category Analysis
+//@keybinding
+//@menupath
+//@toolbar
+
+import ghidra.app.decompiler.DecompileOptions;
+import ghidra.app.script.GhidraScript;
+import ugo.bench.UgoDecompileBenchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public class UgoBenchmark extends GhidraScript {
+
+    public void run() throws Exception {
+        String[] args = getScriptArgs();
+        File output = new File(args.length > 0 ? args[0] : "ugo-benchmark.ndjson");
+        int processes = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+        DecompileOptions options = new DecompileOptions();
+        options.grabFromProgram(currentProgram);
+
+        UgoDecompileBenchmark.Result result =
+                new UgoDecompileBenchmark(currentProgram, options, processes).run(monitor);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(output, true),
+                StandardCharsets.UTF_8)) {
+            writer.write(result.toJson());
+            writer.write('\n');
+        }
+        printf("Decompiled %d functions (%d failed) at %.1f functions/sec; results in %s\n",
+                result.getFunctions(), result.getFailed(), result.getFunctionsPerSecond(),
+                output.getAbsolutePath());
+    }
+}
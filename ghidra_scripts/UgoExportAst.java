@@ -0,0 +1,59 @@
+// Exports the decompiler markup, varnodes and p-code of every function of the current program
+// (or the current selection), decompiled in parallel across a pool of decompiler processes.
+// Arguments: <output file> [ndjson|binary], ndjson by default.
+// Headless: analyzeHeadless <project> <name> -process <binary> -postScript UgoExportAst.java out.ndjson
+//@author tnek
+//@category Analysis
+//@keybinding
+//@menupath Analysis.[UGO] Export AST
+//@toolbar
+
+import ghidra.app.decompiler.DecompileOptions;
+import ghidra.app.script.GhidraScript;
+import ghidra.program.model.address.AddressSetView;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilerPool;
+import ugo.cache.UgoDiskDecompileCache;
+import ugo.export.UgoAstExporter;
+
+import java.io.File;
+
+public class UgoExportAst extends GhidraScript {
+
+    public void run() throws Exception {
+        String[] args = getScriptArgs();
+        UgoAstExporter.Format format = args.length > 1
+                ? UgoAstExporter.Format.valueOf(args[1].toUpperCase())
+                : UgoAstExporter.Format.NDJSON;
+        File output;
+        if (args.length > 0) {
+            output = new File(args[0]);
+        } else if (isRunningHeadless()) {
+            output = new File(currentProgram.getName() + "." + format.name().toLowerCase());
+        } else {
+            output = askFile("Export AST", "Export");
+        }
+
+        DecompileOptions options = new DecompileOptions();
+        options.grabFromProgram(currentProgram);
+
+        AddressSetView addresses = null;
+        if (currentSelection != null && !currentSelection.isEmpty()) {
+            addresses = currentSelection;
+        }
+
+        UgoDecompilerPool pool = new UgoDecompilerPool(options);
+        try (UgoAstExporter exporter = new UgoAstExporter(output, format)) {
+            UgoBatchDecompiler batchDecompiler =
+                    new UgoBatchDecompiler(pool, UgoDiskDecompileCache.createDefault(),
+                            options.getDefaultTimeout());
+            long start = System.currentTimeMillis();
+            int count = batchDecompiler.decompile(currentProgram, addresses, exporter, monitor);
+            long elapsed = System.currentTimeMillis() - start;
+            printf("Exported %d functions to %s in %d ms using %d processes\n", count,
+                    output.getAbsolutePath(), elapsed, pool.getMaxSize());
+        } finally {
+            pool.dispose();
+        }
+    }
+}
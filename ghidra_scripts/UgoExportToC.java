@@ -0,0 +1,59 @@
+// Exports the C of every function of the current program (or the current selection), decompiled
+// in parallel across a pool of decompiler processes and written in entry point order.
+// Arguments: <output.c> to write one file, or <directory> bypackage to write one file per Go package.
+// Headless: analyzeHeadless <project> <name> -process <binary> -postScript UgoExportToC.java out.c
+//@author tnek
+//@category Analysis
+//@keybinding
+//@menupath Analysis.[UGO] Export to C
+//@toolbar
+
+import ghidra.app.decompiler.DecompileOptions;
+import ghidra.app.script.GhidraScript;
+import ghidra.program.model.address.AddressSetView;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilerPool;
+import ugo.cache.UgoDiskDecompileCache;
+import ugo.export.UgoCExporter;
+
+import java.io.File;
+
+public class UgoExportToC extends GhidraScript {
+
+    public void run() throws Exception {
+        String[] args = getScriptArgs();
+        boolean byPackage = args.length > 1 && args[1].equalsIgnoreCase("bypackage");
+        File output;
+        if (args.length > 0) {
+            output = new File(args[0]);
+        } else if (isRunningHeadless()) {
+            output = new File(currentProgram.getName() + ".c");
+        } else {
+            output = askFile("Export to C", "Export");
+        }
+
+        DecompileOptions options = new DecompileOptions();
+        options.grabFromProgram(currentProgram);
+
+        AddressSetView addresses = null;
+        if (currentSelection != null && !currentSelection.isEmpty()) {
+            addresses = currentSelection;
+        }
+
+        UgoDecompilerPool pool = new UgoDecompilerPool(options);
+        try (UgoCExporter exporter = byPackage
+                ? UgoCExporter.toPackageDirectory(currentProgram, output)
+                : UgoCExporter.toFile(currentProgram, output)) {
+            UgoBatchDecompiler batchDecompiler =
+                    new UgoBatchDecompiler(pool, UgoDiskDecompileCache.createDefault(),
+                            options.getDefaultTimeout());
+            long start = System.currentTimeMillis();
+            int count = batchDecompiler.decompile(currentProgram, addresses, exporter, monitor);
+            long elapsed = System.currentTimeMillis() - start;
+            printf("Exported %d functions to %s in %d ms using %d processes\n", count,
+                    output.getAbsolutePath(), elapsed, pool.getMaxSize());
+        } finally {
+            pool.dispose();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ugo;
+
+import docking.widgets.fieldpanel.support.Highlight;
+import ghidra.app.decompiler.*;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.address.AddressSpace;
+import ghidra.program.model.address.GenericAddressSpace;
+import ghidra.program.model.pcode.Varnode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds decompiler markup of a given number of lines without a decompiler, shaped like the C of
+ * a large Go function: statements of the form {@code uVar3 = uVar4 + 0x1f;} over a fixed set of
+ * variables, one per line at varying indents, with every variable token bound to a varnode.
+ */
+final class SyntheticDocument {
+
+    static final int VARIABLE_COUNT = 64;
+    // the texts of the first and last statements only, for searches that have to scan the whole
+    // document
+    static final String FIRST_LINE_MARKER = "firstStatement";
+    static final String LAST_LINE_MARKER = "lastStatement";
+
+    private static final AddressSpace RAM =
+            new GenericAddressSpace("ram", 64, AddressSpace.TYPE_RAM, 0);
+
+    private final ClangTokenGroup root;
+    private final List<Varnode> variables = new ArrayList<>();
+
+    private SyntheticDocument(int lineCount) {
+        for (int i = 0; i < VARIABLE_COUNT; i++) {
+            variables.add(new Varnode(RAM.getAddress(0x1000L + 8 * i), 8));
+        }
+        root = new ClangTokenGroup(null);
+        for (int line = 0; line < lineCount; line++) {
+            root.AddTokenGroup(createStatement(root, line, line == lineCount - 1));
+        }
+    }
+
+    static SyntheticDocument create(int lineCount) {
+        return new SyntheticDocument(lineCount);
+    }
+
+    ClangTokenGroup getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns a layout controller displaying this document, as the panel would create it, but
+     * without a panel or highlights.
+     */
+    UgoClangLayoutController layOut() {
+        UgoClangLayoutController controller = createLayoutController();
+        controller.buildLayouts(null, root, null, false);
+        return controller;
+    }
+
+    static UgoClangLayoutController createLayoutController() {
+        return new UgoClangLayoutController(new DecompileOptions(), null, null,
+                (field, text, cursorTextOffset) -> new Highlight[0]);
+    }
+
+    /**
+     * Returns the varnode of the i'th variable, which appears on every {@link #VARIABLE_COUNT}th
+     * line as a destination and on the line before it as an operand.
+     */
+    Varnode getVariable(int i) {
+        return variables.get(i % VARIABLE_COUNT);
+    }
+
+    private ClangStatement createStatement(ClangNode parent, int line, boolean last) {
+        ClangStatement statement = new ClangStatement(parent);
+        Address address = RAM.getAddress(0x400000L + 4 * line);
+        statement.AddTokenGroup(new ClangBreak(statement, 1 + line % 4));
+        String output = line == 0 ? FIRST_LINE_MARKER
+                : last ? LAST_LINE_MARKER : "uVar" + line % VARIABLE_COUNT;
+        statement.AddTokenGroup(new Variable(statement, output, getVariable(line), address));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, " "));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, "="));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, " "));
+        statement.AddTokenGroup(new Variable(statement, "uVar" + (line + 1) % VARIABLE_COUNT,
+                getVariable(line + 1), address));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, " "));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, "+"));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, " "));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, "0x" + Integer.toHexString(line)));
+        statement.AddTokenGroup(new ClangSyntaxToken(statement, ";"));
+        return statement;
+    }
+
+    /**
+     * A variable token with its text and varnode set directly, as restoring from the decompiler's
+     * XML would.
+     */
+    private static class Variable extends ClangVariableToken {
+        private final String text;
+        private final Varnode varnode;
+        private final Address address;
+
+        Variable(ClangNode parent, String text, Varnode varnode, Address address) {
+            super(parent);
+            this.text = text;
+            this.varnode = varnode;
+            this.address = address;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public Varnode getVarnode() {
+            return varnode;
+        }
+
+        @Override
+        public Address getMinAddress() {
+            return address;
+        }
+
+        @Override
+        public Address getMaxAddress() {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ugo;
+
+import docking.widgets.fieldpanel.support.FieldLocation;
+import docking.widgets.fieldpanel.support.FieldSelection;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying a selection of the whole document as text, which lays out every line that is
+ * not already cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UgoClipboardBenchmark {
+
+    // the width of a space in the default monospaced font
+    private static final int SPACE_WIDTH = 7;
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private UgoClangLayoutController controller;
+    private FieldSelection selection;
+
+    @Setup
+    public void setUp() {
+        controller = SyntheticDocument.create(lines).layOut();
+        selection = new FieldSelection();
+        selection.addRange(new FieldLocation(0, 0, 0, 0),
+                new FieldLocation(lines - 1, 0, 0, Integer.MAX_VALUE));
+    }
+
+    @Benchmark
+    public String copySelection() {
+        return UgoDecompilerClipboardProvider.getText(controller, selection, SPACE_WIDTH);
+    }
+}
@@ -0,0 +1,61 @@
+package ugo;
+
+import ghidra.program.model.pcode.Varnode;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures highlighting a variable the way a click on it does: clearing the previous highlights,
+ * highlighting every token of its varnodes and filling the syntax between them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UgoHighlightBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    // how many of the document's variables are highlighted at once, as by a slice
+    @Param({"1", "16"})
+    public int variables;
+
+    private UgoTokenIndex tokenIndex;
+    private UgoClangHighlightController highlightController;
+    private Set<Varnode> varnodes;
+
+    @Setup
+    public void setUp() {
+        SyntheticDocument document = SyntheticDocument.create(lines);
+        tokenIndex = document.layOut().getTokenIndex();
+        highlightController = new UgoLocationClangHighlightController();
+        varnodes = new HashSet<>();
+        for (int i = 0; i < variables; i++) {
+            varnodes.add(document.getVariable(i));
+        }
+    }
+
+    @Benchmark
+    public UgoClangHighlightController addVarnodesToHighlight() {
+        highlightController.clearHighlights();
+        highlightController.addVarnodesToHighlight(tokenIndex, varnodes, Color.YELLOW, null,
+                null, Color.RED);
+        return highlightController;
+    }
+
+    @Benchmark
+    public UgoClangHighlightController addVarnodesToHighlightWithFill() {
+        highlightController.clearHighlights();
+        highlightController.addVarnodesToHighlight(tokenIndex, varnodes, Color.YELLOW, null,
+                null, Color.RED);
+        highlightController.addHighlightFill();
+        return highlightController;
+    }
+}
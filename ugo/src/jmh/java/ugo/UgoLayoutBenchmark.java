@@ -0,0 +1,37 @@
+package ugo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures laying out a decompiled document: splitting the markup into lines, measuring the
+ * first screen of fields, and indexing the text and tokens, as done on the decompile thread
+ * before every display.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UgoLayoutBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private SyntheticDocument document;
+    private UgoClangLayoutController controller;
+
+    @Setup
+    public void setUp() {
+        document = SyntheticDocument.create(lines);
+        controller = SyntheticDocument.createLayoutController();
+    }
+
+    @Benchmark
+    public int buildLayouts() {
+        controller.buildLayouts(null, document.getRoot(), null, false);
+        return controller.getNumLines();
+    }
+}
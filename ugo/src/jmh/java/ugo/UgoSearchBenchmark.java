@@ -0,0 +1,50 @@
+package ugo;
+
+import docking.widgets.SearchLocation;
+import docking.widgets.fieldpanel.support.FieldLocation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the find dialog's searches through a laid out document, for a term that only the line
+ * at the far end contains, so that every search scans the whole document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UgoSearchBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private UgoClangLayoutController controller;
+    private FieldLocation start;
+    private FieldLocation end;
+
+    @Setup
+    public void setUp() {
+        controller = SyntheticDocument.create(lines).layOut();
+        start = new FieldLocation(0, 0, 0, 0);
+        end = new FieldLocation(lines - 1, 0, 0, 0);
+    }
+
+    @Benchmark
+    public SearchLocation findForward() {
+        return controller.findNextTokenForSearch(SyntheticDocument.LAST_LINE_MARKER, start, true);
+    }
+
+    @Benchmark
+    public SearchLocation findBackward() {
+        return controller.findNextTokenForSearch(SyntheticDocument.FIRST_LINE_MARKER + " =", end,
+                false);
+    }
+
+    @Benchmark
+    public SearchLocation findRegexForward() {
+        return controller.findNextTokenForSearchRegex("last\\w+ = uVar\\d+", start, true);
+    }
+}
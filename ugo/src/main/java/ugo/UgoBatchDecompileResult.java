@@ -0,0 +1,72 @@
+package ugo;
+
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.program.model.listing.Function;
+
+/**
+ * The outcome of decompiling one function as part of a {@link UgoBatchDecompiler} run.
+ */
+public class UgoBatchDecompileResult {
+
+    private final Function function;
+    private final int index;
+    private final DecompileResults results;
+    private final String errorMessage;
+    private final long decompileNanos;
+    private final long modificationNumber;
+
+    UgoBatchDecompileResult(Function function, int index, DecompileResults results,
+                            String errorMessage, long decompileNanos, long modificationNumber) {
+        this.function = function;
+        this.index = index;
+        this.results = results;
+        this.errorMessage = errorMessage;
+        this.decompileNanos = decompileNanos;
+        this.modificationNumber = modificationNumber;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the position of the function within the run, which follows entry point order.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the decompiler results, or null if the decompiler could not be run at all.
+     */
+    public DecompileResults getDecompileResults() {
+        return results;
+    }
+
+    public boolean isSuccess() {
+        return results != null && results.decompileCompleted();
+    }
+
+    public String getErrorMessage() {
+        if (errorMessage != null) {
+            return errorMessage;
+        }
+        return results != null ? results.getErrorMessage() : null;
+    }
+
+    /**
+     * Returns the time spent in the native decompiler, excluding any time spent waiting for a
+     * free process.
+     */
+    public long getDecompileNanos() {
+        return decompileNanos;
+    }
+
+    /**
+     * Returns the modification number of the program from before the function was decompiled.
+     * The results are stale if the program has changed since.
+     */
+    public long getModificationNumber() {
+        return modificationNumber;
+    }
+}
@@ -0,0 +1,270 @@
+package ugo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ghidra.app.decompiler.DecompInterface;
+import ghidra.app.decompiler.DecompileException;
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.program.model.address.AddressSetView;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.FunctionIterator;
+import ghidra.program.model.listing.Program;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import ugo.cache.UgoDecompileCacheKey;
+import ugo.cache.UgoDiskDecompileCache;
+
+/**
+ * Decompiles many functions at once across the processes of a {@link UgoDecompilerPool}.  This
+ * is the batch counterpart of {@link UgoDecompilerManager}, which only ever works on the single
+ * function shown in a Decompiler window.
+ *
+ * <p>Functions are handed out in order to a fork-join pool with one worker per pooled process.
+ * Each result is handed to a {@link UgoDecompileResultSink} as soon as it is available.  A worker
+ * does not start a function more than {@value #MAX_RESULTS_AHEAD} places after the first one
+ * whose result has not been handed over, so a sink that writes in order only ever buffers that
+ * many results behind a slow function.  Progress and cancellation go through the given
+ * {@link TaskMonitor}.
+ */
+public class UgoBatchDecompiler {
+
+    static final int MAX_RESULTS_AHEAD = 64;
+    // how often a worker waiting for its turn checks for cancellation
+    private static final int TURN_POLL_MILLIS = 100;
+
+    private final UgoDecompilerPool pool;
+    private final UgoDiskDecompileCache diskCache;
+    private final int timeoutSecs;
+
+    /**
+     * @param pool the processes to decompile with
+     * @param timeoutSecs the per-function decompile timeout; 0 for no timeout
+     */
+    public UgoBatchDecompiler(UgoDecompilerPool pool, int timeoutSecs) {
+        this(pool, null, timeoutSecs);
+    }
+
+    /**
+     * @param pool the processes to decompile with
+     * @param diskCache if non-null, results are loaded from and stored to this cache
+     * @param timeoutSecs the per-function decompile timeout; 0 for no timeout
+     */
+    public UgoBatchDecompiler(UgoDecompilerPool pool, UgoDiskDecompileCache diskCache,
+                              int timeoutSecs) {
+        this.pool = pool;
+        this.diskCache = diskCache;
+        this.timeoutSecs = timeoutSecs;
+    }
+
+    /**
+     * Returns the non-external, non-thunk functions with an entry point in the given set, in
+     * entry point order.
+     *
+     * @param program the program
+     * @param addresses the addresses to restrict to, or null for the whole program
+     */
+    public static List<Function> collectFunctions(Program program, AddressSetView addresses) {
+        FunctionIterator iterator = addresses == null
+                ? program.getFunctionManager().getFunctions(true)
+                : program.getFunctionManager().getFunctions(addresses, true);
+        List<Function> functions = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Function function = iterator.next();
+            if (!function.isExternal() && !function.isThunk()) {
+                functions.add(function);
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * Decompiles every function with an entry point in the given set.
+     *
+     * @param program the program
+     * @param addresses the addresses to restrict to, or null for the whole program
+     * @param sink receives each result
+     * @param monitor reports progress and allows cancellation
+     * @return the number of functions handed to the sink
+     * @throws CancelledException if the monitor was cancelled
+     * @throws IOException if the sink failed
+     */
+    public int decompile(Program program, AddressSetView addresses, UgoDecompileResultSink sink,
+                         TaskMonitor monitor) throws CancelledException, IOException {
+        return decompile(program, collectFunctions(program, addresses), sink, monitor);
+    }
+
+    /**
+     * Decompiles the given functions.  Result indexes follow the order of the list.
+     */
+    public int decompile(Program program, List<Function> functions, UgoDecompileResultSink sink,
+                         TaskMonitor monitor) throws CancelledException, IOException {
+        monitor.initialize(functions.size());
+        monitor.setMessage("Decompiling " + functions.size() + " functions...");
+
+        BatchRun run = new BatchRun(program, functions, sink, monitor);
+        int workerCount = Math.max(1, Math.min(pool.getMaxSize(), functions.size()));
+        List<DecompileWorker> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(new DecompileWorker(run));
+        }
+        ForkJoinPool forkJoinPool = new ForkJoinPool(workerCount);
+        try {
+            forkJoinPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(workers)));
+        } finally {
+            forkJoinPool.shutdownNow();
+        }
+
+        Throwable failure = run.failure.get();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        monitor.checkCanceled();
+
+        sink.batchFinished();
+        return run.completed.get();
+    }
+
+    private UgoBatchDecompileResult decompileOne(BatchRun run, int index)
+            throws CancelledException {
+        Function function = run.functions.get(index);
+        long modificationNumber = run.program.getModificationNumber();
+        String cacheKey = null;
+        if (diskCache != null) {
+            long start = System.nanoTime();
+            cacheKey = UgoDecompileCacheKey.compute(function, pool.getOptions(run.program));
+            DecompileResults cachedResults = diskCache.load(function, cacheKey);
+            if (cachedResults != null) {
+                return new UgoBatchDecompileResult(function, index, cachedResults, null,
+                        System.nanoTime() - start, modificationNumber);
+            }
+        }
+
+        DecompInterface ifc;
+        try {
+            ifc = pool.checkout(run.program, UgoDecompilePriority.BATCH, run.monitor);
+        } catch (DecompileException e) {
+            return new UgoBatchDecompileResult(function, index, null, e.getMessage(), 0,
+                    modificationNumber);
+        }
+
+        DecompileResults results = null;
+        long start = System.nanoTime();
+        try {
+            results = ifc.decompileFunction(function, timeoutSecs, run.monitor);
+            if (cacheKey != null) {
+                diskCache.store(cacheKey, ifc, results);
+            }
+        } finally {
+            pool.release(ifc, results);
+        }
+        return new UgoBatchDecompileResult(function, index, results, null,
+                System.nanoTime() - start, modificationNumber);
+    }
+
+    /**
+     * State shared by every task of one {@link #decompile} call.
+     */
+    private static class BatchRun {
+        private final Program program;
+        private final List<Function> functions;
+        private final UgoDecompileResultSink sink;
+        private final TaskMonitor monitor;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // guarded by this
+        private final BitSet delivered = new BitSet();
+        private int firstUndelivered;
+
+        BatchRun(Program program, List<Function> functions, UgoDecompileResultSink sink,
+                 TaskMonitor monitor) {
+            this.program = program;
+            this.functions = functions;
+            this.sink = sink;
+            this.monitor = monitor;
+        }
+
+        boolean isStopped() {
+            return monitor.isCancelled() || failure.get() != null;
+        }
+
+        /**
+         * Waits until the function at the index is close enough to the first result not yet
+         * handed to the sink.  The function at that first index has already been handed out, so
+         * this always ends.
+         *
+         * @return false if the run stopped while waiting
+         */
+        synchronized boolean awaitTurn(int index) {
+            while (index >= firstUndelivered + MAX_RESULTS_AHEAD) {
+                if (isStopped()) {
+                    return false;
+                }
+                try {
+                    wait(TURN_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !isStopped();
+        }
+
+        synchronized void delivered(int index) {
+            delivered.set(index);
+            int first = delivered.nextClearBit(firstUndelivered);
+            if (first != firstUndelivered) {
+                firstUndelivered = first;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Decompiles the next function of the run until there are none left.  Functions are taken
+     * in index order, so the results arrive nearly in order too.
+     */
+    private class DecompileWorker extends RecursiveAction {
+        private final BatchRun run;
+
+        DecompileWorker(BatchRun run) {
+            this.run = run;
+        }
+
+        @Override
+        protected void compute() {
+            int index;
+            while ((index = run.nextIndex.getAndIncrement()) < run.functions.size()) {
+                if (!run.awaitTurn(index)) {
+                    return;
+                }
+                try {
+                    UgoBatchDecompileResult result = decompileOne(run, index);
+                    if (run.isStopped()) {
+                        return;
+                    }
+                    run.sink.resultReady(result);
+                    run.delivered(index);
+                    run.monitor.setProgress(run.completed.incrementAndGet());
+                } catch (CancelledException e) {
+                    return; // the monitor is cancelled; the other workers will stop on their own
+                } catch (IOException | RuntimeException e) {
+                    run.failure.compareAndSet(null, e);
+                    return;
+                }
+            }
+        }
+    }
+}
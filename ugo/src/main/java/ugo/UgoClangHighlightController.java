@@ -46,6 +46,9 @@ public abstract class UgoClangHighlightController {
 
     protected ArrayList<ClangHighlightListener> highlightListenerList = new ArrayList<>();
 
+    private int updateDepth;
+    private boolean changedDuringUpdate;
+
     public UgoClangHighlightController() {
     }
 
@@ -107,45 +110,37 @@ public abstract class UgoClangHighlightController {
         return null;
     }
 
-    public void addVarnodesToHighlight(ClangNode parentNode, Set<Varnode> varnodes,
+    /**
+     * Highlights the tokens of the given varnodes, and the token of the given varnode in the
+     * given op with the special color.  Only the tokens of the varnodes are visited.
+     */
+    public void addVarnodesToHighlight(UgoTokenIndex tokenIndex, Set<Varnode> varnodes,
                                        Color highlightColor, Varnode specificvn, PcodeOp specificop, Color specialColor) {
-        int nchild = parentNode.numChildren();
-        for (int i = 0; i < nchild; ++i) {
-            ClangNode node = parentNode.Child(i);
-            if (node.numChildren() > 0) {
-                addVarnodesToHighlight(node, varnodes, highlightColor, specificvn, specificop,
-                        specialColor);
+        for (Varnode vn : varnodes) {
+            for (ClangToken tok : tokenIndex.getTokens(vn)) {
+                doAddHighlight(tok, highlightColor);
             }
-            else if (node instanceof ClangToken) {
-                ClangToken tok = (ClangToken) node;
-                Varnode vn = DecompilerUtils.getVarnodeRef(tok);
-                if (varnodes.contains(vn)) {
-                    addHighlight(tok, highlightColor);
-                }
-                if (vn == specificvn) { // Look for specific varnode to label with specialColor
-                    if ((specificop != null) && (tok.getPcodeOp() == specificop)) {
-                        addHighlight(tok, specialColor);
-                    }
+        }
+        if (specificvn != null && specificop != null) {
+            // Look for specific varnode to label with specialColor
+            for (ClangToken tok : tokenIndex.getTokens(specificvn)) {
+                if (DecompilerUtils.getVarnodeRef(tok) == specificvn &&
+                        tok.getPcodeOp() == specificop) {
+                    doAddHighlight(tok, specialColor);
                 }
             }
         }
         notifyListeners();
     }
 
-    public void addPcodeOpsToHighlight(ClangNode parentNode, Set<PcodeOp> ops,
+    /**
+     * Highlights the tokens of the given ops.  Only the tokens of the ops are visited.
+     */
+    public void addPcodeOpsToHighlight(UgoTokenIndex tokenIndex, Set<PcodeOp> ops,
                                        Color highlightColor) {
-        int nchild = parentNode.numChildren();
-        for (int i = 0; i < nchild; ++i) {
-            ClangNode node = parentNode.Child(i);
-            if (node.numChildren() > 0) {
-                addPcodeOpsToHighlight(node, ops, highlightColor);
-            }
-            else if (node instanceof ClangToken) {
-                ClangToken tok = (ClangToken) node;
-                PcodeOp op = tok.getPcodeOp();
-                if (ops.contains(op)) {
-                    addHighlight(tok, highlightColor);
-                }
+        for (PcodeOp op : ops) {
+            for (ClangToken tok : tokenIndex.getTokens(op)) {
+                doAddHighlight(tok, highlightColor);
             }
         }
         notifyListeners();
@@ -219,18 +214,19 @@ public abstract class UgoClangHighlightController {
                         }
                         else if (syn.getClose() == paren) {
                             outside = true;
-                            addHighlight(syn, highlightColor);
+                            doAddHighlight(syn, highlightColor);
                             tokenList.add(syn);
                         }
                     }
                     if (!outside) {
-                        addHighlight(tk, highlightColor);
+                        doAddHighlight(tk, highlightColor);
                         tokenList.add(tk);
                     }
                 }
             }
             par = par.Parent();
         }
+        notifyListeners();
         return tokenList;
     }
 
@@ -256,57 +252,75 @@ public abstract class UgoClangHighlightController {
      * highlighted tokens, but which have no address
      */
     public void addHighlightFill() {
-        ClangTokenGroup lastgroup = null;
-        ArrayList<ClangNode> newhi = new ArrayList<>();
-        ArrayList<Color> newcolor = new ArrayList<>();
+        // bucket the highlighted tokens by group, so each group is scanned once however many of
+        // its tokens are highlighted
+        Set<ClangTokenGroup> groups = Collections.newSetFromMap(new IdentityHashMap<>());
         for (ClangToken tok : highlightTokenSet) {
             if (tok.Parent() instanceof ClangTokenGroup) {
-                ClangTokenGroup par = (ClangTokenGroup) tok.Parent();
-                if (par == lastgroup) {
-                    continue;
-                }
-                lastgroup = par;
-                int beg = -1;
-                int end = par.numChildren();
-                for (int j = 0; j < par.numChildren(); ++j) {
-                    if (par.Child(j) instanceof ClangToken) {
-                        ClangToken token = (ClangToken) par.Child(j);
-                        Color curcolor = token.getHighlight();
-                        if (curcolor != null) {
-                            if (beg == -1) {
-                                beg = j;
-                            }
-                            else {
-                                end = j;
-                                for (int k = beg + 1; k < end; ++k) {
-                                    if (par.Child(k) instanceof ClangToken) {
-                                        newhi.add(par.Child(k));
-                                        newcolor.add(curcolor);
-                                    }
-                                }
-                                beg = j;
-                            }
-                        }
-                        else if (token.getMinAddress() != null) {
-                            beg = -1;
-                        }
-                    }
-                    else {
-                        beg = -1;
-                    }
-                }
+                groups.add((ClangTokenGroup) tok.Parent());
             }
         }
+        ArrayList<ClangToken> newhi = new ArrayList<>();
+        ArrayList<Color> newcolor = new ArrayList<>();
+        for (ClangTokenGroup par : groups) {
+            addGroupFill(par, newhi, newcolor);
+        }
         for (int i = 0; i < newhi.size(); ++i) {
-            ClangToken tok = (ClangToken) newhi.get(i);
+            ClangToken tok = newhi.get(i);
             if (tok.getHighlight() != null) {
                 continue;
             }
-            addHighlight(tok, newcolor.get(i));
+            doAddHighlight(tok, newcolor.get(i));
         }
         notifyListeners();
     }
 
+    /**
+     * Collects the tokens without an address between two highlighted tokens of the group, with
+     * the color of the highlighted token that follows them.
+     */
+    private static void addGroupFill(ClangTokenGroup par, List<ClangToken> newhi,
+                                     List<Color> newcolor) {
+        int beg = -1;
+        for (int j = 0; j < par.numChildren(); ++j) {
+            ClangNode child = par.Child(j);
+            if (!(child instanceof ClangToken)) {
+                beg = -1;
+                continue;
+            }
+            ClangToken token = (ClangToken) child;
+            Color curcolor = token.getHighlight();
+            if (curcolor != null) {
+                if (beg != -1) {
+                    // everything since the previous highlighted token is a token without an address
+                    for (int k = beg + 1; k < j; ++k) {
+                        newhi.add((ClangToken) par.Child(k));
+                        newcolor.add(curcolor);
+                    }
+                }
+                beg = j;
+            }
+            else if (token.getMinAddress() != null) {
+                beg = -1;
+            }
+        }
+    }
+
+    /**
+     * Defers listener notification until the matching {@link #endUpdate()}, so that a series of
+     * highlight changes repaints once.  Calls may nest.
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    public void endUpdate() {
+        if (--updateDepth == 0 && changedDuringUpdate) {
+            changedDuringUpdate = false;
+            notifyListeners();
+        }
+    }
+
     public boolean addListener(ClangHighlightListener listener) {
         return highlightListenerList.add(listener);
     }
@@ -316,6 +330,10 @@ public abstract class UgoClangHighlightController {
     }
 
     private void notifyListeners() {
+        if (updateDepth > 0) {
+            changedDuringUpdate = true;
+            return;
+        }
         for (ClangHighlightListener listener : highlightListenerList) {
             listener.tokenHighlightsChanged();
         }
@@ -25,6 +25,8 @@ import docking.widgets.fieldpanel.field.FieldElement;
 import docking.widgets.fieldpanel.listener.IndexMapper;
 import docking.widgets.fieldpanel.listener.LayoutModelListener;
 import docking.widgets.fieldpanel.support.FieldLocation;
+import docking.widgets.fieldpanel.support.FieldRange;
+import docking.widgets.fieldpanel.support.FieldSelection;
 import docking.widgets.fieldpanel.support.HighlightFactory;
 import docking.widgets.fieldpanel.support.RowColLocation;
 import docking.widgets.fieldpanel.support.SingleRowLayout;
@@ -33,65 +35,50 @@ import ghidra.app.decompiler.component.ClangFieldElement;
 import ghidra.app.decompiler.component.ClangTextField;
 import ghidra.app.plugin.core.decompile.actions.FieldBasedSearchLocation;
 import ghidra.app.util.viewer.field.CommentUtils;
+import ghidra.program.model.address.Address;
 import ghidra.program.model.listing.Function;
 import ghidra.program.model.listing.Program;
 import ghidra.program.model.pcode.HighFunction;
 import ghidra.util.Msg;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.swing.*;
 import java.awt.*;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.regex.Matcher;
+import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 /**
  * Control the GUI layout for displaying tokenized C code
+ *
+ * <p>Fields are only built when a line is laid out, and the most recently used ones are kept in
+ * a bounded cache, so the cost of displaying a function depends on what is on screen rather than
+ * on the length of the function.
  */
 public class UgoClangLayoutController implements LayoutModel, LayoutModelListener {
 
-    private final ClangFieldElement EMPTY_LINE_NUMBER_SPACER;
+    // enough for several screens of scrolling back and forth
+    private static final int MAX_CACHED_FIELDS = 2000;
+    // laid out with the document, so the first screen is ready when it is displayed
+    private static final int PREPARED_FIELDS = 100;
 
-    private int maxWidth;
-    private int lineNumberFieldWidth;
-    private int indentWidth;
     private DecompileOptions options;
     private UgoDecompilerPanel decompilerPanel;
-    private ClangTokenGroup docroot; // Root of displayed document
-    private Field[] fieldList; // Array of fields comprising layout
-    private FontMetrics metrics;
     private HighlightFactory hlFactory;
     private ArrayList<LayoutModelListener> listeners;
-    private Color[] syntax_color; // Foreground colors.
-    private BigInteger numIndexes = BigInteger.ZERO;
-    private ArrayList<ClangLine> lines = new ArrayList<>();
-
-    private boolean showLineNumbers = true;
-
-    private ClangFieldElement createEmptyLineNumberSpacer() {
-        ClangToken lineNumberToken = ClangToken.buildSpacer(null, 0, "");
-        AttributedString as = new AttributedString("", Color.WHITE, metrics);
-        return new ClangFieldElement(lineNumberToken, as, 0);
-    }
+    private LayoutSnapshot layout; // The displayed document
 
     public UgoClangLayoutController(DecompileOptions opt, UgoDecompilerPanel decompilerPanel,
                                     FontMetrics met, HighlightFactory hlFactory) {
         options = opt;
         this.decompilerPanel = decompilerPanel;
-        syntax_color = new Color[9];
-        metrics = met;
         this.hlFactory = hlFactory;
-        EMPTY_LINE_NUMBER_SPACER = createEmptyLineNumberSpacer();
         listeners = new ArrayList<>();
         buildLayouts(null, null, null, false);
     }
 
     public ArrayList<ClangLine> getLines() {
-        return lines;
+        return layout.lines;
     }
 
     @Override
@@ -101,20 +88,20 @@ public class UgoClangLayoutController implements LayoutModel, LayoutModelListene
 
     @Override
     public Dimension getPreferredViewSize() {
-        return new Dimension(maxWidth + lineNumberFieldWidth, 500);
+        return new Dimension(layout.maxWidth + layout.lineNumberFieldWidth, 500);
     }
 
     @Override
     public BigInteger getNumIndexes() {
-        return numIndexes;
+        return layout.numIndexes;
     }
 
     @Override
     public Layout getLayout(BigInteger index) {
-        if (index.compareTo(numIndexes) >= 0) {
+        if (index.compareTo(layout.numIndexes) >= 0) {
             return null;
         }
-        return new SingleRowLayout(fieldList[index.intValue()]);
+        return new SingleRowLayout(getField(index.intValue()));
     }
 
     @Override
@@ -149,14 +136,14 @@ public class UgoClangLayoutController implements LayoutModel, LayoutModelListene
 
     public void layoutChanged() {
         for (int i = 0; i < listeners.size(); ++i) {
-            listeners.get(i).dataChanged(BigInteger.ZERO, numIndexes);
+            listeners.get(i).dataChanged(BigInteger.ZERO, layout.numIndexes);
         }
     }
 
     @Override
     public BigInteger getIndexAfter(BigInteger index) {
         BigInteger nextIndex = index.add(BigInteger.ONE);
-        if (nextIndex.compareTo(numIndexes) >= 0) {
+        if (nextIndex.compareTo(layout.numIndexes) >= 0) {
             return null;
         }
         return nextIndex;
@@ -175,240 +162,415 @@ public class UgoClangLayoutController implements LayoutModel, LayoutModelListene
     }
 
     public ClangTokenGroup getRoot() {
-        return docroot;
+        return layout.docroot;
+    }
+
+    /**
+     * Returns the tokens of the displayed document, indexed by varnode, p-code op and text.
+     */
+    public UgoTokenIndex getTokenIndex() {
+        return layout.tokenIndex;
     }
 
-    Field[] getFields() {
-        return fieldList;
+    public int getNumLines() {
+        return layout.lines.size();
     }
 
-    private ClangTextField createTextFieldForLine(ClangLine line, int lineCount,
-                                                  boolean paintLineNumbers) {
-        List<ClangToken> tokens = line.getAllTokens();
+    /**
+     * Returns the field of the given line, building it if it is not cached.
+     */
+    ClangTextField getField(int index) {
+        return layout.getField(index);
+    }
 
-        ClangFieldElement lineNumberFieldElement =
-                createLineNumberFieldElement(line, lineCount, paintLineNumbers);
 
-        if (isComment(tokens)) {
-            return createCommentField(tokens, lineNumberFieldElement, line.getIndent());
+    /**
+     * Returns an array with one entry per line in which only the lines touched by the selection
+     * are filled in, for code that looks fields up by line index.
+     */
+    Field[] getFields(FieldSelection selection) {
+        Field[] fields = new Field[layout.lines.size()];
+        for (int i = 0; i < selection.getNumRanges(); i++) {
+            FieldRange range = selection.getFieldRange(i);
+            int start = range.getStart().getIndex().intValue();
+            int end = Math.min(range.getEnd().getIndex().intValue(), fields.length - 1);
+            for (int line = start; line <= end; line++) {
+                if (fields[line] == null) {
+                    fields[line] = getField(line);
+                }
+            }
         }
+        return fields;
+    }
 
-        FieldElement[] elements = createFieldElementsForLine(tokens);
-
-        int indent = line.getIndent() * indentWidth;
-        int lineNumberWidth = lineNumberFieldElement.getStringWidth();
-        int updatedMaxWidth = maxWidth + lineNumberWidth;
-        return new ClangTextField(tokens, elements, lineNumberFieldElement, indent, updatedMaxWidth,
-                hlFactory);
+    /**
+     * Returns the tokens that start at the given address.
+     */
+    List<ClangToken> getTokensAt(Address address) {
+        List<ClangToken> tokens = new ArrayList<>();
+        for (ClangLine line : layout.lines) {
+            for (ClangToken token : line.getAllTokens()) {
+                if (address.equals(token.getMinAddress())) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
     }
 
-    private ClangTextField createCommentField(List<ClangToken> tokens,
-                                              ClangFieldElement lineNumberFieldElement, int indentCount) {
+    /**
+     * Returns the index of the first line containing any of the tokens, or -1 if there is none.
+     */
+    int findIndexOfFirstLine(List<ClangToken> tokens) {
+        Set<ClangToken> wanted = new HashSet<>(tokens);
+        for (int i = 0; i < layout.lines.size(); i++) {
+            for (ClangToken token : layout.lines.get(i).getAllTokens()) {
+                if (wanted.contains(token)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
 
-        StringBuilder buffy = new StringBuilder();
-        for (ClangToken t : tokens) {
-            buffy.append(t.getText());
+    /**
+     * Returns the first address found on the lines above the token, or null if there is none.
+     */
+    Address findAddressBefore(ClangToken token) {
+        ClangLine line = token.getLineParent();
+        if (line == null) {
+            return null;
         }
+        for (int i = Math.min(line.getLineNumber() - 1, layout.lines.size()) - 1; i >= 0; i--) {
+            for (ClangToken candidate : layout.lines.get(i).getAllTokens()) {
+                Address address = candidate.getMinAddress();
+                if (address != null) {
+                    return address;
+                }
+            }
+        }
+        return null;
+    }
 
-        String text = buffy.toString();
-        ClangCommentToken token = getFirstCommentToken(tokens);
-        Color color = syntax_color[token.getSyntaxType()];
-        AttributedString prototype = new AttributedString("prototype", color, metrics);
-        Program program = decompilerPanel.getProgram();
-        FieldElement element = CommentUtils.parseTextForAnnotations(text, program, prototype, 0);
+    private static Map<Integer, ClangTextField> createFieldCache() {
+        return new LinkedHashMap<Integer, ClangTextField>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ClangTextField> eldest) {
+                return size() > MAX_CACHED_FIELDS;
+            }
+        };
+    }
 
-        FieldElement[] elements = new FieldElement[]{element};
-        ClangCommentToken newCommentToken = ClangCommentToken.derive(token, text);
-        List<ClangToken> newTokens = Arrays.asList(newCommentToken);
+    /**
+     * One laid out document.  It is built in full by its constructor without touching the
+     * controller, so it can be prepared off the Swing thread and then swapped in at once.
+     */
+    public class LayoutSnapshot {
+        private final ClangFieldElement EMPTY_LINE_NUMBER_SPACER;
+        private final Map<Integer, ClangTextField> fieldCache = createFieldCache(); // Recently laid out lines
+        private final Program program;
+
+        private int maxWidth;
+        private int lineNumberFieldWidth;
+        private int indentWidth;
+        private ClangTokenGroup docroot; // Root of displayed document
+        private FontMetrics metrics;
+        private Color[] syntax_color = new Color[9]; // Foreground colors.
+        private BigInteger numIndexes = BigInteger.ZERO;
+        private ArrayList<ClangLine> lines = new ArrayList<>();
+        private UgoSearchIndex searchIndex;
+        private UgoTokenIndex tokenIndex;
+
+        private boolean showLineNumbers = true;
+
+        private LayoutSnapshot(Function function, ClangTokenGroup doc, String errmsg) {
+            updateOptions();
+            EMPTY_LINE_NUMBER_SPACER = createEmptyLineNumberSpacer();
+            program = function != null ? function.getProgram() : null;
+            docroot = doc;
+            boolean isError = addErrorLayout(errmsg);
+
+            PrettyPrinter printer = new PrettyPrinter(function, docroot);
+            lines = printer.getLines();
+
+            int lineCount = lines.size();
+            numIndexes = BigInteger.valueOf(lineCount);
+
+            lineNumberFieldWidth = 0;
+            if (showLineNumbers && !isError) {
+                lineNumberFieldWidth = LineNumberFieldElement.getFieldWidth(metrics, lineCount);
+            }
 
-        int indent = indentCount * indentWidth;
-        int lineNumberWidth = lineNumberFieldElement.getStringWidth();
-        int updatedMaxWidth = maxWidth + lineNumberWidth;
-        return new ClangTextField(newTokens, elements, lineNumberFieldElement, indent,
-                updatedMaxWidth, hlFactory);
-    }
+            // measure the first screen now rather than on the Swing thread
+            for (int i = 0; i < Math.min(lineCount, PREPARED_FIELDS); i++) {
+                getField(i);
+            }
+            // and index the text once, rather than on every search
+            searchIndex = buildSearchIndex();
+            tokenIndex = new UgoTokenIndex(docroot);
+        }
 
-    private FieldElement[] createFieldElementsForLine(List<ClangToken> tokens) {
+        private ClangTextField getField(int index) {
+            ClangTextField field = fieldCache.get(index);
+            if (field == null) {
+                field = createTextFieldForLine(lines.get(index), lines.size(), showLineNumbers);
+                fieldCache.put(index, field);
+            }
+            return field;
+        }
 
-        ClangFieldElement[] elements = new ClangFieldElement[tokens.size()];
-        int columnPosition = 0;
-        for (int i = 0; i < tokens.size(); ++i) {
-            ClangToken token = tokens.get(i);
-            AttributedString as =
-                    new AttributedString(token.getText(), syntax_color[token.getSyntaxType()], metrics);
-            elements[i] = new ClangFieldElement(token, as, columnPosition);
-            columnPosition += as.length();
+        private UgoSearchIndex getSearchIndex() {
+            return searchIndex;
         }
-        return elements;
-    }
 
-    private ClangCommentToken getFirstCommentToken(List<ClangToken> tokens) {
-        for (ClangToken t : tokens) {
-            if (t instanceof ClangCommentToken) {
-                return (ClangCommentToken) t;
+        private UgoSearchIndex buildSearchIndex() {
+            List<String> lineTexts = new ArrayList<>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                lineTexts.add(getLineText(i));
             }
+            return new UgoSearchIndex(lineTexts);
         }
-        return null;
-    }
 
-    private boolean isComment(List<ClangToken> tokens) {
-        for (ClangToken t : tokens) {
-            if (t instanceof ClangCommentToken) {
-                // for now, I believe all comments are on a line by themselves, so if we find
-                // a comment token, then these are all comments
-                return true;
+        private String getLineText(int index) {
+            List<ClangToken> tokens = lines.get(index).getAllTokens();
+            if (isComment(tokens)) {
+                // annotations display differently from their source text, and matches must line
+                // up with the displayed columns
+                return createCommentElement(tokens).getText();
             }
+            return getText(tokens);
         }
-        return false;
-    }
 
-    private ClangFieldElement createLineNumberFieldElement(ClangLine line, int lineCount,
-                                                           boolean paintLineNumbers) {
+        private String getText(List<ClangToken> tokens) {
+            StringBuilder buffy = new StringBuilder();
+            for (ClangToken token : tokens) {
+                buffy.append(token.getText());
+            }
+            return buffy.toString();
+        }
 
-        if (paintLineNumbers) {
-            return new LineNumberFieldElement(line.getLineNumber(), lineCount, metrics);
+        private ClangFieldElement createEmptyLineNumberSpacer() {
+            ClangToken lineNumberToken = ClangToken.buildSpacer(null, 0, "");
+            AttributedString as = new AttributedString("", Color.WHITE, metrics);
+            return new ClangFieldElement(lineNumberToken, as, 0);
         }
 
-        return EMPTY_LINE_NUMBER_SPACER;
-    }
+        private ClangTextField createTextFieldForLine(ClangLine line, int lineCount,
+                                                      boolean paintLineNumbers) {
+            List<ClangToken> tokens = line.getAllTokens();
 
-    /**
-     * Update to the current Decompiler display options
-     */
-    @SuppressWarnings("deprecation")
-    // ignoring the deprecated call for toolkit
-    private void updateOptions() {
-        syntax_color[ClangToken.KEYWORD_COLOR] = options.getKeywordColor();
-        syntax_color[ClangToken.TYPE_COLOR] = options.getTypeColor();
-        syntax_color[ClangToken.FUNCTION_COLOR] = options.getFunctionColor();
-        syntax_color[ClangToken.COMMENT_COLOR] = options.getCommentColor();
-        syntax_color[ClangToken.VARIABLE_COLOR] = options.getVariableColor();
-        syntax_color[ClangToken.CONST_COLOR] = options.getConstantColor();
-        syntax_color[ClangToken.PARAMETER_COLOR] = options.getParameterColor();
-        syntax_color[ClangToken.GLOBAL_COLOR] = options.getGlobalColor();
-        syntax_color[ClangToken.DEFAULT_COLOR] = options.getDefaultColor();
+            ClangFieldElement lineNumberFieldElement =
+                    createLineNumberFieldElement(line, lineCount, paintLineNumbers);
 
-        // setting the metrics here will indirectly trigger the new font to be used deeper in
-        // the bowels of the FieldPanel (you can get the font from the metrics)
-        Font font = options.getDefaultFont();
-        metrics = Toolkit.getDefaultToolkit().getFontMetrics(font);
-        indentWidth = metrics.stringWidth(PrettyPrinter.INDENT_STRING);
-        maxWidth = indentWidth * options.getMaxWidth();
-        lineNumberFieldWidth = 0;
+            if (isComment(tokens)) {
+                return createCommentField(tokens, lineNumberFieldElement, line.getIndent());
+            }
 
-        showLineNumbers = options.isDisplayLineNumbers();
-    }
+            FieldElement[] elements = createFieldElementsForLine(tokens);
 
-    private void buildLayoutInternal(Function function, boolean display, boolean isError) {
-        updateOptions();
+            int indent = line.getIndent() * indentWidth;
+            int lineNumberWidth = lineNumberFieldElement.getStringWidth();
+            int updatedMaxWidth = maxWidth + lineNumberWidth;
+            return new ClangTextField(tokens, elements, lineNumberFieldElement, indent, updatedMaxWidth,
+                    hlFactory);
+        }
 
-        // Assume docroot has been built.
+        private ClangTextField createCommentField(List<ClangToken> tokens,
+                                                  ClangFieldElement lineNumberFieldElement, int indentCount) {
 
-        PrettyPrinter printer = new PrettyPrinter(function, docroot);
-        lines = printer.getLines();
+            String text = getText(tokens);
+            ClangCommentToken token = getFirstCommentToken(tokens);
+            FieldElement element = createCommentElement(tokens);
 
-        int lineCount = lines.size();
-        fieldList = new Field[lineCount]; // One field for each "C" line
-        numIndexes = BigInteger.valueOf(lineCount);
+            FieldElement[] elements = new FieldElement[]{element};
+            ClangCommentToken newCommentToken = ClangCommentToken.derive(token, text);
+            List<ClangToken> newTokens = Arrays.asList(newCommentToken);
 
-        lineNumberFieldWidth = 0;
-        if (showLineNumbers && !isError) {
-            lineNumberFieldWidth = LineNumberFieldElement.getFieldWidth(metrics, lineCount);
+            int indent = indentCount * indentWidth;
+            int lineNumberWidth = lineNumberFieldElement.getStringWidth();
+            int updatedMaxWidth = maxWidth + lineNumberWidth;
+            return new ClangTextField(newTokens, elements, lineNumberFieldElement, indent,
+                    updatedMaxWidth, hlFactory);
         }
 
-        for (int i = 0; i < lineCount; ++i) {
-            ClangLine oneLine = lines.get(i);
-            fieldList[i] = createTextFieldForLine(oneLine, lineCount, showLineNumbers);
+        private FieldElement createCommentElement(List<ClangToken> tokens) {
+            ClangCommentToken token = getFirstCommentToken(tokens);
+            Color color = syntax_color[token.getSyntaxType()];
+            AttributedString prototype = new AttributedString("prototype", color, metrics);
+            return CommentUtils.parseTextForAnnotations(getText(tokens), program, prototype, 0);
         }
 
-        if (display) {
-            modelChanged(); // Inform the listeners that we have changed
+        private FieldElement[] createFieldElementsForLine(List<ClangToken> tokens) {
+
+            ClangFieldElement[] elements = new ClangFieldElement[tokens.size()];
+            int columnPosition = 0;
+            for (int i = 0; i < tokens.size(); ++i) {
+                ClangToken token = tokens.get(i);
+                AttributedString as =
+                        new AttributedString(token.getText(), syntax_color[token.getSyntaxType()], metrics);
+                elements[i] = new ClangFieldElement(token, as, columnPosition);
+                columnPosition += as.length();
+            }
+            return elements;
         }
-    }
 
-    private void splitToMaxWidthLines(ArrayList<String> res, String line) {
-        int maxchar;
-        if ((maxWidth == 0) || (indentWidth == 0)) {
-            maxchar = 40;
-        } else {
-            maxchar = maxWidth / indentWidth;
-        }
-        String[] toklist = line.split("[ \t]+");
-        StringBuffer buf = new StringBuffer();
-        int cursize = 0;
-        boolean atleastone = false;
-        int i = 0;
-        while (i < toklist.length) {
-            if (!atleastone) {
-                buf.append(' ');
-                buf.append(toklist[i]);
-                atleastone = true;
-                cursize += toklist[i].length() + 1;
-                i += 1;
-                continue;
+        private ClangCommentToken getFirstCommentToken(List<ClangToken> tokens) {
+            for (ClangToken t : tokens) {
+                if (t instanceof ClangCommentToken) {
+                    return (ClangCommentToken) t;
+                }
             }
-            if (cursize + toklist[i].length() >= maxchar) {
-                String finishLine = buf.toString();
-                res.add(finishLine);
-                cursize = 5;
-                atleastone = false;
-                buf = new StringBuffer();
-                buf.append("     ");
-            } else {
-                buf.append(' ');
-                buf.append(toklist[i]);
-                cursize += toklist[i].length() + 1;
-                i += 1;
+            return null;
+        }
+
+        private boolean isComment(List<ClangToken> tokens) {
+            for (ClangToken t : tokens) {
+                if (t instanceof ClangCommentToken) {
+                    // for now, I believe all comments are on a line by themselves, so if we find
+                    // a comment token, then these are all comments
+                    return true;
+                }
             }
+            return false;
         }
-        String finalLine = buf.toString();
-        if (finalLine.length() != 0) {
-            res.add(finalLine);
+
+        private ClangFieldElement createLineNumberFieldElement(ClangLine line, int lineCount,
+                                                               boolean paintLineNumbers) {
+
+            if (paintLineNumbers) {
+                return new LineNumberFieldElement(line.getLineNumber(), lineCount, metrics);
+            }
+
+            return EMPTY_LINE_NUMBER_SPACER;
+        }
+
+        /**
+         * Update to the current Decompiler display options
+         */
+        @SuppressWarnings("deprecation")
+        // ignoring the deprecated call for toolkit
+        private void updateOptions() {
+            syntax_color[ClangToken.KEYWORD_COLOR] = options.getKeywordColor();
+            syntax_color[ClangToken.TYPE_COLOR] = options.getTypeColor();
+            syntax_color[ClangToken.FUNCTION_COLOR] = options.getFunctionColor();
+            syntax_color[ClangToken.COMMENT_COLOR] = options.getCommentColor();
+            syntax_color[ClangToken.VARIABLE_COLOR] = options.getVariableColor();
+            syntax_color[ClangToken.CONST_COLOR] = options.getConstantColor();
+            syntax_color[ClangToken.PARAMETER_COLOR] = options.getParameterColor();
+            syntax_color[ClangToken.GLOBAL_COLOR] = options.getGlobalColor();
+            syntax_color[ClangToken.DEFAULT_COLOR] = options.getDefaultColor();
+
+            // setting the metrics here will indirectly trigger the new font to be used deeper in
+            // the bowels of the FieldPanel (you can get the font from the metrics)
+            Font font = options.getDefaultFont();
+            metrics = Toolkit.getDefaultToolkit().getFontMetrics(font);
+            indentWidth = metrics.stringWidth(PrettyPrinter.INDENT_STRING);
+            maxWidth = indentWidth * options.getMaxWidth();
+            lineNumberFieldWidth = 0;
+
+            showLineNumbers = options.isDisplayLineNumbers();
+        }
+
+        private void splitToMaxWidthLines(ArrayList<String> res, String line) {
+            int maxchar;
+            if ((maxWidth == 0) || (indentWidth == 0)) {
+                maxchar = 40;
+            } else {
+                maxchar = maxWidth / indentWidth;
+            }
+            String[] toklist = line.split("[ \t]+");
+            StringBuffer buf = new StringBuffer();
+            int cursize = 0;
+            boolean atleastone = false;
+            int i = 0;
+            while (i < toklist.length) {
+                if (!atleastone) {
+                    buf.append(' ');
+                    buf.append(toklist[i]);
+                    atleastone = true;
+                    cursize += toklist[i].length() + 1;
+                    i += 1;
+                    continue;
+                }
+                if (cursize + toklist[i].length() >= maxchar) {
+                    String finishLine = buf.toString();
+                    res.add(finishLine);
+                    cursize = 5;
+                    atleastone = false;
+                    buf = new StringBuffer();
+                    buf.append("     ");
+                } else {
+                    buf.append(' ');
+                    buf.append(toklist[i]);
+                    cursize += toklist[i].length() + 1;
+                    i += 1;
+                }
+            }
+            String finalLine = buf.toString();
+            if (finalLine.length() != 0) {
+                res.add(finalLine);
+            }
         }
-    }
 
-    private boolean addErrorLayout(String errmsg) { // Add indicated error message to display
-        if (docroot == null) {
-            docroot = new ClangFunction(null, null);
+        private boolean addErrorLayout(String errmsg) { // Add indicated error message to display
+            if (docroot == null) {
+                docroot = new ClangFunction(null, null);
+                if (errmsg == null) {
+                    errmsg = "No function";
+                }
+            }
             if (errmsg == null) {
-                errmsg = "No function";
+                return false; // No error message to add
             }
+            String[] errlines_init = errmsg.split("[\n\r]+");
+            ArrayList<String> errlines = new ArrayList<>();
+            for (String element : errlines_init) {
+                splitToMaxWidthLines(errlines, element);
+            }
+            for (int i = 0; i < errlines.size(); ++i) {
+                ClangTokenGroup line = new ClangTokenGroup(docroot);
+                ClangBreak lineBreak = new ClangBreak(line, 1);
+                ClangSyntaxToken message =
+                        new ClangSyntaxToken(line, errlines.get(i), ClangXML.COMMENT_COLOR);
+                line.AddTokenGroup(lineBreak);
+                line.AddTokenGroup(message);
+                docroot.AddTokenGroup(line);
+            }
+
+            return true; // true signals we have an error message
         }
-        if (errmsg == null) {
-            return false; // No error message to add
-        }
-        String[] errlines_init = errmsg.split("[\n\r]+");
-        ArrayList<String> errlines = new ArrayList<>();
-        for (String element : errlines_init) {
-            splitToMaxWidthLines(errlines, element);
-        }
-        for (int i = 0; i < errlines.size(); ++i) {
-            ClangTokenGroup line = new ClangTokenGroup(docroot);
-            ClangBreak lineBreak = new ClangBreak(line, 1);
-            ClangSyntaxToken message =
-                    new ClangSyntaxToken(line, errlines.get(i), ClangXML.COMMENT_COLOR);
-            line.AddTokenGroup(lineBreak);
-            line.AddTokenGroup(message);
-            docroot.AddTokenGroup(line);
-        }
+    }
 
-        return true; // true signals we have an error message
+    /**
+     * Lays out a document without displaying it.  This only reads the options, so it can run on
+     * the decompile thread.
+     */
+    public LayoutSnapshot prepareLayouts(Function function, ClangTokenGroup doc, String errmsg) {
+        return new LayoutSnapshot(function, doc, errmsg);
+    }
+
+    /**
+     * Displays a document laid out by {@link #prepareLayouts}.  Must be called on the Swing thread.
+     */
+    public void setLayouts(LayoutSnapshot snapshot, boolean display) {
+        layout = snapshot;
+        if (display) {
+            modelChanged(); // Inform the listeners that we have changed
+        }
     }
 
     public void buildLayouts(Function function, ClangTokenGroup doc, String errmsg,
                              boolean display) {
-        docroot = doc;
-        boolean isError = addErrorLayout(errmsg);
-        buildLayoutInternal(function, display, isError);
+        setLayouts(prepareLayouts(function, doc, errmsg), display);
     }
 
     public HighFunction getHighFunction(int i) { // Get the i'th function id in the layout
-        int numfunc = docroot.numChildren();
+        int numfunc = layout.docroot.numChildren();
         if ((i < 0) || (i >= numfunc)) {
             return null;
         }
-        if (docroot.Child(i) instanceof ClangFunction) {
-            return ((ClangFunction) docroot.Child(i)).getHighFunction();
+        if (layout.docroot.Child(i) instanceof ClangFunction) {
+            return ((ClangFunction) layout.docroot.Child(i)).getHighFunction();
         }
         return null;
     }
@@ -417,54 +579,18 @@ public class UgoClangLayoutController implements LayoutModel, LayoutModelListene
 // Search Related Methods
 //==================================================================================================
 
-    private SearchLocation findNextTokenGoingForward(
-            java.util.function.Function<String, SearchMatch> matcher, String searchString,
-            FieldLocation currentLocation) {
-
-        int row = currentLocation.getIndex().intValue();
-        for (int i = row; i < fieldList.length; i++) {
-            ClangTextField field = (ClangTextField) fieldList[i];
-            String textLine =
-                    getTextLineFromOffset((i == row) ? currentLocation : null, field, true);
-
-            SearchMatch match = matcher.apply(textLine);
-            if (match != SearchMatch.NO_MATCH) {
-                if (i == row) {
-                    String fullLine = field.getText();
-                    match.start += fullLine.length() - textLine.length();
-                }
-                FieldNumberColumnPair pair = getFieldIndexFromOffset(match.start, field);
-                FieldLocation fieldLocation =
-                        new FieldLocation(i, pair.getFieldNumber(), 0, pair.getColumn());
-
-                return new FieldBasedSearchLocation(fieldLocation, match.start, match.end - 1,
-                        searchString, true);
-            }
+    private SearchLocation toSearchLocation(UgoSearchIndex.Match match, String searchString,
+                                            boolean forwardSearch) {
+        if (match == null) {
+            return null;
         }
-        return null;
-    }
-
-    private SearchLocation findNextTokenGoingBackward(
-            java.util.function.Function<String, SearchMatch> matcher, String searchString,
-            FieldLocation currentLocation) {
+        int line = match.getLine();
+        FieldNumberColumnPair pair = getFieldIndexFromOffset(match.getStart(), getField(line));
+        FieldLocation fieldLocation =
+                new FieldLocation(line, pair.getFieldNumber(), 0, pair.getColumn());
 
-        int row = currentLocation.getIndex().intValue();
-        for (int i = row; i >= 0; i--) {
-            ClangTextField field = (ClangTextField) fieldList[i];
-            String textLine =
-                    getTextLineFromOffset((i == row) ? currentLocation : null, field, false);
-
-            SearchMatch match = matcher.apply(textLine);
-            if (match != SearchMatch.NO_MATCH) {
-                FieldNumberColumnPair pair = getFieldIndexFromOffset(match.start, field);
-                FieldLocation fieldLocation =
-                        new FieldLocation(i, pair.getFieldNumber(), 0, pair.getColumn());
-
-                return new FieldBasedSearchLocation(fieldLocation, match.start, match.end - 1,
-                        searchString, false);
-            }
-        }
-        return null;
+        return new FieldBasedSearchLocation(fieldLocation, match.getStart(), match.getEnd() - 1,
+                searchString, forwardSearch);
     }
 
     public SearchLocation findNextTokenForSearchRegex(String searchString,
@@ -478,101 +604,23 @@ public class UgoClangLayoutController implements LayoutModel, LayoutModelListene
             return null;
         }
 
-        Pattern finalPattern = pattern;
-        if (forwardSearch) {
-
-            java.util.function.Function<String, SearchMatch> function = textLine -> {
-
-                Matcher matcher = finalPattern.matcher(textLine);
-                if (matcher.find()) {
-                    int start = matcher.start();
-                    int end = matcher.end();
-                    return new SearchMatch(start, end);
-                }
-
-                return SearchMatch.NO_MATCH;
-            };
-
-            return findNextTokenGoingForward(function, searchString, currentLocation);
-        }
-
-        java.util.function.Function<String, SearchMatch> reverse = textLine -> {
-
-            Matcher matcher = finalPattern.matcher(textLine);
-
-            if (!matcher.find()) {
-                return SearchMatch.NO_MATCH;
-            }
-
-            int start = matcher.start();
-            int end = matcher.end();
-
-            // Since the matcher can only match from the start to end of line, we need
-            // to find all matches and then take the last match
-            while (matcher.find()) {
-                start = matcher.start();
-                end = matcher.end();
-            }
-
-            return new SearchMatch(start, end);
-        };
-
-        return findNextTokenGoingBackward(reverse, searchString, currentLocation);
+        int row = currentLocation.getIndex().intValue();
+        int col = currentLocation.getCol();
+        UgoSearchIndex index = layout.getSearchIndex();
+        UgoSearchIndex.Match match = forwardSearch ? index.findForward(pattern, row, col)
+                : index.findBackward(pattern, row, col);
+        return toSearchLocation(match, searchString, forwardSearch);
     }
 
     public SearchLocation findNextTokenForSearch(String searchString, FieldLocation currentLocation,
                                                  boolean forwardSearch) {
 
-        if (forwardSearch) {
-
-            java.util.function.Function<String, SearchMatch> function = textLine -> {
-
-                int index = StringUtils.indexOfIgnoreCase(textLine, searchString);
-                if (index == -1) {
-                    return SearchMatch.NO_MATCH;
-                }
-                return new SearchMatch(index, index + searchString.length());
-            };
-
-            return findNextTokenGoingForward(function, searchString, currentLocation);
-        }
-
-        java.util.function.Function<String, SearchMatch> function = textLine -> {
-
-            int index = StringUtils.lastIndexOfIgnoreCase(textLine, searchString);
-            if (index == -1) {
-                return SearchMatch.NO_MATCH;
-            }
-            return new SearchMatch(index, index + searchString.length());
-        };
-
-        return findNextTokenGoingBackward(function, searchString, currentLocation);
-    }
-
-    private String getTextLineFromOffset(FieldLocation location, ClangTextField textField,
-                                         boolean forwardSearch) {
-        if (location == null) { // the cursor location is not on this line; use all of the text
-            return textField.getText();
-        }
-
-        if (textField.getText().isEmpty()) { // the cursor is on blank line
-            return "";
-        }
-
-        String partialText = textField.getText();
-
-        if (forwardSearch) {
-
-            // Protects against the location column being out of range (this can
-            // happen if we're searching forward and the cursor is past the last token).
-            if (location.getCol() + 1 >= partialText.length()) {
-                return "";
-            }
-            return partialText.substring(location.getCol() + 1);
-        }
-
-        // backwards search
-        return partialText.substring(0, location.getCol());
+        int row = currentLocation.getIndex().intValue();
+        int col = currentLocation.getCol();
+        UgoSearchIndex index = layout.getSearchIndex();
+        UgoSearchIndex.Match match = forwardSearch ? index.findForward(searchString, row, col)
+                : index.findBackward(searchString, row, col);
+        return toSearchLocation(match, searchString, forwardSearch);
     }
 
     private FieldNumberColumnPair getFieldIndexFromOffset(int screenOffset,
@@ -583,24 +631,13 @@ public class UgoClangLayoutController implements LayoutModel, LayoutModelListene
         return new FieldNumberColumnPair(0, rowColLocation.col());
     }
 
-    private static class SearchMatch {
-        private static SearchMatch NO_MATCH = new SearchMatch(-1, -1);
-        private int start;
-        private int end;
-
-        SearchMatch(int start, int end) {
-            this.start = start;
-            this.end = end;
-        }
-    }
 //==================================================================================================
 // End Search Related Methods
 //==================================================================================================
 
     ClangToken getTokenForLocation(FieldLocation fieldLocation) {
         int row = fieldLocation.getIndex().intValue();
-        ClangTextField field = (ClangTextField) fieldList[row];
-        return field.getToken(fieldLocation);
+        return getField(row).getToken(fieldLocation);
     }
 
     public void locationChanged(FieldLocation loc, Field field, Color locationColor,
@@ -2,6 +2,7 @@ package ugo;
 
 import com.google.inject.Inject;
 import ghidra.app.CorePluginPackage;
+import ghidra.app.decompiler.DecompileOptions;
 import ghidra.app.decompiler.component.DecompilerHighlightService;
 import ghidra.app.decompiler.component.hover.DecompilerHoverService;
 import ghidra.app.events.*;
@@ -27,6 +28,11 @@ import ghidra.program.util.ProgramLocation;
 import ghidra.program.util.ProgramSelection;
 import ghidra.util.task.SwingUpdateManager;
 import org.jdom.Element;
+import ugo.cache.UgoDiskDecompileCache;
+import ugo.metrics.UgoMetrics;
+import ugo.metrics.UgoMetricsDump;
+import ugo.metrics.UgoMetricsProvider;
+import ugo.search.UgoCodeSearchIndex;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -59,6 +65,13 @@ public class UgoDecompilePlugin extends DecompilePlugin {
     protected UgoDecompilerProvider connectedProvider;
     protected List<UgoDecompilerProvider> disconnectedProviders;
 
+    private UgoDecompilerPool decompilerPool;
+    private UgoDiskDecompileCache diskCache;
+    private UgoCodeSearchIndex codeSearchIndex;
+    private UgoMetrics metrics;
+    private UgoMetricsProvider metricsProvider;
+    private UgoMetricsDump metricsDump;
+
     private Program currentProgram;
     private ProgramLocation currentLocation;
     private ProgramSelection currentSelection;
@@ -81,8 +94,17 @@ public class UgoDecompilePlugin extends DecompilePlugin {
         this.logger = new Log4jErrorLogger();
         logger.info(this, "Hello from decompile plugin");
 
+        metrics = new UgoMetrics();
+        decompilerPool = new UgoDecompilerPool(new DecompileOptions());
+        decompilerPool.setMetrics(metrics);
+        diskCache = UgoDiskDecompileCache.createDefault();
+        diskCache.setMetrics(metrics);
+        metricsDump = UgoMetricsDump.startFromSystemProperties(metrics);
+        codeSearchIndex = new UgoCodeSearchIndex();
         disconnectedProviders = new ArrayList<>();
         connectedProvider = new UgoDecompilerProvider(this, true);
+        metricsProvider = new UgoMetricsProvider(this, metrics);
+        tool.addComponentProvider(metricsProvider, false);
 
         registerServices();
     }
@@ -178,7 +200,42 @@ public class UgoDecompilePlugin extends DecompilePlugin {
             removeProvider(provider);
         }
         disconnectedProviders.clear();
+        metricsProvider.dispose();
+        tool.removeComponentProvider(metricsProvider);
+        if (metricsDump != null) {
+            metricsDump.close();
+        }
+        decompilerPool.dispose();
+        codeSearchIndex.dispose();
+    }
 
+    /**
+     * Returns the pool of native decompiler processes shared by every provider of this plugin.
+     */
+    public UgoDecompilerPool getDecompilerPool() {
+        return decompilerPool;
+    }
+
+    /**
+     * Returns the on-disk cache of decompiler output shared by every provider of this plugin.
+     */
+    public UgoDiskDecompileCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Returns the timings and counts of the decompiler pipeline shared by every provider of this
+     * plugin.
+     */
+    public UgoMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the index of decompiled code searched by every provider of this plugin.
+     */
+    public UgoCodeSearchIndex getCodeSearchIndex() {
+        return codeSearchIndex;
     }
 
     void exportLocation(Program program, ProgramLocation location) {
@@ -276,6 +333,8 @@ public class UgoDecompilePlugin extends DecompilePlugin {
         if (connectedProvider != null) {
             connectedProvider.programClosed(closedProgram);
         }
+        decompilerPool.programClosed(closedProgram);
+        codeSearchIndex.programClosed(closedProgram);
     }
 
     public ProgramLocation getCurrentLocation() {
@@ -0,0 +1,236 @@
+package ugo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import ghidra.app.decompiler.DecompInterface;
+import ghidra.app.decompiler.DecompileException;
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ghidra.util.Swing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import ghidra.util.task.TaskMonitorAdapter;
+import ugo.cache.UgoDecompileCacheKey;
+import ugo.cache.UgoDiskDecompileCache;
+
+/**
+ * Speculatively decompiles the direct callees and callers of the function being shown, so that
+ * following a call chain finds the next function already in the decompiler cache.
+ *
+ * <p>Prefetching runs on a single low priority thread and only uses a pooled process when at
+ * least one other process stays free for foreground decompiles.  A foreground request
+ * ({@link #cancel()}) drops everything that is queued.  The decompile in flight is left to
+ * finish rather than killing its process, and the pool gives that process to waiting foreground
+ * requests before anyone else.
+ *
+ * <p>Prefetched results go into the same in-memory cache as the displayed one, so only up to
+ * half of that cache is prefetched into; the rest keeps the displayed function and those viewed
+ * before it.
+ */
+class UgoDecompilePrefetcher {
+
+    private static final int MAX_PREFETCH = 16;
+    private static final int MAX_TIMEOUT_SECS = 15;
+
+    private final UgoDecompilerPool pool;
+    private final UgoDiskDecompileCache diskCache;
+    private final Predicate<Function> isCached;
+    private final BiConsumer<Function, DecompileResults> resultConsumer;
+    private final ExecutorService executor;
+
+    private volatile int timeoutSecs;
+    private volatile int maxPrefetch;
+    private PrefetchJob currentJob;
+
+    /**
+     * @param pool the processes to decompile with
+     * @param diskCache the on-disk cache to check first, or null
+     * @param isCached tells whether a function is already in the in-memory cache
+     * @param resultConsumer receives each prefetched result on the Swing thread
+     */
+    UgoDecompilePrefetcher(UgoDecompilerPool pool, UgoDiskDecompileCache diskCache,
+                           Predicate<Function> isCached,
+                           BiConsumer<Function, DecompileResults> resultConsumer) {
+        this.pool = pool;
+        this.diskCache = diskCache;
+        this.isCached = isCached;
+        this.resultConsumer = resultConsumer;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Decompiler Prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    void setTimeout(int timeoutSecs) {
+        this.timeoutSecs = timeoutSecs;
+    }
+
+    /**
+     * Sets the number of functions the in-memory cache holds, which limits how many neighbours
+     * are prefetched.
+     */
+    void setCacheSize(int cacheSize) {
+        this.maxPrefetch = Math.min(MAX_PREFETCH, cacheSize / 2);
+    }
+
+    /**
+     * Replaces any queued prefetch with the neighbours of the given function.
+     */
+    synchronized void prefetch(Program program, Function function) {
+        cancelQueued();
+        if (pool.getMaxSize() < 2) {
+            return; // the only process belongs to the foreground
+        }
+        if (maxPrefetch <= 0) {
+            return; // the cache has no room beyond the displayed function
+        }
+        currentJob = new PrefetchJob(program, function);
+        try {
+            executor.execute(currentJob);
+        } catch (RejectedExecutionException e) {
+            // disposed
+        }
+    }
+
+    /**
+     * Called when a foreground decompile is requested.
+     */
+    synchronized void cancel() {
+        cancelQueued();
+    }
+
+    private void cancelQueued() {
+        if (currentJob != null) {
+            currentJob.stopped = true;
+            currentJob = null;
+        }
+    }
+
+    synchronized void dispose() {
+        if (currentJob != null) {
+            currentJob.monitor.cancel();
+        }
+        cancelQueued();
+        executor.shutdownNow();
+    }
+
+    private class PrefetchJob implements Runnable {
+        private final Program program;
+        private final Function function;
+        private final TaskMonitor monitor = new TaskMonitorAdapter(true);
+        private volatile boolean stopped;
+
+        PrefetchJob(Program program, Function function) {
+            this.program = program;
+            this.function = function;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Function neighbour : collectNeighbours()) {
+                    if (stopped || program.isClosed()) {
+                        return;
+                    }
+                    if (!isCached.test(neighbour) && !prefetchOne(neighbour)) {
+                        return; // every spare process is busy
+                    }
+                }
+            } catch (CancelledException e) {
+                // disposed
+            } catch (Exception e) {
+                Msg.debug(UgoDecompilePrefetcher.this, "Decompiler prefetch failed", e);
+            }
+        }
+
+        /**
+         * Callees first, since they are the usual next step when reading down a call chain.
+         */
+        private List<Function> collectNeighbours() throws CancelledException {
+            Set<Function> neighbours = new LinkedHashSet<>();
+            addNeighbours(function.getCalledFunctions(monitor), neighbours);
+            addNeighbours(function.getCallingFunctions(monitor), neighbours);
+            neighbours.remove(function);
+            List<Function> list = new ArrayList<>(neighbours);
+            int limit = maxPrefetch;
+            return list.size() > limit ? list.subList(0, limit) : list;
+        }
+
+        private void addNeighbours(Set<Function> functions, Set<Function> neighbours) {
+            for (Function neighbour : functions) {
+                Function thunked = neighbour.getThunkedFunction(true);
+                if (thunked != null) {
+                    neighbour = thunked;
+                }
+                if (!neighbour.isExternal()) {
+                    neighbours.add(neighbour);
+                }
+            }
+        }
+
+        /**
+         * Returns false if no spare process was available.
+         */
+        private boolean prefetchOne(Function neighbour)
+                throws CancelledException, DecompileException {
+            long modificationNumber = program.getModificationNumber();
+            String cacheKey = null;
+            if (diskCache != null) {
+                cacheKey = UgoDecompileCacheKey.compute(neighbour, pool.getOptions(program));
+                DecompileResults cachedResults = diskCache.load(neighbour, cacheKey);
+                if (cachedResults != null) {
+                    deliver(neighbour, cachedResults, modificationNumber);
+                    return true;
+                }
+            }
+
+            // leaves a process free for the foreground
+            DecompInterface ifc =
+                    pool.tryCheckout(program, UgoDecompilePriority.PREFETCH, monitor);
+            if (ifc == null) {
+                return false;
+            }
+            DecompileResults results = null;
+            try {
+                int timeout = timeoutSecs <= 0 ? MAX_TIMEOUT_SECS
+                        : Math.min(timeoutSecs, MAX_TIMEOUT_SECS);
+                results = ifc.decompileFunction(neighbour, timeout, monitor);
+                if (cacheKey != null) {
+                    diskCache.store(cacheKey, ifc, results);
+                }
+            } finally {
+                if (monitor.isCancelled()) {
+                    pool.invalidate(ifc);
+                } else {
+                    pool.release(ifc, results);
+                }
+            }
+            monitor.checkCanceled();
+            if (results != null && results.decompileCompleted()) {
+                deliver(neighbour, results, modificationNumber);
+            }
+            return true;
+        }
+
+        /**
+         * Hands the results over on the Swing thread, where program change events are handled,
+         * unless the program changed while decompiling.
+         */
+        private void deliver(Function neighbour, DecompileResults results,
+                             long modificationNumber) {
+            Swing.runLater(() -> {
+                if (!program.isClosed() &&
+                        program.getModificationNumber() == modificationNumber) {
+                    resultConsumer.accept(neighbour, results);
+                }
+            });
+        }
+    }
+}
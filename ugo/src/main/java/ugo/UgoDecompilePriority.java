@@ -0,0 +1,32 @@
+package ugo;
+
+/**
+ * How urgently a client of the {@link UgoDecompilerPool} needs a process.  When processes are
+ * scarce, the pool hands them out in the order of these constants, and in the order of the
+ * requests within one priority.
+ *
+ * <p>Nothing running is stopped to make room: a more urgent request gets the next process that
+ * is released.  Background clients check out a process per function, so they give way at the
+ * next function boundary.
+ */
+public enum UgoDecompilePriority {
+
+    /** The function the user navigated to in the main decompiler window. */
+    INTERACTIVE,
+    /** The function shown in a disconnected window, such as a cloned one. */
+    CLONE,
+    /**
+     * A guess at the function the user will look at next.  Prefetches only use a process when
+     * another one stays free for the requests above.
+     */
+    PREFETCH,
+    /** One function of an export, a script or another whole-program job. */
+    BATCH;
+
+    /**
+     * Returns whether this priority leaves one process free for more urgent requests.
+     */
+    boolean isSpeculative() {
+        return this == PREFETCH;
+    }
+}
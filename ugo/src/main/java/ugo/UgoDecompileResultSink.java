@@ -0,0 +1,30 @@
+package ugo;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of a {@link UgoBatchDecompiler} run as they are produced.
+ *
+ * <p>{@link #resultReady(UgoBatchDecompileResult)} is called from the batch worker threads, in
+ * no particular order, so implementations must be thread-safe.  Sinks that need entry point
+ * order can use {@link UgoBatchDecompileResult#getIndex()}.
+ */
+public interface UgoDecompileResultSink {
+
+    /**
+     * Called once for every function of the run, whether or not it decompiled successfully.
+     *
+     * @param result the decompile outcome
+     * @throws IOException if the sink could not consume the result; this aborts the run
+     */
+    void resultReady(UgoBatchDecompileResult result) throws IOException;
+
+    /**
+     * Called once after the last result of a run that was not cancelled or aborted.
+     *
+     * @throws IOException if the sink could not be finished
+     */
+    default void batchFinished() throws IOException {
+        // nothing to do
+    }
+}
@@ -29,6 +29,7 @@ import ghidra.program.util.ProgramLocation;
 import ghidra.util.UndefinedFunction;
 import ghidra.util.task.SwingRunnable;
 import ghidra.util.task.TaskMonitor;
+import ugo.metrics.UgoMetrics;
 
 import java.io.File;
 
@@ -37,11 +38,15 @@ class UgoDecompileRunnable implements SwingRunnable {
     private final Program program;
     private ProgramLocation location;
     private File debugFile;
+    private final boolean bypassCache;
+    private final DecompileResults cachedResults;
     private DecompileResults decompileResults;
     private String errorMessage;
     private ViewerPosition viewerPosition;
+    private UgoClangLayoutController.LayoutSnapshot layout;
 
     private final UgoDecompilerManager decompilerManager;
+    private final long requestNanos = System.nanoTime();
 
     /**
      * Constructor for a scheduled Decompile runnable
@@ -49,16 +54,48 @@ class UgoDecompileRunnable implements SwingRunnable {
      * @param program   the program containing the function to be decompiled
      * @param location  the location for which to find its containing function.
      * @param debugFile if non-null, the file to store decompile debug information.
+     * @param bypassCache true to run the decompiler even if the disk cache has the function
      */
     public UgoDecompileRunnable(Program program, ProgramLocation location, File debugFile,
-                                ViewerPosition viewerPosition, UgoDecompilerManager decompilerManager) {
+                                boolean bypassCache, ViewerPosition viewerPosition,
+                                UgoDecompilerManager decompilerManager) {
+        this(program, location, debugFile, bypassCache, null, viewerPosition, decompilerManager);
+    }
+
+    /**
+     * Constructor for a runnable that only lays out results taken from the in-memory cache.
+     *
+     * @param program   the program containing the function
+     * @param location  the location for which to find its containing function.
+     * @param cachedResults the cached results of the function
+     */
+    public UgoDecompileRunnable(Program program, ProgramLocation location,
+                                DecompileResults cachedResults, ViewerPosition viewerPosition,
+                                UgoDecompilerManager decompilerManager) {
+        this(program, location, null, false, cachedResults, viewerPosition, decompilerManager);
+    }
+
+    private UgoDecompileRunnable(Program program, ProgramLocation location, File debugFile,
+                                 boolean bypassCache, DecompileResults cachedResults,
+                                 ViewerPosition viewerPosition,
+                                 UgoDecompilerManager decompilerManager) {
         this.program = program;
         this.location = location;
         this.debugFile = debugFile;
+        this.bypassCache = bypassCache;
+        this.cachedResults = cachedResults;
         this.viewerPosition = viewerPosition;
         this.decompilerManager = decompilerManager;
     }
 
+    /**
+     * Returns the {@link System#nanoTime()} at which this decompile was requested.  Requests
+     * merged into this one by {@link #update} keep the time of the first.
+     */
+    long getRequestNanos() {
+        return requestNanos;
+    }
+
     public boolean update(UgoDecompileRunnable newRunnable) {
 
         ProgramLocation newLocation = newRunnable.location;
@@ -98,6 +135,8 @@ class UgoDecompileRunnable implements SwingRunnable {
      */
     @Override
     public void monitoredRun(TaskMonitor monitor) {
+        UgoMetrics metrics = decompilerManager.getMetrics();
+        metrics.timer(UgoMetrics.QUEUE_WAIT).recordSince(requestNanos);
         monitor.setIndeterminate(true);
         Function function = findFunction(monitor);
         if (function == null) {
@@ -107,15 +146,28 @@ class UgoDecompileRunnable implements SwingRunnable {
         if (cu instanceof Data && ((Data) cu).isDefined()) {
             return;
         }
-        monitor.setMessage("Decompiling function: " + function.getName() + "...");
         functionToDecompile = function;
-        try {
-            decompileResults =
-                    decompilerManager.decompile(program, functionToDecompile, debugFile, monitor);
-        } catch (DecompileException e) {
-            errorMessage = e.getMessage();
+        if (cachedResults != null) {
+            decompileResults = cachedResults;
+        } else {
+            monitor.setMessage("Decompiling function: " + function.getName() + "...");
+            try {
+                decompileResults =
+                        decompilerManager.decompile(program, functionToDecompile, debugFile,
+                                bypassCache, monitor);
+            } catch (DecompileException e) {
+                errorMessage = e.getMessage();
+            }
         }
 
+        // lay the result out here, so the Swing thread only has to swap it in
+        if (!monitor.isCancelled()) {
+            monitor.setMessage("Laying out function: " + function.getName() + "...");
+            long start = System.nanoTime();
+            layout = decompilerManager.prepareLayout(new DecompileData(program, function,
+                    location, decompileResults, errorMessage, debugFile, viewerPosition));
+            metrics.timer(UgoMetrics.LAYOUT).recordSince(start);
+        }
     }
 
     /**
@@ -130,7 +182,7 @@ class UgoDecompileRunnable implements SwingRunnable {
         } else {
             DecompileData decompileData = new DecompileData(program, functionToDecompile, location,
                     decompileResults, errorMessage, debugFile, viewerPosition);
-            decompilerManager.setDecompileData(this, decompileData);
+            decompilerManager.setDecompileData(this, decompileData, layout);
         }
     }
 
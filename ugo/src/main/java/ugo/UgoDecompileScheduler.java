@@ -0,0 +1,107 @@
+package ugo;
+
+import javax.swing.Timer;
+
+import ghidra.util.Swing;
+import ugo.metrics.UgoMetrics;
+
+/**
+ * Decides when a {@link UgoDecompilerManager} starts its pending decompile.
+ *
+ * <p>A request made while the decompiler is idle starts at once.  Requests that come in a burst,
+ * faster than the delay apart, or while a decompile is running are coalesced: each one restarts
+ * the delay, and only the last is decompiled.  A burst never holds a request back longer than
+ * {@link #MAX_TOTAL_DELAY_MILLIS} in total.
+ *
+ * <p>The delay is half the median time of recent native decompiles, as recorded in the
+ * {@link UgoMetrics}.  Coalescing for longer than that costs the user more than starting a
+ * decompile that may be thrown away, and for less it starts decompiles that will be.
+ */
+class UgoDecompileScheduler {
+
+    static final int MIN_DELAY_MILLIS = 20;
+    static final int MAX_DELAY_MILLIS = 500;
+    // before any decompile has been measured
+    static final int DEFAULT_DELAY_MILLIS = 100;
+    static final int MAX_TOTAL_DELAY_MILLIS = 1000;
+
+    private final UgoMetrics metrics;
+    private final Runnable dispatch;
+    private final Timer timer;
+
+    // guarded by this
+    private long lastRequestNanos;
+    private boolean hasRequested;
+    private long firstDeferredNanos;
+    private boolean deferred;
+
+    /**
+     * @param dispatch starts the pending decompile; always called on the Swing thread
+     */
+    UgoDecompileScheduler(UgoMetrics metrics, Runnable dispatch) {
+        this.metrics = metrics;
+        this.dispatch = dispatch;
+        this.timer = new Timer(DEFAULT_DELAY_MILLIS, e -> fire());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Schedules the pending decompile, now or after the delay.
+     *
+     * @param busy whether a decompile is running
+     */
+    synchronized void schedule(boolean busy) {
+        long now = System.nanoTime();
+        long gapMillis = hasRequested ? (now - lastRequestNanos) / 1_000_000 : Long.MAX_VALUE;
+        lastRequestNanos = now;
+        hasRequested = true;
+
+        int delay = getDelayMillis();
+        if (!busy && !deferred && gapMillis >= delay) {
+            dispatchNow();
+            return;
+        }
+
+        metrics.counter(UgoMetrics.REQUESTS_DEBOUNCED).increment();
+        if (!deferred) {
+            deferred = true;
+            firstDeferredNanos = now;
+        }
+        long waitedMillis = (now - firstDeferredNanos) / 1_000_000;
+        timer.setInitialDelay((int) Math.max(0,
+                Math.min(delay, MAX_TOTAL_DELAY_MILLIS - waitedMillis)));
+        timer.restart();
+    }
+
+    /**
+     * Starts the pending decompile without waiting, for example for an explicit refresh.
+     */
+    synchronized void dispatchNow() {
+        timer.stop();
+        deferred = false;
+        Swing.runIfSwingOrRunLater(dispatch);
+    }
+
+    /**
+     * Returns how long requests are coalesced for, in milliseconds.
+     */
+    int getDelayMillis() {
+        UgoMetrics.Sample sample = metrics.timer(UgoMetrics.NATIVE_DECOMPILE).getSample();
+        if (sample.getCount() == 0) {
+            return DEFAULT_DELAY_MILLIS;
+        }
+        long delay = sample.getP50Nanos() / 2 / 1_000_000;
+        return (int) Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, delay));
+    }
+
+    void dispose() {
+        timer.stop();
+    }
+
+    private void fire() {
+        synchronized (this) {
+            deferred = false;
+        }
+        dispatch.run();
+    }
+}
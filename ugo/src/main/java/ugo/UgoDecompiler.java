@@ -16,110 +16,388 @@
 package ugo;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 
 import ghidra.app.decompiler.*;
-import ghidra.app.plugin.processors.sleigh.SleighLanguage;
-import ghidra.program.model.lang.*;
 import ghidra.program.model.listing.Function;
 import ghidra.program.model.listing.Program;
+import ghidra.util.Swing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.CancelledListener;
 import ghidra.util.task.TaskMonitor;
-import ugo.lang.UgoDecompInterface;
+import ghidra.util.task.TaskMonitorAdapter;
+import ugo.cache.UgoDecompileCacheKey;
+import ugo.cache.UgoDiskDecompileCache;
+import ugo.metrics.UgoMetrics;
 
+/**
+ * Performs decompiles for a single {@link UgoDecompilerManager} using a process checked out of
+ * the shared {@link UgoDecompilerPool}.  The process is returned to the pool as soon as the
+ * decompile finishes, so other windows, batch jobs and scripts can use it in between.
+ * Functions that have been decompiled before are loaded from the {@link UgoDiskDecompileCache}
+ * without touching a process at all.
+ *
+ * <p>The native decompile runs on a thread of its own, under a monitor of its own.  When the
+ * caller's monitor is cancelled, because the user moved on to another function, the caller
+ * returns at once but the decompile is abandoned rather than stopped: stopping it would kill the
+ * process, and the next decompile would pay for starting a new one.  An abandoned decompile
+ * gives its process back to the pool when it finishes and its results go into the caches, ready
+ * for when the user comes back.  Only when more than {@value #MAX_ABANDONED_JOBS} are running,
+ * or one runs longer than the decompiler timeout, is its process killed.
+ */
 class UgoDecompiler {
 
-    private DecompInterface cachedDecompInterface;
-    private DecompileOptions options;
+    static final int MAX_ABANDONED_JOBS = 2;
+    // when the options have no timeout
+    private static final int DEFAULT_ABANDONED_TIMEOUT_SECS = 30;
+
+    private final UgoDecompilerPool pool;
+    private final UgoDiskDecompileCache diskCache;
+    private final BiConsumer<Function, DecompileResults> abandonedResultConsumer;
+    private final ExecutorService executor;
+    // kills run here, since stopping a native process blocks, and never on the Swing thread
+    private final ScheduledExecutorService killer;
+    private volatile UgoDecompilePriority priority = UgoDecompilePriority.INTERACTIVE;
+    // abandoned results from an older generation are not delivered
+    private volatile int generation;
     private int timeout;
-    private volatile boolean optionsChanged = false;
 
-    UgoDecompiler(DecompileOptions options, int timeout) {
-        this.options = options;
+    // guarded by this
+    private DecompileOptions options;
+    private Program optionsProgram;
+    private DecompileJob currentJob;
+    private final Deque<DecompileJob> abandonedJobs = new ArrayDeque<>();
+    private boolean disposed;
+
+    /**
+     * @param abandonedResultConsumer receives, on the Swing thread, the results of abandoned
+     *                                decompiles that completed anyway
+     */
+    UgoDecompiler(UgoDecompilerPool pool, UgoDiskDecompileCache diskCache, int timeout,
+                  BiConsumer<Function, DecompileResults> abandonedResultConsumer) {
+        this.pool = pool;
+        this.diskCache = diskCache;
         this.timeout = timeout;
+        this.abandonedResultConsumer = abandonedResultConsumer;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Decompiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledThreadPoolExecutor killExecutor =
+                new ScheduledThreadPoolExecutor(1, runnable -> {
+                    Thread thread = new Thread(runnable, "Decompiler Killer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // dispose kills every job itself
+        killExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        killExecutor.setRemoveOnCancelPolicy(true);
+        this.killer = killExecutor;
     }
 
-    void setOptions(DecompileOptions options) {
-        this.options = options;
-
+    /**
+     * Sets the options to decompile with.  They are handed to the pool, for the program being
+     * decompiled, with the next decompile.
+     */
+    synchronized void setOptions(DecompileOptions options) {
         // note: we have made the decision for now to allow the GUI decompiler to work for as
         //       long as it needs to, allowing the user to cancel as desired.
         // this.timeout = options.getDefaultTimeout();
-        optionsChanged = true;
+        this.options = options;
+        optionsProgram = null;
+        discardAbandonedResults();
     }
 
-    DecompileResults decompile(Program program, Function function, File debugFile,
-                               TaskMonitor monitor) throws DecompileException {
-        DecompInterface ifc = getDecompilerInterface(program, monitor);
-
-        if (debugFile != null) {
-            ifc.enableDebug(debugFile);
+    private synchronized DecompileOptions getOptions(Program program) {
+        if (options == null) {
+            return pool.getOptions(program);
         }
-        if (optionsChanged) {
-            ifc.setOptions(options);
-            optionsChanged = false;
+        if (optionsProgram != program) {
+            pool.setOptions(program, options);
+            optionsProgram = program;
         }
-        return ifc.decompileFunction(function, timeout, monitor);
+        return options;
     }
 
-    synchronized void cancelCurrentAction() {
-        if (cachedDecompInterface != null) {
-            cachedDecompInterface.stopProcess();
-            cachedDecompInterface.dispose();
-            cachedDecompInterface = null;
-        }
+    /**
+     * Keeps the decompiles abandoned so far from delivering their results, for example because
+     * the user asked for a fresh decompile.
+     */
+    void discardAbandonedResults() {
+        generation++;
     }
 
-    synchronized DecompInterface getDecompilerInterface(Program program, TaskMonitor monitor) throws DecompileException {
-        if (cachedDecompInterface != null) {
-            if (cachedDecompInterface.getProgram() == program) {
-                return cachedDecompInterface;
+    /**
+     * Sets the priority with which processes are checked out for later decompiles.
+     */
+    void setPriority(UgoDecompilePriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Decompiles the function, returning null if the monitor was cancelled first.
+     *
+     * @param bypassCache true to run the decompiler even if the disk cache has the function, and
+     *                    replace the cached entry with the new result
+     */
+    DecompileResults decompile(Program program, Function function, File debugFile,
+                               boolean bypassCache, TaskMonitor monitor)
+            throws DecompileException {
+        DecompileOptions decompileOptions = getOptions(program);
+        String cacheKey = null;
+        if (diskCache != null && debugFile == null) {
+            cacheKey = UgoDecompileCacheKey.compute(function, decompileOptions);
+            DecompileResults cachedResults =
+                    bypassCache ? null : diskCache.load(function, cacheKey);
+            if (cachedResults != null) {
+                return cachedResults;
             }
-            cachedDecompInterface.dispose();
         }
-        DecompInterface newInterface = new UgoDecompInterface();
-        newInterface.setOptions(options);
-        optionsChanged = false;
+
+        DecompileJob job = new DecompileJob(program, function, debugFile, cacheKey);
+        synchronized (this) {
+            if (disposed) {
+                return null;
+            }
+            currentJob = job;
+            executor.execute(job);
+        }
+        CancelledListener listener = job::stopWaiting;
+        monitor.addCancelledListener(listener);
         try {
-            program.setLanguage(new SleighLanguage(
-                    new SleighLanguageDescription(
-                            new LanguageID("golang"),
-                            "Go language",
-                            Processor.toProcessor("go"), // TODO: make and instantiate an instance of a Processor and then put it in
-                            Endian.LITTLE,
-                            Endian.LITTLE,
-                            4,
-                            "unknown",
-                            11, //TODO: parse this from file
-                            1, // TODO: parse this from file
-                            false,
-                            null,
-                            null,
-                            null
-                    )), new CompilerSpecID("go"), false, monitor);
-        } catch (Exception e) {
-
-        }
-//		newInterface.toggleSyntaxTree(false);
-        if (!newInterface.openProgram(program)) {
-            String errorMessage = newInterface.getLastMessage();
-            throw new DecompileException("Decompiler",
-                    "Unable to initialize the " + "DecompilerInterface: " + errorMessage);
-        }
-        cachedDecompInterface = newInterface;
-        return newInterface;
+            if (!monitor.isCancelled()) {
+                DecompileResults results = job.await();
+                if (!monitor.isCancelled()) {
+                    return results;
+                }
+            }
+            abandon(job);
+            return null;
+        } finally {
+            monitor.removeCancelledListener(listener);
+            synchronized (this) {
+                if (currentJob == job) {
+                    currentJob = null;
+                }
+            }
+        }
     }
 
-    synchronized void dispose() {
-        cancelCurrentAction();
+    private synchronized void abandon(DecompileJob job) {
+        if (!job.abandon()) {
+            return; // it had finished, or had no process yet and has been dropped
+        }
+        pool.getMetrics().counter(UgoMetrics.ABANDONED).increment();
+        abandonedJobs.addLast(job);
+        if (abandonedJobs.size() > MAX_ABANDONED_JOBS) {
+            DecompileJob oldest = abandonedJobs.removeFirst();
+            try {
+                killer.execute(oldest::kill);
+            } catch (RejectedExecutionException e) {
+                // disposed, which killed it
+            }
+        }
+        int timeoutSecs = pool.getOptions(job.program).getDefaultTimeout();
+        job.killAfter(timeoutSecs > 0 ? timeoutSecs : DEFAULT_ABANDONED_TIMEOUT_SECS);
+    }
+
+    private synchronized void finished(DecompileJob job) {
+        abandonedJobs.remove(job);
     }
 
     /**
-     * Resets the native decompiler process.  Call this method when the decompiler's view
-     * of a program has been invalidated, such as when a new overlay space has been added.
+     * Kills every decompile still running, abandoned or not.
      */
-    public void resetDecompiler() {
-        if (cachedDecompInterface != null) {
-            cachedDecompInterface.resetDecompiler();
+    synchronized void dispose() {
+        disposed = true;
+        if (currentJob != null) {
+            killer.execute(currentJob::kill);
         }
+        for (DecompileJob job : abandonedJobs) {
+            killer.execute(job::kill);
+        }
+        abandonedJobs.clear();
+        executor.shutdown();
+        killer.shutdown();
+    }
+
+    /**
+     * Resets the native decompiler processes for the program.  Call this method when the
+     * decompiler's view of a program has been invalidated, such as when a new overlay space has
+     * been added.
+     */
+    public void resetDecompiler(Program program) {
+        pool.resetDecompiler(program);
     }
 
+    /**
+     * One decompile, from waiting for a process to giving it back.
+     */
+    private class DecompileJob implements Runnable {
+        private final Program program;
+        private final Function function;
+        private final File debugFile;
+        private final String cacheKey;
+        private final UgoDecompilePriority jobPriority = priority;
+        private final int timeoutSecs = timeout;
+        private final int jobGeneration = generation;
+        // cancelling it stops the native process, so it is only cancelled to kill the job
+        private final TaskMonitor monitor = new TaskMonitorAdapter(true);
+        private final CompletableFuture<DecompileResults> result = new CompletableFuture<>();
+
+        // guarded by this
+        private DecompInterface ifc;
+        private boolean abandoned;
+        private ScheduledFuture<?> killTask;
+
+        DecompileJob(Program program, Function function, File debugFile, String cacheKey) {
+            this.program = program;
+            this.function = function;
+            this.debugFile = debugFile;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(decompile());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                synchronized (this) {
+                    if (killTask != null) {
+                        killTask.cancel(false);
+                    }
+                }
+                finished(this);
+            }
+        }
+
+        private DecompileResults decompile() throws DecompileException {
+            UgoMetrics metrics = pool.getMetrics();
+            long start = System.nanoTime();
+            DecompInterface checkedOut;
+            try {
+                checkedOut = pool.checkout(program, jobPriority, monitor);
+            } catch (CancelledException e) {
+                return null; // abandoned while waiting for a process
+            }
+            synchronized (this) {
+                if (abandoned) {
+                    pool.release(checkedOut, null);
+                    return null;
+                }
+                ifc = checkedOut;
+            }
+            metrics.timer(UgoMetrics.CHECKOUT_WAIT).recordSince(start);
+
+            long modificationNumber = program.getModificationNumber();
+            DecompileResults results = null;
+            try {
+                if (debugFile != null) {
+                    checkedOut.enableDebug(debugFile);
+                }
+                start = System.nanoTime();
+                results = checkedOut.decompileFunction(function, timeoutSecs, monitor);
+                if (!monitor.isCancelled()) {
+                    metrics.timer(UgoMetrics.NATIVE_DECOMPILE).recordSince(start);
+                }
+                if (cacheKey != null) {
+                    diskCache.store(cacheKey, checkedOut, results);
+                }
+            } finally {
+                synchronized (this) {
+                    ifc = null;
+                }
+                pool.release(checkedOut, results); // does nothing if kill() invalidated it
+            }
+            if (isAbandoned() && results != null && results.decompileCompleted()) {
+                deliver(results, modificationNumber);
+            }
+            return results;
+        }
+
+        /**
+         * Hands the results of an abandoned decompile over on the Swing thread, unless the
+         * program changed while decompiling or the results have been discarded.
+         */
+        private void deliver(DecompileResults results, long modificationNumber) {
+            Swing.runLater(() -> {
+                if (!program.isClosed() && jobGeneration == generation &&
+                        program.getModificationNumber() == modificationNumber) {
+                    abandonedResultConsumer.accept(function, results);
+                }
+            });
+        }
+
+        /**
+         * Waits for the results, or until {@link #stopWaiting()} is called.
+         */
+        DecompileResults await() throws DecompileException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof DecompileException) {
+                    throw (DecompileException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new DecompileException("Decompiler", cause.toString());
+            }
+        }
+
+        void stopWaiting() {
+            result.complete(null);
+        }
+
+        /**
+         * Lets the decompile finish without anyone waiting for it.  A job still waiting for a
+         * process is dropped instead.
+         *
+         * @return true if the job is decompiling and has been abandoned
+         */
+        synchronized boolean abandon() {
+            abandoned = true;
+            if (ifc == null) {
+                monitor.cancel();
+                return false;
+            }
+            return true;
+        }
+
+        synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+
+        synchronized void killAfter(int seconds) {
+            try {
+                killTask = killer.schedule(this::kill, seconds, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // disposed, which kills the job
+            }
+        }
+
+        /**
+         * Stops the decompile, killing its process if it has one.  This blocks until the process
+         * has stopped, so it must only be called on the kill thread.
+         */
+        synchronized void kill() {
+            monitor.cancel();
+            if (ifc != null) {
+                pool.invalidate(ifc);
+            }
+        }
+    }
 }
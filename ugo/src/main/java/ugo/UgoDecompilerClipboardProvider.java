@@ -165,31 +165,46 @@ public class UgoDecompilerClipboardProvider extends ByteCopier
     }
 
     String getText() {
-        StringBuffer buffer = new StringBuffer();
+        return getText(provider.getDecompilerPanel().getLayoutModel(), selection,
+                spaceCharWidthInPixels);
+    }
+
+    /**
+     * Returns the text of the selected part of the given layouts, with each line indented by the
+     * number of spaces that fill its field's indent.
+     */
+    static String getText(LayoutModel model, FieldSelection selection,
+                          int spaceCharWidthInPixels) {
+        StringBuilder buffer = new StringBuilder();
         int numRanges = selection.getNumRanges();
         for (int i = 0; i < numRanges; i++) {
-            appendText(buffer, selection.getFieldRange(i));
+            appendText(buffer, model, selection, selection.getFieldRange(i),
+                    spaceCharWidthInPixels);
         }
         return buffer.toString();
     }
 
-    void appendText(StringBuffer buffer, FieldRange fieldRange) {
+    private static void appendText(StringBuilder buffer, LayoutModel model,
+                                   FieldSelection selection, FieldRange fieldRange,
+                                   int spaceCharWidthInPixels) {
         int startIndex = fieldRange.getStart().getIndex().intValue();
         int endIndex = fieldRange.getEnd().getIndex().intValue();
         if (startIndex == endIndex) { // single line selection (don't include padding)
-            appendTextSingleLine(buffer, startIndex, selection.intersect(startIndex));
+            appendTextSingleLine(buffer, model, startIndex, selection.intersect(startIndex));
             return;
         }
 
-        appendText(buffer, startIndex, selection.intersect(startIndex));
+        appendText(buffer, model, startIndex, selection.intersect(startIndex),
+                spaceCharWidthInPixels);
         for (int line = startIndex + 1; line <= endIndex; line++) {
             buffer.append('\n');
-            appendText(buffer, line, selection.intersect(line));
+            appendText(buffer, model, line, selection.intersect(line), spaceCharWidthInPixels);
         }
     }
 
-    private void appendText(StringBuffer buffer, int lineNumber,
-                            FieldSelection singleLineSelection) {
+    private static void appendText(StringBuilder buffer, LayoutModel model, int lineNumber,
+                                   FieldSelection singleLineSelection,
+                                   int spaceCharWidthInPixels) {
         if (singleLineSelection.isEmpty()) {
             return;
         }
@@ -205,7 +220,6 @@ public class UgoDecompilerClipboardProvider extends ByteCopier
             endRow = fieldRange.getEnd().getRow();
         }
 
-        LayoutModel model = provider.getDecompilerPanel().getLayoutModel();
         Layout layout = model.getLayout(BigInteger.valueOf(lineNumber));
         ClangTextField field = (ClangTextField) layout.getField(0);
         int numSpaces = (field.getStartX() - field.getLineNumberWidth()) / spaceCharWidthInPixels;
@@ -219,12 +233,12 @@ public class UgoDecompilerClipboardProvider extends ByteCopier
             buffer.append(' ');
         }
         if (startPos >= 0 && endPos >= startPos) {
-            buffer.append(field.getText().substring(startPos, endPos));
+            buffer.append(field.getText(), startPos, endPos);
         }
     }
 
-    private void appendTextSingleLine(StringBuffer buffer, int lineNumber,
-                                      FieldSelection singleLineSelection) {
+    private static void appendTextSingleLine(StringBuilder buffer, LayoutModel model,
+                                             int lineNumber, FieldSelection singleLineSelection) {
         if (singleLineSelection.isEmpty()) {
             return;
         }
@@ -234,7 +248,6 @@ public class UgoDecompilerClipboardProvider extends ByteCopier
         int startRow = fieldRange.getStart().getRow();
         int endRow = fieldRange.getEnd().getRow();
 
-        LayoutModel model = provider.getDecompilerPanel().getLayoutModel();
         Layout layout = model.getLayout(BigInteger.valueOf(lineNumber));
         ClangTextField field = (ClangTextField) layout.getField(0);
 
@@ -242,7 +255,7 @@ public class UgoDecompilerClipboardProvider extends ByteCopier
         int endPos = field.screenLocationToTextOffset(endRow, endColumn);
 
         if (startPos >= 0 && endPos >= startPos) {
-            buffer.append(field.getText().substring(startPos, endPos));
+            buffer.append(field.getText(), startPos, endPos);
         }
     }
 
@@ -17,6 +17,7 @@ package ugo;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import docking.widgets.fieldpanel.support.ViewerPosition;
 import ghidra.app.decompiler.ClangTokenGroup;
 import ghidra.app.decompiler.DecompileOptions;
@@ -24,6 +25,7 @@ import ghidra.app.decompiler.DecompileResults;
 import ghidra.app.decompiler.component.DecompileData;
 import ghidra.app.decompiler.component.DecompilerCallbackHandler;
 import ghidra.app.decompiler.component.EmptyDecompileData;
+import ghidra.framework.model.DomainObjectChangedEvent;
 import ghidra.program.model.address.Address;
 import ghidra.program.model.listing.Function;
 import ghidra.program.model.listing.FunctionManager;
@@ -32,9 +34,15 @@ import ghidra.program.model.pcode.HighFunction;
 import ghidra.program.util.ProgramLocation;
 import ghidra.program.util.ProgramSelection;
 import ghidra.util.bean.field.AnnotatedTextFieldElement;
+import ugo.cache.UgoCacheDependencyIndex;
+import ugo.cache.UgoDiskDecompileCache;
+import ugo.metrics.UgoMetrics;
+import ugo.search.UgoCodeSearchIndex;
+import ugo.slice.UgoSliceCache;
 
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.util.Set;
 
 /**
  * Coordinates the interactions between the DecompilerProvider, DecompilerPanel, and the DecompilerManager
@@ -47,14 +55,28 @@ public class UgoDecompilerController {
     private DecompileData currentDecompileData;
     private ProgramSelection currentSelection;
     private Cache<Function, DecompileResults> decompilerCache;
+    private final UgoCacheDependencyIndex cacheDependencies = new UgoCacheDependencyIndex();
+    private final UgoDecompilePrefetcher prefetcher;
+    private final UgoCodeSearchIndex codeSearchIndex;
+    private final UgoSliceCache sliceCache = new UgoSliceCache();
+    private final UgoMetrics metrics;
     private int cacheSize;
 
     public UgoDecompilerController(DecompilerCallbackHandler handler, DecompileOptions options,
-                                   UgoDecompilerClipboardProvider clipboard) {
+                                   UgoDecompilerClipboardProvider clipboard,
+                                   UgoDecompilerPool decompilerPool,
+                                   UgoDiskDecompileCache diskCache,
+                                   UgoCodeSearchIndex codeSearchIndex) {
         this.cacheSize = options.getCacheSize();
+        this.metrics = decompilerPool.getMetrics();
+        this.codeSearchIndex = codeSearchIndex;
         this.callbackHandler = handler;
         decompilerCache = buildCache();
-        decompilerMgr = new UgoDecompilerManager(this, options);
+        decompilerMgr = new UgoDecompilerManager(this, options, decompilerPool, diskCache);
+        prefetcher = new UgoDecompilePrefetcher(decompilerPool, diskCache,
+                function -> decompilerCache.getIfPresent(function) != null, this::addToCache);
+        prefetcher.setTimeout(options.getDefaultTimeout());
+        prefetcher.setCacheSize(cacheSize);
         decompilerPanel =
                 new UgoDecompilerPanel(this, options, clipboard, decompilerMgr.getTaskMonitorComponent());
 
@@ -75,6 +97,7 @@ public class UgoDecompilerController {
      * never be used again.
      */
     public void dispose() {
+        prefetcher.dispose();
         clearCache();
         decompilerMgr.dispose();
         decompilerPanel.dispose();
@@ -86,6 +109,7 @@ public class UgoDecompilerController {
      */
     public void clear() {
         currentSelection = null;
+        prefetcher.cancel();
         decompilerMgr.cancelAll();
         setDecompileData(new EmptyDecompileData("No Function"));
     }
@@ -107,9 +131,9 @@ public class UgoDecompilerController {
         }
 
         if (loadFromCache(program, location, viewerPosition)) {
-            decompilerPanel.setLocation(location, viewerPosition);
             return;
         }
+        prefetcher.cancel();
         decompilerMgr.decompile(program, location, viewerPosition, null, false);
     }
 
@@ -124,14 +148,14 @@ public class UgoDecompilerController {
 
         DecompileResults results = decompilerCache.getIfPresent(function);
         if (results == null) {
+            metrics.counter(UgoMetrics.MEMORY_CACHE_MISSES).increment();
             return false;
         }
+        metrics.counter(UgoMetrics.MEMORY_CACHE_HITS).increment();
 
-        // cancel any pending decompile tasks, so that previous requests don't overwrite the latest request
-        decompilerMgr.cancelAll();
-        setDecompileData(
-                new DecompileData(program, function, location, results, null, null, viewerPosition));
-
+        // replaces any pending decompile tasks, so that previous requests don't overwrite the
+        // latest request, and lays the results out off the Swing thread
+        decompilerMgr.display(program, location, viewerPosition, results);
         return true;
     }
 
@@ -149,8 +173,10 @@ public class UgoDecompilerController {
         if (decompilerOptions.getCacheSize() != cacheSize) {
             cacheSize = decompilerOptions.getCacheSize();
             decompilerCache = buildCache();
+            prefetcher.setCacheSize(cacheSize);
         }
         decompilerMgr.setOptions(decompilerOptions);
+        prefetcher.setTimeout(decompilerOptions.getDefaultTimeout());
         decompilerPanel.optionsChanged(decompilerOptions);
     }
 
@@ -166,8 +192,8 @@ public class UgoDecompilerController {
      * Resets the native decompiler process.  Call this method when the decompiler's view
      * of a program has been invalidated, such as when a new overlay space has been added.
      */
-    public void resetDecompiler() {
-        decompilerMgr.resetDecompiler();
+    public void resetDecompiler(Program program) {
+        decompilerMgr.resetDecompiler(program);
     }
 
 //==================================================================================================
@@ -178,21 +204,58 @@ public class UgoDecompilerController {
      * Called by the DecompilerManager to update the currently displayed DecompileData.
      */
     public void setDecompileData(DecompileData decompileData) {
+        setDecompileData(decompileData, null);
+    }
+
+    /**
+     * Called by the DecompilerManager to update the currently displayed DecompileData with a
+     * layout already built off the Swing thread.
+     */
+    public void setDecompileData(DecompileData decompileData,
+                                 UgoClangLayoutController.LayoutSnapshot layout) {
         updateCache(decompileData);
         currentDecompileData = decompileData;
-        decompilerPanel.setDecompileData(decompileData);
+        decompilerPanel.setDecompileData(decompileData, layout);
         decompilerPanel.setSelection(currentSelection);
         callbackHandler.decompileDataChanged(decompileData);
     }
 
+    /**
+     * Called by the DecompilerManager to lay out a decompile result on its worker thread.
+     */
+    public UgoClangLayoutController.LayoutSnapshot prepareLayout(DecompileData decompileData) {
+        return decompilerPanel.prepareLayout(decompileData);
+    }
+
     private void updateCache(DecompileData decompileData) {
         Function function = decompileData.getFunction();
         DecompileResults results = decompileData.getDecompileResults();
         if (function != null && results != null && results.decompileCompleted()) {
-            decompilerCache.put(function, results);
+            // results from the cache are already indexed
+            if (decompilerCache.getIfPresent(function) != results) {
+                addToCache(function, results);
+            }
+            prefetcher.prefetch(decompileData.getProgram(), function);
         }
     }
 
+    /**
+     * Adds the results to the in-memory cache and the search index.  Also called for results
+     * that are not displayed, such as those of prefetched and abandoned decompiles.
+     */
+    void addToCache(Function function, DecompileResults results) {
+        decompilerCache.put(function, results);
+        cacheDependencies.add(function, results.getHighFunction());
+        codeSearchIndex.add(function, results);
+    }
+
+    /**
+     * Sets how urgently this controller's decompiles need a process from the shared pool.
+     */
+    void setDecompilePriority(UgoDecompilePriority priority) {
+        decompilerMgr.setPriority(priority);
+    }
+
     void decompilerStatusChanged() {
         callbackHandler.contextChanged();
     }
@@ -210,10 +273,33 @@ public class UgoDecompilerController {
      *                 that function to position the cursor.
      */
     public void refreshDisplay(Program program, ProgramLocation location, File debugFile) {
-        clearCache();
+        Function function = program.getFunctionManager().getFunctionContaining(location.getAddress());
+        if (function != null) {
+            decompilerCache.invalidate(function);
+        }
+        prefetcher.cancel();
         decompilerMgr.decompile(program, location, null, debugFile, true);
     }
 
+    /**
+     * Evicts the cached functions whose decompiled output may be changed by the given program
+     * change.  Functions that the change does not touch stay cached.
+     *
+     * @param program the program that changed
+     * @param event the change event
+     * @return true if the displayed function was evicted and needs to be decompiled again
+     */
+    public boolean invalidateCache(Program program, DomainObjectChangedEvent event) {
+        Set<Function> affected = cacheDependencies.getAffectedFunctions(program, event);
+        decompilerCache.invalidateAll(affected);
+
+        Function current = getFunction();
+        if (current == null || getProgram() != program) {
+            return true; // nothing is tracked for what is showing; always refresh it
+        }
+        return affected.contains(current) || !cacheDependencies.contains(current);
+    }
+
     public ClangTokenGroup getCCodeModel() {
         return currentDecompileData.getCCodeMarkup();
     }
@@ -243,6 +329,20 @@ public class UgoDecompilerController {
         return null;
     }
 
+    /**
+     * Returns the current selection in the decompiler, or null if there is none.
+     */
+    public ProgramSelection getSelection() {
+        return currentSelection;
+    }
+
+    /**
+     * Returns the def-use graphs and slices of recently displayed functions.
+     */
+    public UgoSliceCache getSliceCache() {
+        return sliceCache;
+    }
+
     public ProgramLocation getLocation() {
         if (currentDecompileData != null) {
             return currentDecompileData.getLocation();
@@ -296,13 +396,25 @@ public class UgoDecompilerController {
         //@formatter:off
         return CacheBuilder.newBuilder()
                 .softValues()
+                // one segment, so that the size limit is a plain LRU over every entry
+                .concurrencyLevel(1)
                 .maximumSize(cacheSize)
+                .<Function, DecompileResults>removalListener(notification -> {
+                    if (notification.getCause() != RemovalCause.REPLACED) {
+                        cacheDependencies.remove(notification.getKey());
+                    }
+                    if (notification.wasEvicted()) {
+                        metrics.counter(UgoMetrics.MEMORY_CACHE_EVICTIONS).increment();
+                    }
+                })
                 .build();
         //@formatter:on
     }
 
     public void clearCache() {
         decompilerCache.invalidateAll();
+        cacheDependencies.clear();
+        sliceCache.clear();
     }
 
     public void programClosed(Program closedProgram) {
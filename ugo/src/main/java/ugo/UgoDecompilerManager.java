@@ -27,6 +27,8 @@ import ghidra.program.model.listing.Function;
 import ghidra.program.model.listing.Program;
 import ghidra.program.util.ProgramLocation;
 import ghidra.util.task.*;
+import ugo.cache.UgoDiskDecompileCache;
+import ugo.metrics.UgoMetrics;
 
 /**
  * Manages the threading involved with dealing with the decompiler. It uses a simpler approach
@@ -35,27 +37,38 @@ import ghidra.util.task.*;
  * first checked to see if it going to result in the same function being decompile. If so, then the
  * location is updated and the current decompile is allowed to continue.  If the new request is
  * a new function or the "forceDecompile" option is on, then the current decompile is stopped
- * and a new one is scheduled.  A SwingUpdateManger is used to prevent lots of decompile requests
- * from coming to quickly.
+ * and a new one is scheduled.  A {@link UgoDecompileScheduler} starts the new decompile at once
+ * when the decompiler is idle, and coalesces requests that come too quickly to be worth
+ * decompiling each.
+ * <p>
+ * Stopping a decompile does not kill its native process: the {@link UgoDecompiler} abandons it
+ * to finish in the background, and its results still go into the cache.  The processes are
+ * shared with the other windows, prefetching and batch jobs, and are handed out by the
+ * {@link UgoDecompilerPool} in order of {@link UgoDecompilePriority}.
  *
  */
 public class UgoDecompilerManager {
 
     private UgoDecompilerController decompilerController;
     private UgoDecompiler decompiler;
+    private final UgoMetrics metrics;
 
     private UgoDecompileRunnable currentDecompileRunnable;
     private UgoDecompileRunnable pendingDecompileRunnable;
     private RunManager runManager;
-    private SwingUpdateManager updateManager;
+    private UgoDecompileScheduler scheduler;
 
-    public UgoDecompilerManager(UgoDecompilerController decompilerController, DecompileOptions options) {
+    public UgoDecompilerManager(UgoDecompilerController decompilerController, DecompileOptions options,
+                                UgoDecompilerPool decompilerPool, UgoDiskDecompileCache diskCache) {
         this.decompilerController = decompilerController;
+        this.metrics = decompilerPool.getMetrics();
 
         runManager = new RunManager("Decompiler", null);
-        decompiler = new UgoDecompiler(options, 0);
+        decompiler = new UgoDecompiler(decompilerPool, diskCache, 0,
+                (function, results) -> decompilerController.addToCache(function, results));
+        decompiler.setOptions(options);
 
-        updateManager = new SwingUpdateManager(500, () -> doPendingDecompile());
+        scheduler = new UgoDecompileScheduler(metrics, () -> doPendingDecompile());
     }
 
     /**
@@ -65,6 +78,18 @@ public class UgoDecompilerManager {
         decompiler.setOptions(decompilerOptions);
     }
 
+    /**
+     * Sets how urgently this manager's decompiles need a process, relative to the other users of
+     * the pool.
+     */
+    void setPriority(UgoDecompilePriority priority) {
+        decompiler.setPriority(priority);
+    }
+
+    UgoMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Returns the TaskMonitorComponent created by the RunManager and to be used in the
      * DecompilerPanel.
@@ -77,44 +102,61 @@ public class UgoDecompilerManager {
      * Resets the native decompiler process.  Call this method when the decompiler's view
      * of a program has been invalidated, such as when a new overlay space has been added.
      */
-    public void resetDecompiler() {
-        decompiler.resetDecompiler();
+    public void resetDecompiler(Program program) {
+        decompiler.resetDecompiler(program);
     }
 
     /**
      * Requests a new decompile be scheduled.  If a current decompile is already in progress,
      * the new request is checked to see if represents the same function. If so, only the
      * location of the current decompile is updated and the current decompile is allowed to continue.
-     * Otherwise a new DecompileRunnable is created and scheduled to run using the updateManager.
-     * When the updateMangers runs, it will stop any current decompiles and begin the new decompile.
+     * Otherwise a new DecompileRunnable is created and scheduled to run using the scheduler.
+     * When the scheduler runs it, it will stop any current decompiles and begin the new decompile.
      * @param program The program containing the function to be decompiled.
      * @param location the location in the program to be decompiled and positioned to.
      * @param debugFile if non-null, creates decompile debug output to this file.
      * @param forceDecompile true forces a new decompile to be scheduled even if the current job
-     * is the same function.
+     * is the same function, and runs the decompiler even if the disk cache has the function.
      */
     synchronized void decompile(Program program, ProgramLocation location,
                                 ViewerPosition viewerPosition, File debugFile, boolean forceDecompile) {
 
         UgoDecompileRunnable newDecompileRunnable =
-                new UgoDecompileRunnable(program, location, debugFile, viewerPosition, this);
+                new UgoDecompileRunnable(program, location, debugFile, forceDecompile,
+                        viewerPosition, this);
+        metrics.counter(UgoMetrics.REQUESTS).increment();
 
         if (forceDecompile) {
             cancelAll();
-            setPendingRunnable(newDecompileRunnable);
+            decompiler.discardAbandonedResults();
+            pendingDecompileRunnable = newDecompileRunnable;
+            scheduler.dispatchNow();
             return;
         }
 
         if (updateCurrentRunnable(newDecompileRunnable)) {
+            metrics.counter(UgoMetrics.REQUESTS_MERGED).increment();
             return;
         }
 
         setPendingRunnable(newDecompileRunnable);
     }
 
+    /**
+     * Displays results taken from the in-memory cache.  They are laid out on the decompiler
+     * thread, like the results of a decompile, and replace any decompile in progress.
+     */
+    synchronized void display(Program program, ProgramLocation location,
+                              ViewerPosition viewerPosition, DecompileResults cachedResults) {
+        cancelAll();
+        pendingDecompileRunnable =
+                new UgoDecompileRunnable(program, location, cachedResults, viewerPosition, this);
+        scheduler.dispatchNow();
+    }
+
     private synchronized void setPendingRunnable(UgoDecompileRunnable newDecompileRunnable) {
         pendingDecompileRunnable = newDecompileRunnable;
-        updateManager.update();
+        scheduler.schedule(currentDecompileRunnable != null);
     }
 
     private synchronized boolean updateCurrentRunnable(UgoDecompileRunnable newDecompileRunnable) {
@@ -140,14 +182,15 @@ public class UgoDecompilerManager {
 
     private synchronized void cancelCurrentRunnable() {
         if (currentDecompileRunnable != null) {
+            metrics.counter(UgoMetrics.CANCELLATIONS).increment();
+            // the decompiler abandons the decompile when its monitor is cancelled
             runManager.cancelAllRunnables();
-            decompiler.cancelCurrentAction();
             currentDecompileRunnable = null;
         }
     }
 
     public void dispose() {
-        updateManager.dispose();
+        scheduler.dispose();
         runManager.dispose();
         cancelAll();
         decompiler.dispose();
@@ -164,6 +207,7 @@ public class UgoDecompilerManager {
         pendingDecompileRunnable = null;
 
         decompilerController.decompilerStatusChanged();
+        // the delay only holds back the progress bar, so quick decompiles do not flash it
         runManager.runNow(currentDecompileRunnable, "Decompiler", 500);
     }
 
@@ -172,13 +216,28 @@ public class UgoDecompilerManager {
 //==================================================================================================
 
     DecompileResults decompile(Program program, Function functionToDecompile, File debugFile,
-                               TaskMonitor monitor) throws DecompileException {
+                               boolean bypassCache, TaskMonitor monitor)
+            throws DecompileException {
 
-        return decompiler.decompile(program, functionToDecompile, debugFile, monitor);
+        return decompiler.decompile(program, functionToDecompile, debugFile, bypassCache,
+                monitor);
+
+    }
 
+    UgoClangLayoutController.LayoutSnapshot prepareLayout(DecompileData decompileData) {
+        UgoDecompilerController controller = decompilerController;
+        if (controller == null) {
+            return null; // disposed!
+        }
+        return controller.prepareLayout(decompileData);
     }
 
     void setDecompileData(UgoDecompileRunnable runnable, DecompileData decompileData) {
+        setDecompileData(runnable, decompileData, null);
+    }
+
+    void setDecompileData(UgoDecompileRunnable runnable, DecompileData decompileData,
+                          UgoClangLayoutController.LayoutSnapshot layout) {
 
         if (decompilerController == null) {
             return; // disposed!
@@ -192,7 +251,10 @@ public class UgoDecompilerManager {
             currentDecompileRunnable = null;
         }
 
-        decompilerController.setDecompileData(decompileData);
+        decompilerController.setDecompileData(decompileData, layout);
+        if (decompileData.hasDecompileResults()) {
+            metrics.timer(UgoMetrics.END_TO_END).recordSince(runnable.getRequestNanos());
+        }
     }
 
 }
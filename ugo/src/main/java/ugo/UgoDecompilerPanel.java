@@ -52,8 +52,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -128,8 +126,15 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         return layoutMgr.getLines();
     }
 
-    public List<Field> getFields() {
-        return Arrays.asList(layoutMgr.getFields());
+    public int getNumLines() {
+        return layoutMgr.getNumLines();
+    }
+
+    /**
+     * Returns the field displaying the given line.
+     */
+    public Field getField(int lineIndex) {
+        return layoutMgr.getField(lineIndex);
     }
 
     public FieldPanel getFieldPanel() {
@@ -154,6 +159,18 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
      * @param decompileData the new data
      */
     void setDecompileData(DecompileData decompileData) {
+        setDecompileData(decompileData, null);
+    }
+
+    /**
+     * Same as {@link #setDecompileData(DecompileData)}, with the data already laid out.
+     *
+     * @param decompileData the new data
+     * @param layout the data laid out by {@link #prepareLayout(DecompileData)}, or null to lay it
+     *               out now
+     */
+    void setDecompileData(DecompileData decompileData,
+                          UgoClangLayoutController.LayoutSnapshot layout) {
         if (layoutMgr == null) {
             // we've been disposed!
             return;
@@ -162,14 +179,13 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         DecompileData oldData = this.decompileData;
         this.decompileData = decompileData;
         Function function = decompileData.getFunction();
-        if (decompileData.hasDecompileResults()) {
-            layoutMgr.buildLayouts(function, decompileData.getCCodeMarkup(), null, true);
-            if (decompileData.getDebugFile() != null) {
-                controller.setStatusMessage(
-                        "Debug file generated: " + decompileData.getDebugFile().getAbsolutePath());
-            }
-        } else {
-            layoutMgr.buildLayouts(null, null, decompileData.getErrorMessage(), true);
+        if (layout == null) {
+            layout = prepareLayout(decompileData);
+        }
+        layoutMgr.setLayouts(layout, true);
+        if (decompileData.hasDecompileResults() && decompileData.getDebugFile() != null) {
+            controller.setStatusMessage(
+                    "Debug file generated: " + decompileData.getDebugFile().getAbsolutePath());
         }
 
         setLocation(oldData, decompileData);
@@ -189,6 +205,24 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         currentSearchLocation = null;
     }
 
+    /**
+     * Lays out the given data without displaying it.  This does the pretty printing and measures
+     * the first screen of lines, and may be called off the Swing thread.
+     *
+     * @return the layout, or null if the panel has been disposed
+     */
+    UgoClangLayoutController.LayoutSnapshot prepareLayout(DecompileData decompileData) {
+        UgoClangLayoutController layoutController = layoutMgr;
+        if (layoutController == null) {
+            return null;
+        }
+        if (decompileData.hasDecompileResults()) {
+            return layoutController.prepareLayouts(decompileData.getFunction(),
+                    decompileData.getCCodeMarkup(), null);
+        }
+        return layoutController.prepareLayouts(null, null, decompileData.getErrorMessage());
+    }
+
     private void setLocation(DecompileData oldData, DecompileData newData) {
         Function function = oldData.getFunction();
         if (SystemUtilities.isEqual(function, newData.getFunction())) {
@@ -247,8 +281,7 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         }
 
         Address translated = translate(address);
-        List<ClangToken> tokens =
-                DecompilerUtils.getTokensFromView(layoutMgr.getFields(), translated);
+        List<ClangToken> tokens = layoutMgr.getTokensAt(translated);
         goToBeginningOfLine(tokens);
     }
 
@@ -298,7 +331,7 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
             return;
         }
 
-        int firstLineNumber = DecompilerUtils.findIndexOfFirstField(tokens, layoutMgr.getFields());
+        int firstLineNumber = layoutMgr.findIndexOfFirstLine(tokens);
         if (firstLineNumber != -1) {
             fieldPanel.goTo(BigInteger.valueOf(firstLineNumber), 0, 0, 0, false);
         }
@@ -625,10 +658,11 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
     private void highlightVariable(FieldLocation location, Field field, Color highlightColor) {
         if (highlightController != null) {
             ClangToken token = ((ClangTextField) field).getToken(location);
-            List<ClangToken> tokenList = new ArrayList<>();
-            findTokensByName(tokenList, layoutMgr.getRoot(), token.getText());
-            highlightController.clearHighlights();
-            highlightController.addTokensToHighlights(tokenList, highlightColor);
+            List<ClangToken> tokenList = layoutMgr.getTokenIndex().getTokens(token.getText());
+            updateHighlights(() -> {
+                highlightController.clearHighlights();
+                highlightController.addTokensToHighlights(tokenList, highlightColor);
+            });
             repaint();
         }
     }
@@ -684,7 +718,7 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         }
         if (trigger != EventTrigger.API_CALL) {
             Program program = decompileData.getProgram();
-            Field[] lines = layoutMgr.getFields();
+            Field[] lines = layoutMgr.getFields(selection);
             List<ClangToken> tokenList = DecompilerUtils.getTokensInSelection(selection, lines);
             AddressSpace functionSpace = decompileData.getFunctionSpace();
             AddressSet addrset =
@@ -704,7 +738,7 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         }
         Address address = DecompilerUtils.getClosestAddress(getProgram(), token);
         if (address == null) {
-            address = DecompilerUtils.findAddressBefore(layoutMgr.getFields(), token);
+            address = layoutMgr.findAddressBefore(token);
         }
         if (address == null) {
             address = decompileData.getFunction().getEntryPoint();
@@ -777,7 +811,7 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
             return null;
         }
 
-        Field[] lines = layoutMgr.getFields();
+        Field[] lines = layoutMgr.getFields(selection);
         List<ClangToken> tokens = DecompilerUtils.getTokensInSelection(selection, lines);
 
         long count = tokens.stream().filter(t -> !t.getText().trim().isEmpty()).count();
@@ -817,6 +851,24 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
         return decompilerHoverProvider.isShowing();
     }
 
+    /**
+     * Makes a series of highlight changes, such as a clear followed by new highlights, and
+     * notifies the highlight listeners once at the end.
+     */
+    public void updateHighlights(Runnable changes) {
+        UgoClangHighlightController controller = highlightController;
+        if (controller == null) {
+            changes.run();
+            return;
+        }
+        controller.beginUpdate();
+        try {
+            changes.run();
+        } finally {
+            controller.endUpdate();
+        }
+    }
+
     public void clearHighlights() {
         if (highlightController != null) {
             highlightController.clearHighlights();
@@ -826,30 +878,15 @@ public class UgoDecompilerPanel extends JPanel implements FieldMouseListener, Fi
     public void addVarnodeHighlights(Set<Varnode> varnodes, Color highlightColor,
                                      Varnode specificvn, PcodeOp specificop, Color specialColor) {
         if (highlightController != null) {
-            ClangTokenGroup root = layoutMgr.getRoot();
-            highlightController.addVarnodesToHighlight(root, varnodes, highlightColor, specificvn,
+            highlightController.addVarnodesToHighlight(layoutMgr.getTokenIndex(), varnodes, highlightColor, specificvn,
                     specificop, specialColor);
         }
     }
 
     public void addPcodeOpHighlights(Set<PcodeOp> ops, Color highlightColor) {
         if (highlightController != null) {
-            ClangTokenGroup root = layoutMgr.getRoot();
-            highlightController.addPcodeOpsToHighlight(root, ops, highlightColor);
-        }
-    }
-
-    private void findTokensByName(List<ClangToken> tokenList, ClangTokenGroup group, String name) {
-        for (int i = 0; i < group.numChildren(); ++i) {
-            ClangNode child = group.Child(i);
-            if (child instanceof ClangTokenGroup) {
-                findTokensByName(tokenList, (ClangTokenGroup) child, name);
-            } else if (child instanceof ClangToken) {
-                ClangToken token = (ClangToken) child;
-                if (name.equals(token.getText())) {
-                    tokenList.add(token);
-                }
-            }
+            highlightController.addPcodeOpsToHighlight(layoutMgr.getTokenIndex(), ops,
+                    highlightColor);
         }
     }
 
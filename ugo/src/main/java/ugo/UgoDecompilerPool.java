@@ -0,0 +1,481 @@
+package ugo;
+
+import java.util.*;
+
+import ghidra.app.decompiler.*;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import ugo.lang.UgoDecompInterface;
+import ugo.metrics.UgoMetrics;
+
+/**
+ * A bounded pool of native decompiler processes.  Interfaces are keyed by the {@link Program}
+ * they have been opened on, and are handed out with
+ * {@link #checkout(Program, UgoDecompilePriority, TaskMonitor)} and given back with
+ * {@link #release(DecompInterface, DecompileResults)}.  Only one client ever
+ * uses a given interface at a time, so callers may decompile on several processes in parallel.
+ *
+ * <p>The pool never holds more than {@link #getMaxSize()} processes at once.  When a process is
+ * needed for a program that has no idle process, an idle process of another program is disposed
+ * to make room.  A process that timed out, failed to start or crashed is disposed instead of
+ * being returned, and a fresh one is started on the next checkout.
+ *
+ * <p>When every process is checked out, waiting clients get the released processes in order of
+ * their {@link UgoDecompilePriority}, so a user's navigation overtakes a batch job that is
+ * waiting for its next function.
+ */
+public class UgoDecompilerPool {
+
+    private final int maxSize;
+    // guarded by this
+    private int availablePermits;
+    private final NavigableSet<Waiter> waiters = new TreeSet<>();
+    private long nextWaiterSequence;
+
+    private final Map<Program, Deque<PooledInterface>> idleInterfaces = new HashMap<>();
+    private final Map<DecompInterface, PooledInterface> checkedOut = new IdentityHashMap<>();
+    private int liveCount;
+
+    // used for programs that have not been given options of their own
+    private final DecompileOptions defaultOptions;
+    private final Map<Program, ProgramOptions> programOptions = new HashMap<>();
+    private int lastOptionsVersion;
+    private boolean disposed;
+
+    private volatile UgoMetrics metrics = new UgoMetrics();
+
+    public UgoDecompilerPool(DecompileOptions options) {
+        this(options, Runtime.getRuntime().availableProcessors());
+    }
+
+    public UgoDecompilerPool(DecompileOptions options, int maxSize) {
+        this.defaultOptions = options;
+        this.maxSize = Math.max(1, maxSize);
+        this.availablePermits = this.maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of processes that are not currently checked out, including those that
+     * have not been started yet.
+     */
+    public synchronized int getAvailableCount() {
+        return availablePermits;
+    }
+
+    /**
+     * Sets the registry that counts the processes started, killed and failed.
+     */
+    public void setMetrics(UgoMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public UgoMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the options that processes opened on the program decompile with.
+     */
+    public synchronized DecompileOptions getOptions(Program program) {
+        ProgramOptions entry = programOptions.get(program);
+        return entry != null ? entry.options : defaultOptions;
+    }
+
+    /**
+     * Sets the options used by the processes opened on the program, which may include settings
+     * grabbed from the program itself.  Idle processes pick up the new options the next time
+     * they are checked out.
+     */
+    public synchronized void setOptions(Program program, DecompileOptions options) {
+        ProgramOptions entry = programOptions.computeIfAbsent(program, p -> new ProgramOptions());
+        entry.options = options;
+        entry.version = ++lastOptionsVersion;
+    }
+
+    // guarded by this
+    private int getOptionsVersion(Program program) {
+        ProgramOptions entry = programOptions.get(program);
+        return entry != null ? entry.version : 0;
+    }
+
+    /**
+     * Checks out a decompiler interface opened on the given program, waiting for one to become
+     * available if the pool is exhausted.  Waiting clients are served in order of priority.
+     *
+     * @param program the program to decompile
+     * @param priority how urgently the process is needed
+     * @param monitor used to abandon the wait
+     * @return an interface that must be given back with {@link #release}
+     * @throws CancelledException if the monitor was cancelled while waiting
+     * @throws DecompileException if a new decompiler process could not be started
+     */
+    public DecompInterface checkout(Program program, UgoDecompilePriority priority,
+                                    TaskMonitor monitor)
+            throws CancelledException, DecompileException {
+        acquirePermit(priority, monitor);
+        return checkoutWithPermit(program);
+    }
+
+    /**
+     * Checks out a decompiler interface only if one is free right now and no more urgent
+     * client is waiting for it.
+     *
+     * @return the interface, or null if every process is busy
+     */
+    public DecompInterface tryCheckout(Program program, UgoDecompilePriority priority,
+                                       TaskMonitor monitor) throws DecompileException {
+        synchronized (this) {
+            if (!tryAcquirePermit(priority)) {
+                return null;
+            }
+        }
+        return checkoutWithPermit(program);
+    }
+
+    private synchronized void acquirePermit(UgoDecompilePriority priority, TaskMonitor monitor)
+            throws CancelledException {
+        if (tryAcquirePermit(priority)) {
+            return;
+        }
+        Waiter waiter = new Waiter(priority, nextWaiterSequence++);
+        waiters.add(waiter);
+        try {
+            while (!isNext(waiter)) {
+                monitor.checkCanceled();
+                wait(100);
+            }
+            availablePermits--;
+        } catch (InterruptedException e) {
+            throw new CancelledException();
+        } finally {
+            waiters.remove(waiter);
+            notifyAll(); // another waiter may be next now
+        }
+    }
+
+    // guarded by this
+    private boolean tryAcquirePermit(UgoDecompilePriority priority) {
+        if (!hasPermitFor(priority)) {
+            return false;
+        }
+        for (Waiter waiter : waiters) {
+            if (waiter.priority.compareTo(priority) > 0) {
+                break;
+            }
+            if (hasPermitFor(waiter.priority)) {
+                return false; // don't overtake a client that has waited at least as urgently
+            }
+        }
+        availablePermits--;
+        return true;
+    }
+
+    // guarded by this; whether the waiter is the first one that a free permit can go to
+    private boolean isNext(Waiter waiter) {
+        for (Waiter w : waiters) {
+            if (hasPermitFor(w.priority)) {
+                return w == waiter;
+            }
+        }
+        return false;
+    }
+
+    // guarded by this
+    private boolean hasPermitFor(UgoDecompilePriority priority) {
+        return availablePermits > (priority.isSpeculative() ? 1 : 0);
+    }
+
+    private synchronized void releasePermit() {
+        availablePermits++;
+        notifyAll();
+    }
+
+    private DecompInterface checkoutWithPermit(Program program)
+            throws DecompileException {
+        boolean success = false;
+        try {
+            PooledInterface pooled = takeIdle(program);
+            if (pooled == null) {
+                pooled = startInterface(program);
+            }
+            // nobody else can reach the process now, so bring it up to date outside the lock
+            DecompileOptions newOptions = null;
+            boolean reset;
+            synchronized (this) {
+                int version = getOptionsVersion(program);
+                if (pooled.optionsVersion != version) {
+                    newOptions = getOptions(program);
+                    pooled.optionsVersion = version;
+                }
+                reset = pooled.needsReset;
+                pooled.needsReset = false;
+            }
+            if (reset) {
+                pooled.ifc.resetDecompiler();
+            }
+            if (newOptions != null) {
+                pooled.ifc.setOptions(newOptions);
+            }
+            synchronized (this) {
+                checkedOut.put(pooled.ifc, pooled);
+            }
+            success = true;
+            return pooled.ifc;
+        } finally {
+            if (!success) {
+                releasePermit();
+            }
+        }
+    }
+
+    private PooledInterface startInterface(Program program)
+            throws DecompileException {
+        DecompileOptions startOptions;
+        int version;
+        synchronized (this) {
+            startOptions = getOptions(program);
+            version = getOptionsVersion(program);
+        }
+        PooledInterface pooled;
+        try {
+            pooled = new PooledInterface(openInterface(program, startOptions));
+        } catch (DecompileException | RuntimeException e) {
+            synchronized (this) {
+                liveCount--;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (disposed) {
+                disposeInterface(pooled);
+                throw new DecompileException("Decompiler", "Decompiler pool is disposed");
+            }
+            pooled.optionsVersion = version;
+        }
+        metrics.counter(UgoMetrics.PROCESSES_STARTED).increment();
+        return pooled;
+    }
+
+    /**
+     * Takes a healthy idle interface for the program, making room for a new process when the pool
+     * is full.  Returns null if a new process should be started, in which case a slot has
+     * already been reserved for it.
+     */
+    private synchronized PooledInterface takeIdle(Program program) throws DecompileException {
+        if (disposed) {
+            throw new DecompileException("Decompiler", "Decompiler pool is disposed");
+        }
+        Deque<PooledInterface> idle = idleInterfaces.get(program);
+        while (idle != null && !idle.isEmpty()) {
+            PooledInterface pooled = idle.pollFirst();
+            if (isHealthy(pooled, program)) {
+                return pooled;
+            }
+            disposeInterface(pooled);
+        }
+
+        if (liveCount >= maxSize) {
+            evictIdleInterface();
+        }
+        liveCount++;
+        return null;
+    }
+
+    private boolean isHealthy(PooledInterface pooled, Program program) {
+        DecompInterface ifc = pooled.ifc;
+        return !program.isClosed() && ifc.getProgram() == program;
+    }
+
+    private void evictIdleInterface() {
+        for (Iterator<Deque<PooledInterface>> it = idleInterfaces.values().iterator(); it.hasNext(); ) {
+            Deque<PooledInterface> idle = it.next();
+            PooledInterface pooled = idle.pollLast();
+            if (idle.isEmpty()) {
+                it.remove();
+            }
+            if (pooled != null) {
+                disposeInterface(pooled);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives an interface back to the pool.  If the last results show that the native process
+     * timed out or died, the process is disposed and will be replaced on a later checkout.
+     *
+     * @param ifc the interface obtained from {@link #checkout}
+     * @param lastResults the results of the last decompile performed, or null if none completed
+     */
+    public void release(DecompInterface ifc, DecompileResults lastResults) {
+        if (ifc == null) {
+            return;
+        }
+        synchronized (this) {
+            PooledInterface pooled = checkedOut.remove(ifc);
+            if (pooled == null) {
+                return; // already invalidated
+            }
+            if (disposed || pooled.programClosed || ifc.getProgram() == null ||
+                    ifc.getProgram().isClosed()) {
+                // nobody will check out a process of a closed program again
+                disposeInterface(pooled);
+            }
+            else if (!isProcessHealthy(lastResults)) {
+                metrics.counter(UgoMetrics.PROCESSES_FAILED).increment();
+                disposeInterface(pooled);
+            }
+            else {
+                idleInterfaces.computeIfAbsent(ifc.getProgram(), p -> new ArrayDeque<>())
+                        .addFirst(pooled);
+            }
+        }
+        releasePermit();
+    }
+
+    /**
+     * Stops and disposes a checked out interface, for example when a decompile that nobody
+     * waits for any more has run too long.  The interface must not be used again.
+     */
+    public void invalidate(DecompInterface ifc) {
+        if (ifc == null) {
+            return;
+        }
+        synchronized (this) {
+            if (checkedOut.remove(ifc) == null) {
+                return;
+            }
+            liveCount--;
+        }
+        // stopping the process waits for it, so other clients must not be held up meanwhile
+        ifc.stopProcess();
+        disposeProcess(ifc);
+        metrics.counter(UgoMetrics.PROCESSES_KILLED).increment();
+        releasePermit();
+    }
+
+    private static boolean isProcessHealthy(DecompileResults results) {
+        if (results == null) {
+            return true; // nothing was asked of the process
+        }
+        return !results.isTimedOut() && !results.failedToStart();
+    }
+
+    /**
+     * Resets every process opened on the program.  Call this method when the decompiler's view of
+     * a program has been invalidated, such as when a new overlay space has been added.
+     *
+     * <p>The processes are only marked here, and each is reset the next time it is checked out:
+     * resetting a busy process waits for its decompile, which must not happen under the lock.
+     */
+    public synchronized void resetDecompiler(Program program) {
+        Deque<PooledInterface> idle = idleInterfaces.get(program);
+        if (idle != null) {
+            for (PooledInterface pooled : idle) {
+                pooled.needsReset = true;
+            }
+        }
+        for (PooledInterface pooled : checkedOut.values()) {
+            if (pooled.ifc.getProgram() == program) {
+                pooled.needsReset = true;
+            }
+        }
+    }
+
+    /**
+     * Disposes every idle process for the given program.  Processes that are checked out are
+     * marked, and disposed when they are released.
+     */
+    public synchronized void programClosed(Program program) {
+        programOptions.remove(program);
+        Deque<PooledInterface> idle = idleInterfaces.remove(program);
+        if (idle != null) {
+            for (PooledInterface pooled : idle) {
+                disposeInterface(pooled);
+            }
+        }
+        for (PooledInterface pooled : checkedOut.values()) {
+            if (pooled.ifc.getProgram() == program) {
+                pooled.programClosed = true;
+            }
+        }
+    }
+
+    public synchronized void dispose() {
+        disposed = true;
+        for (Deque<PooledInterface> idle : idleInterfaces.values()) {
+            for (PooledInterface pooled : idle) {
+                disposeInterface(pooled);
+            }
+        }
+        idleInterfaces.clear();
+        for (PooledInterface pooled : checkedOut.values()) {
+            pooled.ifc.stopProcess();
+        }
+    }
+
+    private void disposeInterface(PooledInterface pooled) {
+        liveCount--;
+        disposeProcess(pooled.ifc);
+    }
+
+    private void disposeProcess(DecompInterface ifc) {
+        try {
+            ifc.dispose();
+        } catch (Exception e) {
+            Msg.debug(this, "Unable to dispose decompiler process", e);
+        }
+    }
+
+    private DecompInterface openInterface(Program program, DecompileOptions options)
+            throws DecompileException {
+        DecompInterface newInterface = new UgoDecompInterface();
+        newInterface.setOptions(options);
+//		newInterface.toggleSyntaxTree(false);
+        if (!newInterface.openProgram(program)) {
+            String errorMessage = newInterface.getLastMessage();
+            newInterface.dispose();
+            throw new DecompileException("Decompiler",
+                    "Unable to initialize the " + "DecompilerInterface: " + errorMessage);
+        }
+        return newInterface;
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final UgoDecompilePriority priority;
+        private final long sequence;
+
+        Waiter(UgoDecompilePriority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class ProgramOptions {
+        private DecompileOptions options;
+        private int version;
+    }
+
+    private static class PooledInterface {
+        private final DecompInterface ifc;
+        private int optionsVersion;
+        private boolean needsReset;
+        private boolean programClosed;
+
+        PooledInterface(DecompInterface ifc) {
+            this.ifc = ifc;
+        }
+    }
+}
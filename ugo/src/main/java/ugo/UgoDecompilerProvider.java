@@ -47,6 +47,7 @@ import ghidra.app.plugin.core.decompile.actions.FindReferencesToAddressAction;
 import ghidra.app.plugin.core.decompile.actions.FindReferencesToSymbolAction;
 import ghidra.app.services.*;
 import ghidra.app.util.HighlightProvider;
+import ghidra.framework.model.DomainObject;
 import ghidra.framework.model.DomainObjectChangedEvent;
 import ghidra.framework.model.DomainObjectListener;
 import ghidra.framework.options.OptionsChangeListener;
@@ -107,6 +108,7 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
     private ViewerPosition pendingViewerPosition;
 
     private SwingUpdateManager redecompilerUpdater;
+    private SwingUpdateManager redisplayUpdater;
 
     public UgoDecompilerProvider(UgoDecompilePlugin plugin, boolean isConnected) {
         super(plugin.getTool(), "Decompiler", plugin.getName(), DecompilerActionContext.class);
@@ -119,7 +121,10 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
         decompilerOptions = new DecompileOptions();
         initializeDecompilerOptions();
         UgoClangHighlightController highlightController = new UgoLocationClangHighlightController();
-        controller = new UgoDecompilerController(this, decompilerOptions, clipboardProvider);
+        controller = new UgoDecompilerController(this, decompilerOptions, clipboardProvider,
+                plugin.getDecompilerPool(), plugin.getDiskCache(), plugin.getCodeSearchIndex());
+        controller.setDecompilePriority(
+                isConnected ? UgoDecompilePriority.INTERACTIVE : UgoDecompilePriority.CLONE);
         UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
         decompilerPanel.setHighlightController(highlightController);
         decorationPanel = new DecoratorPanel(decompilerPanel, isConnected);
@@ -142,6 +147,7 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
         addToTool();
 
         redecompilerUpdater = new SwingUpdateManager(500, 5000, () -> doRefresh());
+        redisplayUpdater = new SwingUpdateManager(500, 5000, () -> doRedisplay());
 
         ServiceListener serviceListener = new ServiceListener() {
 
@@ -279,19 +285,31 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
 
     @Override
     public void domainObjectChanged(DomainObjectChangedEvent ev) {
+        // keep the cache accurate even while hidden; only what the change touches is evicted
+        boolean displayAffected = controller.invalidateCache(program, ev);
         if (!isVisible()) {
             return;
         }
 
         if (ev.containsEvent(ChangeManager.DOCR_MEMORY_BLOCK_ADDED) ||
                 ev.containsEvent(ChangeManager.DOCR_MEMORY_BLOCK_REMOVED)) {
-            controller.resetDecompiler();
+            controller.resetDecompiler(program);
         }
 
-        redecompilerUpdater.update();
+        if (ev.containsEvent(DomainObject.DO_PROPERTY_CHANGED)) {
+            redecompilerUpdater.update(); // program options may have changed
+        } else if (displayAffected) {
+            redisplayUpdater.update();
+        }
 
     }
 
+    private void doRedisplay() {
+        if (currentLocation != null) {
+            controller.refreshDisplay(program, currentLocation, null);
+        }
+    }
+
     private void doRefresh() {
         ToolOptions opt = tool.getOptions(OPTIONS_TITLE);
         decompilerOptions.grabFromToolAndProgram(plugin, opt, program);
@@ -334,6 +352,7 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
         super.dispose();
 
         redecompilerUpdater.dispose();
+        redisplayUpdater.dispose();
 
         if (clipboardService != null) {
             clipboardService.deRegisterClipboardContentProvider(clipboardProvider);
@@ -787,6 +806,9 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
         DockingAction findAction = new UgoFindAction(tool, controller);
         setGroupInfo(findAction, searchGroup, subGroupPosition++);
 
+        DockingAction searchAllAction = new UgoSearchAllFunctionsAction(tool, controller, plugin);
+        setGroupInfo(searchAllAction, searchGroup, subGroupPosition++);
+
         //
         // References
         //
@@ -824,6 +846,9 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
         //
         DockingAction debugFunctionAction = new UgoDebugDecompilerAction(controller);
         DockingAction convertAction = new UgoExportToCAction(controller);
+        DockingAction convertProgramAction =
+                new UgoExportProgramToCAction(tool, controller, plugin);
+        DockingAction exportAstAction = new UgoExportProgramAstAction(tool, controller, plugin);
         UgoCloneDecompilerAction cloneDecompilerAction = new UgoCloneDecompilerAction(this, controller);
 
         addLocalAction(refreshAction);
@@ -846,7 +871,10 @@ public class UgoDecompilerProvider extends NavigatableComponentProviderAdapter
         addLocalAction(renameFunctionAction);
         addLocalAction(debugFunctionAction);
         addLocalAction(convertAction);
+        addLocalAction(convertProgramAction);
+        addLocalAction(exportAstAction);
         addLocalAction(findAction);
+        addLocalAction(searchAllAction);
         addLocalAction(findReferencesAction);
         addLocalAction(propertiesAction);
         addLocalAction(cloneDecompilerAction);
@@ -33,6 +33,16 @@ public class UgoLocationClangHighlightController extends UgoClangHighlightContro
 
     @Override
     public void fieldLocationChanged(FieldLocation location, Field field, EventTrigger trigger) {
+        beginUpdate();
+        try {
+            updateHighlights(location, field);
+        }
+        finally {
+            endUpdate();
+        }
+    }
+
+    private void updateHighlights(FieldLocation location, Field field) {
 
         clearHighlights();
 
@@ -22,6 +22,7 @@ import ghidra.program.model.listing.Program;
 )
 public class UgoPlugin extends ProgramPlugin {
     public static final String PACKAGE_NAME = "ugo";
+    public static final String VERSION = "0.1"; // keep in sync with build.gradle
     public static final String MENU_ITEM = "[Ugo] Analyze";
     public static final String[] MENU_PATH = new String[]{"&Ugo", "Analyze"};
 
@@ -0,0 +1,183 @@
+package ugo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The text of a laid out function, indexed for searching.
+ *
+ * <p>Every line is concatenated into one buffer, along with a lower-cased copy for
+ * case-insensitive search and a table of line start offsets.  A search scans the buffer once and
+ * maps the match back to its line with a binary search, instead of rebuilding the text of every
+ * line.  As in the line by line search it replaces, matches never span lines.
+ */
+class UgoSearchIndex {
+
+    /**
+     * A match, in columns of the line it is on.
+     */
+    static class Match {
+        private final int line;
+        private final int start;
+        private final int end;
+
+        Match(int line, int start, int end) {
+            this.line = line;
+            this.start = start;
+            this.end = end;
+        }
+
+        int getLine() {
+            return line;
+        }
+
+        int getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the column just past the end of the match.
+         */
+        int getEnd() {
+            return end;
+        }
+    }
+
+    private final String text;
+    private final String lowerText;
+    // one entry per line, plus one past the end, as if the last line ended with a separator
+    private final int[] lineStarts;
+    private final int lineCount;
+
+    UgoSearchIndex(List<String> lines) {
+        lineCount = lines.size();
+        lineStarts = new int[lineCount + 1];
+        StringBuilder buffy = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            lineStarts[i] = buffy.length();
+            buffy.append(lines.get(i)).append('\n');
+        }
+        lineStarts[lineCount] = buffy.length();
+        if (lineCount > 0) {
+            buffy.setLength(buffy.length() - 1);
+        }
+        text = buffy.toString();
+        lowerText = toLowerCase(text);
+    }
+
+    // lower-cases one char at a time, so offsets in both buffers stay the same
+    private static String toLowerCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private int lineEnd(int line) {
+        return lineStarts[line + 1] - 1;
+    }
+
+    private int lineOf(int offset) {
+        int line = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return line >= 0 ? line : -line - 2;
+    }
+
+    private Match toMatch(int start, int end) {
+        int line = lineOf(start);
+        return new Match(line, start - lineStarts[line], end - lineStarts[line]);
+    }
+
+    /**
+     * Finds the first case-insensitive occurrence of the text after the given column.
+     */
+    Match findForward(String query, int line, int column) {
+        if (line >= lineCount || query.indexOf('\n') >= 0) {
+            return null;
+        }
+        int from = lineStarts[line] + column + 1;
+        if (from >= lineEnd(line)) {
+            from = lineStarts[line + 1];
+        }
+        if (from > text.length()) {
+            return null;
+        }
+        String lowerQuery = toLowerCase(query);
+        int index = lowerText.indexOf(lowerQuery, from);
+        if (index < 0) {
+            return null;
+        }
+        return toMatch(index, index + lowerQuery.length());
+    }
+
+    /**
+     * Finds the last case-insensitive occurrence of the text ending before the given column.
+     */
+    Match findBackward(String query, int line, int column) {
+        if (lineCount == 0 || query.indexOf('\n') >= 0) {
+            return null;
+        }
+        int limit;
+        if (line >= lineCount) {
+            limit = text.length();
+        } else {
+            limit = Math.min(lineStarts[line] + column, lineEnd(line));
+        }
+        String lowerQuery = toLowerCase(query);
+        int index = lowerText.lastIndexOf(lowerQuery, limit - lowerQuery.length());
+        if (index < 0) {
+            return null;
+        }
+        return toMatch(index, index + lowerQuery.length());
+    }
+
+    /**
+     * Finds the first match of the pattern after the given column.
+     */
+    Match findForward(Pattern pattern, int line, int column) {
+        Matcher matcher = pattern.matcher(text);
+        for (int i = line; i < lineCount; i++) {
+            int start = lineStarts[i];
+            if (i == line) {
+                start += column + 1;
+                if (start >= lineEnd(i)) {
+                    continue;
+                }
+            }
+            matcher.region(start, lineEnd(i));
+            if (matcher.find()) {
+                return toMatch(matcher.start(), matcher.end());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the last match of the pattern ending before the given column.
+     */
+    Match findBackward(Pattern pattern, int line, int column) {
+        Matcher matcher = pattern.matcher(text);
+        for (int i = Math.min(line, lineCount - 1); i >= 0; i--) {
+            int end = lineEnd(i);
+            if (i == line) {
+                end = Math.min(end, lineStarts[i] + column);
+            }
+            matcher.region(lineStarts[i], end);
+            if (!matcher.find()) {
+                continue;
+            }
+
+            // the matcher only searches forward, so take the last of the matches on the line
+            int start = matcher.start();
+            int matchEnd = matcher.end();
+            while (matcher.find()) {
+                start = matcher.start();
+                matchEnd = matcher.end();
+            }
+            return new Match(i, start - lineStarts[i], matchEnd - lineStarts[i]);
+        }
+        return null;
+    }
+}
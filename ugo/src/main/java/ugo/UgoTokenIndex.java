@@ -0,0 +1,83 @@
+package ugo;
+
+import java.util.*;
+
+import ghidra.app.decompiler.ClangNode;
+import ghidra.app.decompiler.ClangToken;
+import ghidra.app.decompiler.ClangTokenGroup;
+import ghidra.app.decompiler.component.DecompilerUtils;
+import ghidra.program.model.pcode.PcodeOp;
+import ghidra.program.model.pcode.Varnode;
+
+/**
+ * The tokens of a laid out function, indexed by the varnode they refer to, the p-code op they
+ * belong to and their text.
+ *
+ * <p>The token tree is walked once when the layout is built.  Highlighting a slice, the uses of a
+ * variable or every token with the same name then looks up the tokens of each element of the
+ * result, instead of walking the whole tree and resolving the varnode of every token again.
+ * Tokens are kept in document order.
+ */
+public class UgoTokenIndex {
+
+    private final Map<Varnode, List<ClangToken>> tokensByVarnode = new HashMap<>();
+    private final Map<PcodeOp, List<ClangToken>> tokensByPcodeOp = new HashMap<>();
+    private final Map<String, List<ClangToken>> tokensByText = new HashMap<>();
+
+    UgoTokenIndex(ClangTokenGroup root) {
+        if (root == null) {
+            return;
+        }
+        List<ClangNode> nodes = new ArrayList<>();
+        root.flatten(nodes);
+        for (ClangNode node : nodes) {
+            ClangToken token = (ClangToken) node;
+            Varnode varnode = DecompilerUtils.getVarnodeRef(token);
+            if (varnode != null) {
+                add(tokensByVarnode, varnode, token);
+            }
+            PcodeOp op = token.getPcodeOp();
+            if (op != null) {
+                add(tokensByPcodeOp, op, token);
+            }
+            String text = token.getText();
+            if (text != null && !text.isEmpty()) {
+                add(tokensByText, text, token);
+            }
+        }
+    }
+
+    private static <K> void add(Map<K, List<ClangToken>> map, K key, ClangToken token) {
+        List<ClangToken> tokens = map.get(key);
+        if (tokens == null) {
+            // most keys have a single token
+            tokens = new ArrayList<>(1);
+            map.put(key, tokens);
+        }
+        tokens.add(token);
+    }
+
+    /**
+     * Returns the tokens that refer to the given varnode.
+     */
+    public List<ClangToken> getTokens(Varnode varnode) {
+        List<ClangToken> tokens = tokensByVarnode.get(varnode);
+        return tokens != null ? tokens : Collections.emptyList();
+    }
+
+    /**
+     * Returns the tokens that belong to the given p-code op.
+     */
+    public List<ClangToken> getTokens(PcodeOp op) {
+        List<ClangToken> tokens = tokensByPcodeOp.get(op);
+        return tokens != null ? tokens : Collections.emptyList();
+    }
+
+    /**
+     * Returns the tokens with exactly the given text.
+     */
+    public List<ClangToken> getTokens(String text) {
+        List<ClangToken> tokens = tokensByText.get(text);
+        return tokens != null ? tokens : Collections.emptyList();
+    }
+}
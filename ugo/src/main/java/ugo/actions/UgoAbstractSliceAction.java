@@ -0,0 +1,104 @@
+package ugo.actions;
+
+import docking.action.MenuData;
+import ghidra.app.decompiler.ClangToken;
+import ghidra.app.decompiler.component.DecompilerUtils;
+import ghidra.app.plugin.core.decompile.DecompilerActionContext;
+import ghidra.program.model.pcode.HighFunction;
+import ghidra.program.model.pcode.PcodeOp;
+import ghidra.program.model.pcode.Varnode;
+import ghidra.util.Swing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.Task;
+import ghidra.util.task.TaskLauncher;
+import ghidra.util.task.TaskMonitor;
+import ugo.UgoDecompilerController;
+import ugo.UgoDecompilerPanel;
+import ugo.slice.UgoSlice;
+import ugo.slice.UgoSliceCache;
+
+/**
+ * Base class for the actions that highlight a slice from the varnode at the cursor.
+ *
+ * <p>Slices come from the controller's {@link UgoSliceCache}.  One that is already known is
+ * highlighted at once; otherwise it is computed in a cancellable task, and highlighted only if
+ * the same function is still displayed when it completes.
+ */
+public abstract class UgoAbstractSliceAction extends UgoAbstractDecompilerAction {
+    protected final UgoDecompilerController controller;
+    private final boolean forward;
+
+    protected UgoAbstractSliceAction(String name, UgoDecompilerController controller,
+                                     boolean forward) {
+        super(name);
+        this.controller = controller;
+        this.forward = forward;
+        setPopupMenuData(new MenuData(new String[]{name}, "Decompile"));
+    }
+
+    @Override
+    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
+        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
+        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
+        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
+        return varnode != null;
+    }
+
+    @Override
+    protected void decompilerActionPerformed(DecompilerActionContext context) {
+        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
+        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
+        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
+        HighFunction highFunction = controller.getHighFunction();
+        if (varnode == null || highFunction == null) {
+            return;
+        }
+        PcodeOp op = tokenAtCursor.getPcodeOp();
+        UgoSlice slice = controller.getSliceCache().getCachedSlice(highFunction, varnode, forward);
+        if (slice != null) {
+            showSlice(decompilerPanel, slice, varnode, op);
+            return;
+        }
+        new TaskLauncher(new SliceTask(highFunction, varnode, op), decompilerPanel);
+    }
+
+    private void showSlice(UgoDecompilerPanel decompilerPanel, UgoSlice slice, Varnode varnode,
+                           PcodeOp op) {
+        decompilerPanel.updateHighlights(() -> highlight(decompilerPanel, slice, varnode, op));
+    }
+
+    /**
+     * Subclasses highlight the slice in the panel
+     *
+     * @param decompilerPanel the panel
+     * @param slice the slice
+     * @param varnode the varnode the slice starts from
+     * @param op the op of the token at the cursor
+     */
+    protected abstract void highlight(UgoDecompilerPanel decompilerPanel, UgoSlice slice,
+                                      Varnode varnode, PcodeOp op);
+
+    private class SliceTask extends Task {
+        private final HighFunction highFunction;
+        private final Varnode varnode;
+        private final PcodeOp op;
+
+        SliceTask(HighFunction highFunction, Varnode varnode, PcodeOp op) {
+            super(getName(), true, false, false);
+            this.highFunction = highFunction;
+            this.varnode = varnode;
+            this.op = op;
+        }
+
+        @Override
+        public void run(TaskMonitor monitor) throws CancelledException {
+            UgoSlice slice =
+                    controller.getSliceCache().getSlice(highFunction, varnode, forward, monitor);
+            Swing.runLater(() -> {
+                if (controller.getHighFunction() == highFunction) {
+                    showSlice(controller.getDecompilerPanel(), slice, varnode, op);
+                }
+            });
+        }
+    }
+}
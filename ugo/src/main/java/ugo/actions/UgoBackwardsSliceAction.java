@@ -16,50 +16,25 @@ package ugo.actions;
  * limitations under the License.
  */
 
-import docking.action.MenuData;
-import ghidra.app.decompiler.ClangToken;
-import ghidra.app.decompiler.component.DecompilerController;
-import ghidra.app.decompiler.component.DecompilerPanel;
-import ghidra.app.decompiler.component.DecompilerUtils;
-import ghidra.app.plugin.core.decompile.DecompilerActionContext;
 import ghidra.program.model.pcode.PcodeOp;
 import ghidra.program.model.pcode.Varnode;
 import ugo.UgoDecompilerController;
 import ugo.UgoDecompilerPanel;
+import ugo.slice.UgoSlice;
 
-import java.util.Set;
-
-public class UgoBackwardsSliceAction extends UgoAbstractDecompilerAction {
-    private final UgoDecompilerController controller;
+public class UgoBackwardsSliceAction extends UgoAbstractSliceAction {
 
     public UgoBackwardsSliceAction(UgoDecompilerController controller) {
-        super("Highlight Backward Slice");
-        this.controller = controller;
-        setPopupMenuData(new MenuData(new String[]{"Highlight Backward Slice"}, "Decompile"));
+        super("Highlight Backward Slice", controller, false);
     }
 
     @Override
-    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        return varnode != null;
+    protected void highlight(UgoDecompilerPanel decompilerPanel, UgoSlice slice, Varnode varnode,
+                             PcodeOp op) {
+        decompilerPanel.clearHighlights();
+        decompilerPanel.addVarnodeHighlights(slice.getVarnodes(),
+                decompilerPanel.getDefaultHighlightColor(), varnode, op,
+                decompilerPanel.getDefaultSpecialColor());
+        decompilerPanel.repaint();
     }
-
-    @Override
-    protected void decompilerActionPerformed(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        if (varnode != null) {
-            PcodeOp op = tokenAtCursor.getPcodeOp();
-            Set<Varnode> backwardSlice = DecompilerUtils.getBackwardSlice(varnode);
-            decompilerPanel.clearHighlights();
-            decompilerPanel.addVarnodeHighlights(backwardSlice,
-                    decompilerPanel.getDefaultHighlightColor(), varnode, op,
-                    decompilerPanel.getDefaultSpecialColor());
-            decompilerPanel.repaint();
-        }
-    }
-
 }
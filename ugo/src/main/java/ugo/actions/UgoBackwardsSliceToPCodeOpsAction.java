@@ -16,49 +16,29 @@ package ugo.actions;
  * limitations under the License.
  */
 
-import docking.action.MenuData;
-import ghidra.app.decompiler.ClangToken;
-import ghidra.app.decompiler.component.DecompilerUtils;
-import ghidra.app.plugin.core.decompile.DecompilerActionContext;
 import ghidra.program.model.pcode.PcodeOp;
 import ghidra.program.model.pcode.Varnode;
 import ugo.UgoDecompilerController;
 import ugo.UgoDecompilerPanel;
+import ugo.slice.UgoSlice;
 
+import java.util.HashSet;
 import java.util.Set;
 
-public class UgoBackwardsSliceToPCodeOpsAction extends UgoAbstractDecompilerAction {
-    private final UgoDecompilerController controller;
+public class UgoBackwardsSliceToPCodeOpsAction extends UgoAbstractSliceAction {
 
     public UgoBackwardsSliceToPCodeOpsAction(UgoDecompilerController controller) {
-        super("Highlight Backward Inst Slice");
-        this.controller = controller;
-        setPopupMenuData(
-                new MenuData(new String[]{"Highlight Backward Inst Slice"}, "Decompile"));
+        super("Highlight Backward Inst Slice", controller, false);
     }
 
     @Override
-    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        return varnode != null;
+    protected void highlight(UgoDecompilerPanel decompilerPanel, UgoSlice slice, Varnode varnode,
+                             PcodeOp op) {
+        Set<PcodeOp> backwardSlice = new HashSet<>(slice.getPcodeOps());
+        backwardSlice.add(op);
+        decompilerPanel.clearHighlights();
+        decompilerPanel.addPcodeOpHighlights(backwardSlice,
+                decompilerPanel.getDefaultHighlightColor());
+        decompilerPanel.repaint();
     }
-
-    @Override
-    protected void decompilerActionPerformed(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        if (varnode != null) {
-            PcodeOp op = tokenAtCursor.getPcodeOp();
-            Set<PcodeOp> backwardSlice = DecompilerUtils.getBackwardSliceToPCodeOps(varnode);
-            backwardSlice.add(op);
-            decompilerPanel.clearHighlights();
-            decompilerPanel.addPcodeOpHighlights(backwardSlice,
-                    decompilerPanel.getDefaultHighlightColor());
-            decompilerPanel.repaint();
-        }
-    }
-
 }
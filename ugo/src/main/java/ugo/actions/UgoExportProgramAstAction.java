@@ -0,0 +1,149 @@
+package ugo.actions;
+
+import docking.action.MenuData;
+import docking.widgets.OptionDialog;
+import docking.widgets.filechooser.GhidraFileChooser;
+import ghidra.app.plugin.core.decompile.DecompilerActionContext;
+import ghidra.framework.plugintool.PluginTool;
+import ghidra.framework.preferences.Preferences;
+import ghidra.program.model.address.AddressSetView;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ghidra.util.Swing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.filechooser.ExtensionFileFilter;
+import ghidra.util.task.Task;
+import ghidra.util.task.TaskMonitor;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilePlugin;
+import ugo.UgoDecompilerController;
+import ugo.export.UgoAstExporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Exports the decompiler markup, varnodes and p-code of every function of the program, or of the
+ * current selection, for tools that would otherwise have to re-parse the C.  Functions are
+ * decompiled in parallel through the shared process pool and disk cache.
+ */
+public class UgoExportProgramAstAction extends UgoAbstractDecompilerAction {
+    private static final String TITLE = "Export Program AST";
+    private static final String LAST_USED_AST_FILE = "last.used.decompiler.ast.export.file";
+
+    private final PluginTool tool;
+    private final UgoDecompilerController controller;
+    private final UgoDecompilePlugin plugin;
+
+    public UgoExportProgramAstAction(PluginTool tool, UgoDecompilerController controller,
+                                     UgoDecompilePlugin plugin) {
+        super(TITLE);
+        this.tool = tool;
+        this.controller = controller;
+        this.plugin = plugin;
+        setMenuBarData(new MenuData(new String[]{"Export Program AST..."}, "Export"));
+        setDescription("Export the decompiler markup and p-code of every function as NDJSON " +
+                "or binary records");
+    }
+
+    @Override
+    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
+        return controller.getProgram() != null;
+    }
+
+    @Override
+    protected void decompilerActionPerformed(DecompilerActionContext context) {
+        AddressSetView addresses = null;
+        if (controller.getSelection() != null && !controller.getSelection().isEmpty()) {
+            int choice = OptionDialog.showYesNoCancelDialog(controller.getDecompilerPanel(),
+                    TITLE, "Export only the functions in the current selection?");
+            if (choice == OptionDialog.CANCEL_OPTION) {
+                return;
+            }
+            if (choice == OptionDialog.YES_OPTION) {
+                addresses = controller.getSelection();
+            }
+        }
+
+        int choice = OptionDialog.showOptionDialog(controller.getDecompilerPanel(), TITLE,
+                "Export as newline-delimited JSON or as length-prefixed binary records?",
+                "NDJSON", "Binary", OptionDialog.QUESTION_MESSAGE);
+        if (choice == OptionDialog.CANCEL_OPTION) {
+            return;
+        }
+        UgoAstExporter.Format format = choice == OptionDialog.OPTION_ONE
+                ? UgoAstExporter.Format.NDJSON
+                : UgoAstExporter.Format.BINARY;
+        File file = getFile(format);
+        if (file == null) {
+            return;
+        }
+
+        Program program = controller.getProgram();
+        List<Function> functions = UgoBatchDecompiler.collectFunctions(program, addresses);
+        tool.execute(new ExportTask(program, functions, file, format));
+    }
+
+    private File getFile(UgoAstExporter.Format format) {
+        String extension = format == UgoAstExporter.Format.NDJSON ? "ndjson" : "bin";
+        GhidraFileChooser fileChooser = new GhidraFileChooser(controller.getDecompilerPanel());
+        fileChooser.setFileFilter(
+                new ExtensionFileFilter(new String[]{extension}, format.name() + " Files"));
+        String lastUsed = Preferences.getProperty(LAST_USED_AST_FILE);
+        if (lastUsed != null) {
+            fileChooser.setCurrentDirectory(new File(lastUsed).getParentFile());
+        }
+        File file = fileChooser.getSelectedFile();
+        if (file == null) {
+            return null;
+        }
+        if (!file.getName().toLowerCase().endsWith("." + extension)) {
+            file = new File(file.getAbsolutePath() + "." + extension);
+        }
+        if (file.exists()) {
+            if (OptionDialog.showYesNoDialog(controller.getDecompilerPanel(),
+                    "Overwrite Existing File?",
+                    "Do you want to overwrite the existing file?") == OptionDialog.OPTION_TWO) {
+                return null;
+            }
+        }
+
+        Preferences.setProperty(LAST_USED_AST_FILE, file.getAbsolutePath());
+        Preferences.store();
+        return file;
+    }
+
+    private class ExportTask extends Task {
+        private final Program program;
+        private final List<Function> functions;
+        private final File file;
+        private final UgoAstExporter.Format format;
+
+        ExportTask(Program program, List<Function> functions, File file,
+                   UgoAstExporter.Format format) {
+            super("Export " + functions.size() + " functions", true, true, false);
+            this.program = program;
+            this.functions = functions;
+            this.file = file;
+            this.format = format;
+        }
+
+        @Override
+        public void run(TaskMonitor monitor) throws CancelledException {
+            int timeout = plugin.getDecompilerPool().getOptions(program)
+                    .getDefaultTimeout();
+            UgoBatchDecompiler decompiler = new UgoBatchDecompiler(plugin.getDecompilerPool(),
+                    plugin.getDiskCache(), timeout);
+            try (UgoAstExporter exporter = new UgoAstExporter(file, format)) {
+                int count = decompiler.decompile(program, functions, exporter, monitor);
+                Swing.runLater(() -> controller.setStatusMessage(
+                        "Exported " + count + " functions to " + file.getAbsolutePath()));
+            } catch (IOException e) {
+                Msg.showError(UgoExportProgramAstAction.this, null, TITLE,
+                        "Error exporting: " + e.getMessage(), e);
+            }
+        }
+    }
+}
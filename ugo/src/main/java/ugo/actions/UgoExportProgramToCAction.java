@@ -0,0 +1,154 @@
+package ugo.actions;
+
+import docking.action.MenuData;
+import docking.widgets.OptionDialog;
+import docking.widgets.filechooser.GhidraFileChooser;
+import ghidra.app.plugin.core.decompile.DecompilerActionContext;
+import ghidra.framework.plugintool.PluginTool;
+import ghidra.framework.preferences.Preferences;
+import ghidra.program.model.address.AddressSetView;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ghidra.util.Swing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.filechooser.ExtensionFileFilter;
+import ghidra.util.task.Task;
+import ghidra.util.task.TaskMonitor;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilePlugin;
+import ugo.UgoDecompilerController;
+import ugo.export.UgoCExporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Exports the C of every function of the program, or of the current selection, in entry point
+ * order.  Functions are decompiled in parallel through the shared process pool and disk cache and
+ * streamed to disk as they complete, either to a single file or to one file per Go package.
+ */
+public class UgoExportProgramToCAction extends UgoAbstractDecompilerAction {
+    private static final String TITLE = "Export Program to C";
+    private static final String LAST_USED_C_FILE = "last.used.decompiler.c.export.file";
+
+    private final PluginTool tool;
+    private final UgoDecompilerController controller;
+    private final UgoDecompilePlugin plugin;
+
+    public UgoExportProgramToCAction(PluginTool tool, UgoDecompilerController controller,
+                                     UgoDecompilePlugin plugin) {
+        super(TITLE);
+        this.tool = tool;
+        this.controller = controller;
+        this.plugin = plugin;
+        setMenuBarData(new MenuData(new String[]{"Export Program to C..."}, "Export"));
+        setDescription("Export every function of the program, or of the selection, to C");
+    }
+
+    @Override
+    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
+        return controller.getProgram() != null;
+    }
+
+    @Override
+    protected void decompilerActionPerformed(DecompilerActionContext context) {
+        AddressSetView addresses = null;
+        if (controller.getSelection() != null && !controller.getSelection().isEmpty()) {
+            int choice = OptionDialog.showYesNoCancelDialog(controller.getDecompilerPanel(),
+                    TITLE, "Export only the functions in the current selection?");
+            if (choice == OptionDialog.CANCEL_OPTION) {
+                return;
+            }
+            if (choice == OptionDialog.YES_OPTION) {
+                addresses = controller.getSelection();
+            }
+        }
+
+        int layout = OptionDialog.showOptionDialog(controller.getDecompilerPanel(), TITLE,
+                "Write all functions to one file, or one file per Go package?", "One File",
+                "One File per Package", OptionDialog.QUESTION_MESSAGE);
+        if (layout == OptionDialog.CANCEL_OPTION) {
+            return;
+        }
+        boolean byPackage = layout == OptionDialog.OPTION_TWO;
+        File output = getOutput(byPackage);
+        if (output == null) {
+            return;
+        }
+
+        Program program = controller.getProgram();
+        List<Function> functions = UgoBatchDecompiler.collectFunctions(program, addresses);
+        tool.execute(new ExportTask(program, functions, output, byPackage));
+    }
+
+    private File getOutput(boolean byPackage) {
+        GhidraFileChooser fileChooser = new GhidraFileChooser(controller.getDecompilerPanel());
+        String lastUsed = Preferences.getProperty(LAST_USED_C_FILE);
+        if (byPackage) {
+            fileChooser.setTitle("Select Export Directory");
+            fileChooser.setFileSelectionMode(GhidraFileChooser.DIRECTORIES_ONLY);
+            if (lastUsed != null) {
+                fileChooser.setCurrentDirectory(new File(lastUsed).getParentFile());
+            }
+        } else {
+            fileChooser.setFileFilter(new ExtensionFileFilter(new String[]{"c"}, "C Files"));
+            if (lastUsed != null) {
+                fileChooser.setSelectedFile(new File(lastUsed));
+            }
+        }
+        File file = fileChooser.getSelectedFile();
+        if (file == null) {
+            return null;
+        }
+        if (!byPackage && !file.getName().toLowerCase().endsWith(".c")) {
+            file = new File(file.getAbsolutePath() + ".c");
+        }
+        if (!byPackage && file.exists()) {
+            if (OptionDialog.showYesNoDialog(controller.getDecompilerPanel(),
+                    "Overwrite Existing File?",
+                    "Do you want to overwrite the existing file?") == OptionDialog.OPTION_TWO) {
+                return null;
+            }
+        }
+
+        Preferences.setProperty(LAST_USED_C_FILE,
+                byPackage ? new File(file, "types.h").getAbsolutePath() : file.getAbsolutePath());
+        Preferences.store();
+        return file;
+    }
+
+    private class ExportTask extends Task {
+        private final Program program;
+        private final List<Function> functions;
+        private final File output;
+        private final boolean byPackage;
+
+        ExportTask(Program program, List<Function> functions, File output, boolean byPackage) {
+            super("Export " + functions.size() + " functions to C", true, true, false);
+            this.program = program;
+            this.functions = functions;
+            this.output = output;
+            this.byPackage = byPackage;
+        }
+
+        @Override
+        public void run(TaskMonitor monitor) throws CancelledException {
+            int timeout = plugin.getDecompilerPool().getOptions(program)
+                    .getDefaultTimeout();
+            UgoBatchDecompiler decompiler = new UgoBatchDecompiler(plugin.getDecompilerPool(),
+                    plugin.getDiskCache(), timeout);
+            try (UgoCExporter exporter = byPackage
+                    ? UgoCExporter.toPackageDirectory(program, output)
+                    : UgoCExporter.toFile(program, output)) {
+                int count = decompiler.decompile(program, functions, exporter, monitor);
+                Swing.runLater(() -> controller.setStatusMessage(
+                        "Exported " + count + " functions to " + output.getAbsolutePath()));
+            } catch (IOException e) {
+                Msg.showError(UgoExportProgramToCAction.this, null, TITLE,
+                        "Error exporting to C: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -30,10 +30,8 @@ import resources.ResourceManager;
 import ugo.UgoDecompilerController;
 
 import javax.swing.*;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 public class UgoExportToCAction extends UgoAbstractDecompilerAction {
     private static final ImageIcon EXPORT_ICON = ResourceManager.loadImage("images/page_edit.png");
@@ -111,13 +109,12 @@ public class UgoExportToCAction extends UgoAbstractDecompilerAction {
             }
         }
 
-        try {
-            PrintWriter writer = new PrintWriter(new FileOutputStream(file));
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
             ClangTokenGroup grp = controller.getCCodeModel();
             PrettyPrinter printer = new PrettyPrinter(controller.getFunction(), grp);
             DecompiledFunction decompFunc = printer.print(true);
             writer.write(decompFunc.getC());
-            writer.close();
             controller.setStatusMessage(
                     "Successfully exported function(s) to " + file.getAbsolutePath());
         } catch (IOException e) {
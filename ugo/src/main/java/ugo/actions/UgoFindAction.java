@@ -22,7 +22,6 @@ import docking.widgets.CursorPosition;
 import docking.widgets.FindDialog;
 import docking.widgets.FindDialogSearcher;
 import docking.widgets.SearchLocation;
-import docking.widgets.fieldpanel.field.Field;
 import docking.widgets.fieldpanel.support.FieldLocation;
 import ghidra.app.decompiler.component.ClangTextField;
 import ghidra.app.plugin.core.decompile.DecompilerActionContext;
@@ -33,7 +32,6 @@ import ugo.UgoDecompilerPanel;
 
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
-import java.util.List;
 
 public class UgoFindAction extends UgoAbstractDecompilerAction {
     private FindDialog findDialog;
@@ -84,9 +82,8 @@ public class UgoFindAction extends UgoAbstractDecompilerAction {
         @Override
         public CursorPosition getEnd() {
 
-            List<Field> lines = decompilerPanel.getFields();
-            int lineNumber = lines.size() - 1;
-            ClangTextField textLine = (ClangTextField) lines.get(lineNumber);
+            int lineNumber = decompilerPanel.getNumLines() - 1;
+            ClangTextField textLine = (ClangTextField) decompilerPanel.getField(lineNumber);
 
             int fieldNumber = 0; // always 0, as the field is the entire line and it is the only field
             int rowCount = textLine.getNumRows();
@@ -16,48 +16,25 @@ package ugo.actions;
  * limitations under the License.
  */
 
-import docking.action.MenuData;
-import ghidra.app.decompiler.ClangToken;
-import ghidra.app.decompiler.component.DecompilerUtils;
-import ghidra.app.plugin.core.decompile.DecompilerActionContext;
 import ghidra.program.model.pcode.PcodeOp;
 import ghidra.program.model.pcode.Varnode;
 import ugo.UgoDecompilerController;
 import ugo.UgoDecompilerPanel;
+import ugo.slice.UgoSlice;
 
-import java.util.Set;
-
-public class UgoForwardSliceAction extends UgoAbstractDecompilerAction {
-    private final UgoDecompilerController controller;
+public class UgoForwardSliceAction extends UgoAbstractSliceAction {
 
     public UgoForwardSliceAction(UgoDecompilerController controller) {
-        super("Highlight Forward Slice");
-        this.controller = controller;
-        setPopupMenuData(new MenuData(new String[]{"Highlight Forward Slice"}, "Decompile"));
+        super("Highlight Forward Slice", controller, true);
     }
 
     @Override
-    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        return varnode != null;
+    protected void highlight(UgoDecompilerPanel decompilerPanel, UgoSlice slice, Varnode varnode,
+                             PcodeOp op) {
+        decompilerPanel.clearHighlights();
+        decompilerPanel.addVarnodeHighlights(slice.getVarnodes(),
+                decompilerPanel.getDefaultHighlightColor(), varnode, op,
+                decompilerPanel.getDefaultSpecialColor());
+        decompilerPanel.repaint();
     }
-
-    @Override
-    protected void decompilerActionPerformed(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        if (varnode != null) {
-            PcodeOp op = tokenAtCursor.getPcodeOp();
-            Set<Varnode> forwardSlice = DecompilerUtils.getForwardSlice(varnode);
-            decompilerPanel.clearHighlights();
-            decompilerPanel.addVarnodeHighlights(forwardSlice,
-                    decompilerPanel.getDefaultHighlightColor(), varnode, op,
-                    decompilerPanel.getDefaultSpecialColor());
-            decompilerPanel.repaint();
-        }
-    }
-
 }
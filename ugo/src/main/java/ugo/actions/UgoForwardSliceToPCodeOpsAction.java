@@ -16,48 +16,29 @@ package ugo.actions;
  * limitations under the License.
  */
 
-import docking.action.MenuData;
-import ghidra.app.decompiler.ClangToken;
-import ghidra.app.decompiler.component.DecompilerUtils;
-import ghidra.app.plugin.core.decompile.DecompilerActionContext;
 import ghidra.program.model.pcode.PcodeOp;
 import ghidra.program.model.pcode.Varnode;
 import ugo.UgoDecompilerController;
 import ugo.UgoDecompilerPanel;
+import ugo.slice.UgoSlice;
 
+import java.util.HashSet;
 import java.util.Set;
 
-public class UgoForwardSliceToPCodeOpsAction extends UgoAbstractDecompilerAction {
-    private final UgoDecompilerController controller;
+public class UgoForwardSliceToPCodeOpsAction extends UgoAbstractSliceAction {
 
     public UgoForwardSliceToPCodeOpsAction(UgoDecompilerController controller) {
-        super("Highlight Forward Inst Slice");
-        this.controller = controller;
-        setPopupMenuData(
-                new MenuData(new String[]{"Highlight Forward Inst Slice"}, "Decompile"));
+        super("Highlight Forward Inst Slice", controller, true);
     }
 
     @Override
-    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        return varnode != null;
-    }
-
-    @Override
-    protected void decompilerActionPerformed(DecompilerActionContext context) {
-        UgoDecompilerPanel decompilerPanel = controller.getDecompilerPanel();
-        ClangToken tokenAtCursor = decompilerPanel.getTokenAtCursor();
-        Varnode varnode = DecompilerUtils.getVarnodeRef(tokenAtCursor);
-        if (varnode != null) {
-            PcodeOp op = tokenAtCursor.getPcodeOp();
-            Set<PcodeOp> forwardSlice = DecompilerUtils.getForwardSliceToPCodeOps(varnode);
-            forwardSlice.add(op);
-            decompilerPanel.clearHighlights();
-            decompilerPanel.addPcodeOpHighlights(forwardSlice,
-                    decompilerPanel.getDefaultHighlightColor());
-            decompilerPanel.repaint();
-        }
+    protected void highlight(UgoDecompilerPanel decompilerPanel, UgoSlice slice, Varnode varnode,
+                             PcodeOp op) {
+        Set<PcodeOp> forwardSlice = new HashSet<>(slice.getPcodeOps());
+        forwardSlice.add(op);
+        decompilerPanel.clearHighlights();
+        decompilerPanel.addPcodeOpHighlights(forwardSlice,
+                decompilerPanel.getDefaultHighlightColor());
+        decompilerPanel.repaint();
     }
 }
@@ -51,10 +51,12 @@ public class UgoHighlightDefinedUseAction extends UgoAbstractDecompilerAction {
         if (varnode != null) {
             HashSet<Varnode> varnodes = new HashSet<Varnode>();
             varnodes.add(varnode);
-            decompilerPanel.clearHighlights();
-            decompilerPanel.addVarnodeHighlights(varnodes,
-                    decompilerPanel.getDefaultHighlightColor(), varnode, varnode.getDef(),
-                    decompilerPanel.getDefaultSpecialColor());
+            decompilerPanel.updateHighlights(() -> {
+                decompilerPanel.clearHighlights();
+                decompilerPanel.addVarnodeHighlights(varnodes,
+                        decompilerPanel.getDefaultHighlightColor(), varnode, varnode.getDef(),
+                        decompilerPanel.getDefaultSpecialColor());
+            });
             decompilerPanel.repaint();
         }
     }
@@ -0,0 +1,198 @@
+package ugo.actions;
+
+import docking.action.MenuData;
+import docking.widgets.OptionDialog;
+import ghidra.app.plugin.core.decompile.DecompilerActionContext;
+import ghidra.app.tablechooser.*;
+import ghidra.framework.plugintool.PluginTool;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ghidra.util.Swing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.Task;
+import ghidra.util.task.TaskListener;
+import ghidra.util.task.TaskMonitor;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilePlugin;
+import ugo.UgoDecompilerController;
+import ugo.search.UgoCodeSearchHit;
+import ugo.search.UgoCodeSearchIndex;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Searches the decompiled C of every function of the program and lists the matching lines in a
+ * table.  Functions that have not been decompiled yet can be decompiled in bulk first, through the
+ * shared process pool and disk cache.
+ */
+public class UgoSearchAllFunctionsAction extends UgoAbstractDecompilerAction {
+    private static final String TITLE = "Search Decompiled Code";
+    private static final int MAX_HITS = 10000;
+
+    private final PluginTool tool;
+    private final UgoDecompilerController controller;
+    private final UgoDecompilePlugin plugin;
+    private String lastQuery = "";
+
+    public UgoSearchAllFunctionsAction(PluginTool tool, UgoDecompilerController controller,
+                                       UgoDecompilePlugin plugin) {
+        super("Search All Functions");
+        this.tool = tool;
+        this.controller = controller;
+        this.plugin = plugin;
+        setPopupMenuData(new MenuData(new String[]{"Search All Functions..."}, "Decompile"));
+        setDescription("Search the decompiled code of every function in the program");
+    }
+
+    @Override
+    protected boolean isEnabledForDecompilerContext(DecompilerActionContext context) {
+        return controller.getProgram() != null;
+    }
+
+    @Override
+    protected void decompilerActionPerformed(DecompilerActionContext context) {
+        String query = OptionDialog.showInputSingleLineDialog(controller.getDecompilerPanel(),
+                TITLE, "Find in all functions:", lastQuery);
+        if (query == null || query.trim().isEmpty()) {
+            return;
+        }
+        lastQuery = query;
+
+        Program program = controller.getProgram();
+        UgoCodeSearchIndex index = plugin.getCodeSearchIndex();
+        List<Function> missing = UgoBatchDecompiler.collectFunctions(program, null).stream()
+                .filter(function -> !index.contains(function))
+                .collect(Collectors.toList());
+        if (missing.isEmpty()) {
+            showResults(program, query);
+            return;
+        }
+
+        int choice = OptionDialog.showYesNoCancelDialog(controller.getDecompilerPanel(), TITLE,
+                missing.size() + " functions have not been decompiled yet.\n" +
+                        "Decompile them now so that they are searched too?");
+        if (choice == OptionDialog.CANCEL_OPTION) {
+            return;
+        }
+        if (choice == OptionDialog.NO_OPTION) {
+            showResults(program, query);
+            return;
+        }
+
+        Task task = new IndexTask(program, missing);
+        task.addTaskListener(new TaskListener() {
+            @Override
+            public void taskCompleted(Task t) {
+                Swing.runLater(() -> showResults(program, query));
+            }
+
+            @Override
+            public void taskCancelled(Task t) {
+                Swing.runLater(() -> showResults(program, query));
+            }
+        });
+        tool.execute(task);
+    }
+
+    private void showResults(Program program, String query) {
+        if (program.isClosed()) {
+            return;
+        }
+        List<UgoCodeSearchHit> hits =
+                plugin.getCodeSearchIndex().search(program, query, MAX_HITS);
+        if (hits.isEmpty()) {
+            Msg.showInfo(this, controller.getDecompilerPanel(), TITLE,
+                    "No decompiled code matches \"" + query + "\".");
+            return;
+        }
+
+        String title = TITLE + ": \"" + query + "\" (" + hits.size() +
+                (hits.size() >= MAX_HITS ? "+" : "") + " lines)";
+        TableChooserDialog dialog = new TableChooserDialog(tool, null, program, title, null, false);
+        dialog.addCustomColumn(new FunctionColumn());
+        dialog.addCustomColumn(new LineColumn());
+        dialog.addCustomColumn(new CodeColumn());
+        for (UgoCodeSearchHit hit : hits) {
+            dialog.add(new HitRow(hit));
+        }
+        dialog.show();
+    }
+
+    private class IndexTask extends Task {
+        private final Program program;
+        private final List<Function> functions;
+
+        IndexTask(Program program, List<Function> functions) {
+            super("Decompile " + functions.size() + " functions for searching", true, true, false);
+            this.program = program;
+            this.functions = functions;
+        }
+
+        @Override
+        public void run(TaskMonitor monitor) throws CancelledException {
+            int timeout = plugin.getDecompilerPool().getOptions(program)
+                    .getDefaultTimeout();
+            UgoBatchDecompiler decompiler = new UgoBatchDecompiler(plugin.getDecompilerPool(),
+                    plugin.getDiskCache(), timeout);
+            try {
+                decompiler.decompile(program, functions, plugin.getCodeSearchIndex(), monitor);
+            } catch (IOException e) {
+                Msg.showError(UgoSearchAllFunctionsAction.this, null, TITLE,
+                        "Unable to decompile the program: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class HitRow implements AddressableRowObject {
+        private final UgoCodeSearchHit hit;
+
+        HitRow(UgoCodeSearchHit hit) {
+            this.hit = hit;
+        }
+
+        @Override
+        public Address getAddress() {
+            return hit.getAddress();
+        }
+    }
+
+    private static class FunctionColumn extends StringColumnDisplay {
+        @Override
+        public String getColumnName() {
+            return "Function";
+        }
+
+        @Override
+        public String getColumnValue(AddressableRowObject row) {
+            return ((HitRow) row).hit.getFunction().getName();
+        }
+    }
+
+    private static class LineColumn extends AbstractComparableColumnDisplay<Integer> {
+        @Override
+        public String getColumnName() {
+            return "Line";
+        }
+
+        @Override
+        public Integer getColumnValue(AddressableRowObject row) {
+            return ((HitRow) row).hit.getLineNumber();
+        }
+    }
+
+    private static class CodeColumn extends StringColumnDisplay {
+        @Override
+        public String getColumnName() {
+            return "Code";
+        }
+
+        @Override
+        public String getColumnValue(AddressableRowObject row) {
+            return ((HitRow) row).hit.getText();
+        }
+    }
+}
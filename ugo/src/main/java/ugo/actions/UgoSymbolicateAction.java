@@ -7,45 +7,69 @@ import ghidra.app.context.ProgramContextAction;
 import ghidra.framework.Log4jErrorLogger;
 import ghidra.framework.plugintool.PluginTool;
 import ghidra.program.model.listing.Program;
-import ghidra.program.model.symbol.SymbolTable;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.Task;
+import ghidra.util.task.TaskMonitor;
 import ugo.UgoPlugin;
+import ugo.symbolication.UgoSymbolicator;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UgoSymbolicateAction extends ProgramContextAction {
     private static final String MENU_ITEM = "UGO_SYMBOLICATE_ACTION";
     private static final String[] MENU_PATH = new String[]{"&Analysis", "Ugo", "Symbolicate"};
     private static final MenuData menuData = new MenuData(MENU_PATH);
 
-    private static final Lock runningLock = new ReentrantLock();
+    // released by the background task, so this can't be a thread-owned lock
+    private static final AtomicBoolean running = new AtomicBoolean();
 
     private Log4jErrorLogger logger;
+    private PluginTool tool;
+    private UgoSymbolicator symbolicator;
 
     @Inject
     public UgoSymbolicateAction(UgoPlugin plugin,
+                                PluginTool tool,
+                                UgoSymbolicator symbolicator,
                                 Log4jErrorLogger logger) {
         super(MENU_ITEM, plugin.getName());
         setMenuBarData(menuData);
 
+        this.tool = tool;
+        this.symbolicator = symbolicator;
         this.logger = logger;
     }
 
     @Override
     public void actionPerformed(ProgramActionContext actionContext) {
-        boolean acquired = runningLock.tryLock();
-        if (!acquired) {
+        if (!running.compareAndSet(false, true)) {
             logger.error(this, "This action is already being performed");
             return;
         }
         logger.info(this, "Action performed on symbolication action");
 
         Program program = actionContext.getProgram();
+        tool.execute(new SymbolicateTask(program));
+    }
+
+    private class SymbolicateTask extends Task {
+        private final Program program;
 
-        logger.info(this, program.getCompiler());
+        SymbolicateTask(Program program) {
+            super("Symbolicate " + program.getName(), true, true, false);
+            this.program = program;
+        }
 
-        SymbolTable symbolTable = program.getSymbolTable();
-        logger.info(this, symbolTable.getNumSymbols());
-        runningLock.unlock();
+        @Override
+        public void run(TaskMonitor monitor) {
+            try {
+                int count = symbolicator.SymbolicateProgram(program, monitor);
+                logger.info(UgoSymbolicateAction.this, "Symbolicated " + count + " functions");
+            } catch (CancelledException e) {
+                logger.info(UgoSymbolicateAction.this, "Symbolication cancelled");
+            } finally {
+                running.set(false);
+            }
+        }
     }
 }
@@ -0,0 +1,206 @@
+package ugo.bench;
+
+import ghidra.app.decompiler.DecompileOptions;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import ugo.UgoBatchDecompileResult;
+import ugo.UgoBatchDecompiler;
+import ugo.UgoDecompilerPool;
+import ugo.prototype.UgoPrototypeRecovery;
+import ugo.prototype.UgoRecoveredPrototype;
+import ugo.symbolication.UgoSymbolicator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the whole pipeline over one program the way a user would — symbolication, prototype
+ * restoration, then a batch decompile of every function — and measures each phase.
+ *
+ * <p>The disk cache is not used, so every function goes through a native decompiler.  Latencies
+ * are the time each successfully decompiled function spent in the decompiler, excluding any wait
+ * for a free process.  Failed functions, which may not have reached a decompiler at all, are
+ * only counted.
+ * Memory is the peak total resident set of the decompiler processes, sampled every
+ * {@value #SAMPLE_INTERVAL_MILLIS} ms, and the peak JVM heap over the decompile phase.
+ */
+public class UgoDecompileBenchmark {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+    private static final long FAILED = -1;
+
+    private final Program program;
+    private final DecompileOptions options;
+    private final int processes;
+
+    /**
+     * @param processes the size of the decompiler pool, or 0 for one per processor
+     */
+    public UgoDecompileBenchmark(Program program, DecompileOptions options, int processes) {
+        this.program = program;
+        this.options = options;
+        this.processes = processes > 0 ? processes : Runtime.getRuntime().availableProcessors();
+    }
+
+    public Result run(TaskMonitor monitor) throws CancelledException, IOException {
+        Result result = new Result(program.getName(), processes);
+
+        long start = System.nanoTime();
+        result.symbolicated = new UgoSymbolicator().SymbolicateProgram(program, monitor);
+        result.symbolicateNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        UgoPrototypeRecovery recovery = new UgoPrototypeRecovery(program, monitor);
+        List<UgoRecoveredPrototype> prototypes =
+                recovery.analyze(recovery.getAllFunctions(), false, monitor);
+        result.prototypesRestored = recovery.apply(prototypes, monitor);
+        result.restorePrototypesNanos = System.nanoTime() - start;
+
+        List<Function> functions = UgoBatchDecompiler.collectFunctions(program, null);
+        long[] latencies = new long[functions.size()];
+        Arrays.fill(latencies, FAILED);
+        AtomicInteger failed = new AtomicInteger();
+        UgoDecompilerPool pool = new UgoDecompilerPool(options, processes);
+        try {
+            UgoBatchDecompiler decompiler =
+                    new UgoBatchDecompiler(pool, options.getDefaultTimeout());
+            resetPeakHeap();
+            UgoProcessMemorySampler sampler =
+                    new UgoProcessMemorySampler(SAMPLE_INTERVAL_MILLIS).start();
+            try {
+                start = System.nanoTime();
+                result.functions = decompiler.decompile(program, functions,
+                        (UgoBatchDecompileResult r) -> {
+                            // each index is written by exactly one worker
+                            if (r.isSuccess()) {
+                                latencies[r.getIndex()] = r.getDecompileNanos();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        }, monitor);
+                result.decompileNanos = System.nanoTime() - start;
+            } finally {
+                sampler.close();
+            }
+            result.peakNativeRssKb = sampler.getPeakRssKb();
+            result.peakHeapBytes = getPeakHeap();
+        } finally {
+            pool.dispose();
+        }
+        result.failed = failed.get();
+        result.maxHeapBytes = Runtime.getRuntime().maxMemory();
+
+        latencies = Arrays.stream(latencies).filter(nanos -> nanos != FAILED).sorted().toArray();
+        result.p50Nanos = percentile(latencies, 50);
+        result.p95Nanos = percentile(latencies, 95);
+        result.p99Nanos = percentile(latencies, 99);
+        result.maxNanos = latencies.length > 0 ? latencies[latencies.length - 1] : 0;
+        return result;
+    }
+
+    // nearest rank
+    static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    // the sum of the pools' peaks, which may have been reached at different times
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peak += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * The measurements of one run.
+     */
+    public static class Result {
+        private final String program;
+        private final int processes;
+        private int symbolicated;
+        private int prototypesRestored;
+        private int functions;
+        private int failed;
+        private long symbolicateNanos;
+        private long restorePrototypesNanos;
+        private long decompileNanos;
+        private long p50Nanos;
+        private long p95Nanos;
+        private long p99Nanos;
+        private long maxNanos;
+        private long peakNativeRssKb = UgoProcessMemorySampler.UNKNOWN;
+        private long peakHeapBytes;
+        private long maxHeapBytes;
+
+        Result(String program, int processes) {
+            this.program = program;
+            this.processes = processes;
+        }
+
+        public int getFunctions() {
+            return functions;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public double getFunctionsPerSecond() {
+            return decompileNanos > 0 ? functions * 1e9 / decompileNanos : 0;
+        }
+
+        /**
+         * Returns the result as one line of JSON.  Times are in milliseconds; memory is in
+         * bytes, with -1 for an unknown native peak.  The latencies leave out the failed
+         * functions.
+         */
+        public String toJson() {
+            return String.format(Locale.ROOT, "{\"program\":\"%s\",\"processes\":%d," +
+                            "\"symbolicated\":%d,\"prototypes_restored\":%d," +
+                            "\"functions\":%d,\"failed\":%d," +
+                            "\"symbolicate_ms\":%.3f,\"restore_prototypes_ms\":%.3f," +
+                            "\"decompile_ms\":%.3f,\"functions_per_sec\":%.3f," +
+                            "\"latency_ms\":{\"p50\":%.3f,\"p95\":%.3f,\"p99\":%.3f," +
+                            "\"max\":%.3f}," +
+                            "\"peak_native_rss_bytes\":%d,\"peak_jvm_heap_bytes\":%d," +
+                            "\"max_jvm_heap_bytes\":%d}",
+                    escape(program), processes, symbolicated, prototypesRestored, functions,
+                    failed, millis(symbolicateNanos), millis(restorePrototypesNanos),
+                    millis(decompileNanos), getFunctionsPerSecond(), millis(p50Nanos),
+                    millis(p95Nanos), millis(p99Nanos), millis(maxNanos),
+                    peakNativeRssKb < 0 ? -1 : peakNativeRssKb * 1024, peakHeapBytes,
+                    maxHeapBytes);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+
+        private static String escape(String s) {
+            return s.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+}
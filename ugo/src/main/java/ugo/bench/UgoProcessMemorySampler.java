@@ -0,0 +1,156 @@
+package ugo.bench;
+
+import ghidra.util.Msg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Samples the resident memory of the processes started by this JVM, such as the native
+ * decompilers, and keeps the peak of their total.
+ *
+ * <p>Samples come from {@code ps}, so this works on Linux and macOS.  Where {@code ps} is not
+ * available, or the pid of the JVM cannot be determined, no samples are taken and the peak stays
+ * unknown.
+ */
+public class UgoProcessMemorySampler implements AutoCloseable {
+
+    public static final long UNKNOWN = -1;
+
+    private final long intervalMillis;
+    private final long jvmPid;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private volatile long peakRssKb = UNKNOWN;
+    private volatile int peakProcessCount;
+
+    public UgoProcessMemorySampler(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        this.jvmPid = getJvmPid();
+        this.thread = new Thread(this::sampleUntilClosed, "UgoProcessMemorySampler");
+        thread.setDaemon(true);
+    }
+
+    public UgoProcessMemorySampler start() {
+        if (jvmPid != UNKNOWN) {
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the highest total resident set size of the child processes seen in any sample, in
+     * kilobytes, or {@link #UNKNOWN}.
+     */
+    public long getPeakRssKb() {
+        return peakRssKb;
+    }
+
+    /**
+     * Returns the most child processes seen alive in any sample.
+     */
+    public int getPeakProcessCount() {
+        return peakProcessCount;
+    }
+
+    /**
+     * Takes a last sample and stops sampling.
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (jvmPid != UNKNOWN) {
+            sample();
+        }
+    }
+
+    private void sampleUntilClosed() {
+        while (running) {
+            if (!sample()) {
+                return;
+            }
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean sample() {
+        Map<Long, List<long[]>> children = new HashMap<>();
+        try {
+            Process ps = new ProcessBuilder("ps", "-A", "-o", "pid=,ppid=,rss=,comm=")
+                    .redirectErrorStream(true)
+                    .start();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(ps.getInputStream(), StandardCharsets.US_ASCII))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+", 4);
+                    if (fields.length != 4 || isPs(fields[3])) {
+                        continue;
+                    }
+                    long pid = Long.parseLong(fields[0]);
+                    long ppid = Long.parseLong(fields[1]);
+                    long rss = Long.parseLong(fields[2]);
+                    children.computeIfAbsent(ppid, k -> new ArrayList<>())
+                            .add(new long[]{pid, rss});
+                }
+            }
+            ps.waitFor();
+        } catch (IOException | NumberFormatException e) {
+            Msg.warn(this, "Unable to sample process memory: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        // the descendants of this JVM
+        long total = 0;
+        int count = 0;
+        Deque<Long> pending = new ArrayDeque<>();
+        pending.push(jvmPid);
+        while (!pending.isEmpty()) {
+            for (long[] child : children.getOrDefault(pending.pop(), Collections.emptyList())) {
+                total += child[1];
+                count++;
+                pending.push(child[0]);
+            }
+        }
+        if (total > peakRssKb) {
+            peakRssKb = total;
+        }
+        if (count > peakProcessCount) {
+            peakProcessCount = count;
+        }
+        return true;
+    }
+
+    // the ps taking the sample is itself a child of this JVM
+    private static boolean isPs(String command) {
+        return command.equals("ps") || command.endsWith("/ps");
+    }
+
+    private static long getJvmPid() {
+        // "pid@host" on the JVMs Ghidra runs on
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        try {
+            return Long.parseLong(at > 0 ? name.substring(0, at) : name);
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package ugo.cache;
+
+import java.util.*;
+
+import ghidra.framework.model.DomainObject;
+import ghidra.framework.model.DomainObjectChangeRecord;
+import ghidra.framework.model.DomainObjectChangedEvent;
+import ghidra.program.model.address.*;
+import ghidra.program.model.data.*;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.pcode.*;
+import ghidra.program.model.symbol.*;
+import ghidra.program.util.ChangeManager;
+import ghidra.program.util.ProgramChangeRecord;
+
+/**
+ * A reverse-dependency index over the functions held in a decompiler cache.  For every cached
+ * function it remembers the body, the addresses the output depends on (callees, globals and other
+ * referenced locations) and the data types used, so that a program change only evicts the
+ * functions whose output it can actually affect.
+ *
+ * <p>Function bodies are kept in an interval map by range start, so finding the functions a change
+ * falls in does not scan every indexed function; the index stays cheap when it holds a whole
+ * program, as the code search index does.
+ *
+ * <p>Change records that cannot be tied to an address or a data type, such as an undo, evict every
+ * function of the program.
+ */
+public class UgoCacheDependencyIndex {
+
+    private static final Set<Integer> IGNORED_EVENTS = new HashSet<>(Arrays.asList(
+            ChangeManager.DOCR_BOOKMARK_ADDED,
+            ChangeManager.DOCR_BOOKMARK_CHANGED,
+            ChangeManager.DOCR_BOOKMARK_REMOVED,
+            ChangeManager.DOCR_BOOKMARK_TYPE_ADDED,
+            ChangeManager.DOCR_BOOKMARK_TYPE_REMOVED,
+            ChangeManager.DOCR_TREE_CREATED,
+            ChangeManager.DOCR_TREE_REMOVED,
+            ChangeManager.DOCR_TREE_RENAMED,
+            ChangeManager.DOCR_GROUP_ADDED,
+            ChangeManager.DOCR_GROUP_REMOVED,
+            ChangeManager.DOCR_GROUP_RENAMED,
+            ChangeManager.DOCR_GROUP_COMMENT_CHANGED,
+            ChangeManager.DOCR_GROUP_ALIAS_CHANGED,
+            ChangeManager.DOCR_MODULE_REORDERED,
+            ChangeManager.DOCR_FRAGMENT_MOVED,
+            ChangeManager.DOCR_FRAGMENT_CHANGED,
+            ChangeManager.DOCR_CATEGORY_ADDED,
+            ChangeManager.DOCR_CATEGORY_REMOVED,
+            ChangeManager.DOCR_CATEGORY_RENAMED,
+            ChangeManager.DOCR_CATEGORY_MOVED,
+            ChangeManager.DOCR_SOURCE_ARCHIVE_ADDED,
+            ChangeManager.DOCR_SOURCE_ARCHIVE_CHANGED,
+            ChangeManager.DOCR_CODE_UNIT_USER_DATA_CHANGED,
+            ChangeManager.DOCR_USER_DATA_CHANGED,
+            DomainObject.DO_OBJECT_SAVED,
+            DomainObject.DO_DOMAIN_FILE_CHANGED,
+            DomainObject.DO_OBJECT_RENAMED));
+
+    private static final Set<Integer> DATA_TYPE_EVENTS = new HashSet<>(Arrays.asList(
+            ChangeManager.DOCR_DATA_TYPE_ADDED,
+            ChangeManager.DOCR_DATA_TYPE_CHANGED,
+            ChangeManager.DOCR_DATA_TYPE_MOVED,
+            ChangeManager.DOCR_DATA_TYPE_RENAMED,
+            ChangeManager.DOCR_DATA_TYPE_REMOVED,
+            ChangeManager.DOCR_DATA_TYPE_REPLACED,
+            ChangeManager.DOCR_DATA_TYPE_SETTING_CHANGED));
+
+    private final Map<Function, Dependencies> dependencies = new HashMap<>();
+    private final NavigableMap<Address, Set<Function>> addressDependents = new TreeMap<>();
+    private final Map<Long, Set<Function>> dataTypeDependents = new HashMap<>();
+    private final NavigableMap<Address, List<BodyRange>> bodyRanges = new TreeMap<>();
+    // the longest body range ever added, which bounds how far before a change an overlapping
+    // range can start
+    private long maxBodyRangeLength;
+
+    /**
+     * Records the dependencies of a function that has just been added to the cache, replacing any
+     * previously recorded for it.
+     *
+     * @param function the cached function
+     * @param highFunction the decompiled function, or null if there is no syntax tree
+     */
+    public synchronized void add(Function function, HighFunction highFunction) {
+        remove(function);
+
+        Dependencies deps = new Dependencies(function.getBody());
+        collectReferences(function, deps.addresses);
+        DataTypeManager dataTypeManager = function.getProgram().getDataTypeManager();
+        addDataType(dataTypeManager, function.getReturnType(), deps.dataTypes);
+        for (Parameter parameter : function.getParameters()) {
+            addDataType(dataTypeManager, parameter.getDataType(), deps.dataTypes);
+        }
+        if (highFunction != null) {
+            collectHighDependencies(highFunction, dataTypeManager, deps);
+        }
+
+        dependencies.put(function, deps);
+        for (AddressRange range : deps.body) {
+            bodyRanges.computeIfAbsent(range.getMinAddress(), a -> new ArrayList<>(1))
+                    .add(new BodyRange(range.getMaxAddress(), function));
+            maxBodyRangeLength = Math.max(maxBodyRangeLength, range.getLength());
+        }
+        for (Address address : deps.addresses) {
+            addressDependents.computeIfAbsent(address, a -> new HashSet<>()).add(function);
+        }
+        for (Long id : deps.dataTypes) {
+            dataTypeDependents.computeIfAbsent(id, i -> new HashSet<>()).add(function);
+        }
+    }
+
+    public synchronized boolean contains(Function function) {
+        return dependencies.containsKey(function);
+    }
+
+    public synchronized void remove(Function function) {
+        Dependencies deps = dependencies.remove(function);
+        if (deps == null) {
+            return;
+        }
+        for (AddressRange range : deps.body) {
+            List<BodyRange> ranges = bodyRanges.get(range.getMinAddress());
+            if (ranges != null) {
+                ranges.removeIf(bodyRange -> bodyRange.function == function);
+                if (ranges.isEmpty()) {
+                    bodyRanges.remove(range.getMinAddress());
+                }
+            }
+        }
+        for (Address address : deps.addresses) {
+            removeDependent(addressDependents, address, function);
+        }
+        for (Long id : deps.dataTypes) {
+            removeDependent(dataTypeDependents, id, function);
+        }
+    }
+
+    public synchronized void clear() {
+        dependencies.clear();
+        addressDependents.clear();
+        dataTypeDependents.clear();
+        bodyRanges.clear();
+        maxBodyRangeLength = 0;
+    }
+
+    /**
+     * Returns the indexed functions of the program whose decompiled output may be changed by the
+     * given event.
+     *
+     * @param program the program the event came from
+     * @param event the change event
+     * @return the affected functions; every function of the program if the event could not be
+     * narrowed down
+     */
+    public synchronized Set<Function> getAffectedFunctions(Program program,
+                                                           DomainObjectChangedEvent event) {
+        Set<Function> affected = new HashSet<>();
+        for (int i = 0; i < event.numRecords(); i++) {
+            DomainObjectChangeRecord record = event.getChangeRecord(i);
+            if (!addAffectedFunctions(record, affected)) {
+                return getFunctions(program);
+            }
+        }
+        affected.removeIf(function -> function.getProgram() != program);
+        return affected;
+    }
+
+    /**
+     * Adds the functions affected by one change record.  Returns false if the record could not be
+     * narrowed down.
+     */
+    private boolean addAffectedFunctions(DomainObjectChangeRecord record, Set<Function> affected) {
+        int eventType = record.getEventType();
+        if (IGNORED_EVENTS.contains(eventType)) {
+            return true;
+        }
+
+        if (DATA_TYPE_EVENTS.contains(eventType)) {
+            if (!(record instanceof ProgramChangeRecord)) {
+                return false;
+            }
+            Object changed = ((ProgramChangeRecord) record).getObject();
+            if (!(changed instanceof Long)) {
+                return false;
+            }
+            Set<Function> dependents = dataTypeDependents.get(changed);
+            if (dependents != null) {
+                affected.addAll(dependents);
+            }
+            return true;
+        }
+
+        if (!(record instanceof ProgramChangeRecord)) {
+            return false;
+        }
+        ProgramChangeRecord programRecord = (ProgramChangeRecord) record;
+        Address start = programRecord.getStart();
+        Address end = programRecord.getEnd();
+        if (start != null && !start.isMemoryAddress()) {
+            // local variables and parameters live in stack or register space
+            start = getOwningFunctionEntry(programRecord.getObject());
+            end = start;
+        }
+        if (start == null) {
+            return false;
+        }
+        if (end == null || end.getAddressSpace() != start.getAddressSpace() ||
+                end.compareTo(start) < 0) {
+            end = start;
+        }
+
+        for (Set<Function> dependents : addressDependents.subMap(start, true, end, true).values()) {
+            affected.addAll(dependents);
+        }
+        addFunctionsContaining(start, end, affected);
+        return true;
+    }
+
+    /**
+     * Adds the functions with a body range overlapping the given addresses, which are in one
+     * address space.
+     */
+    private void addFunctionsContaining(Address start, Address end, Set<Function> affected) {
+        Address from;
+        try {
+            from = start.subtractNoWrap(Math.max(0, maxBodyRangeLength - 1));
+        } catch (AddressOverflowException e) {
+            from = start.getAddressSpace().getMinAddress();
+        }
+        for (List<BodyRange> ranges : bodyRanges.subMap(from, true, end, true).values()) {
+            for (BodyRange range : ranges) {
+                if (range.end.compareTo(start) >= 0) {
+                    affected.add(range.function);
+                }
+            }
+        }
+    }
+
+    private static Address getOwningFunctionEntry(Object changed) {
+        if (changed instanceof Variable) {
+            Function function = ((Variable) changed).getFunction();
+            return function != null ? function.getEntryPoint() : null;
+        }
+        if (changed instanceof Symbol) {
+            SymbolType type = ((Symbol) changed).getSymbolType();
+            if (type == SymbolType.PARAMETER || type == SymbolType.LOCAL_VAR) {
+                Object function = ((Symbol) changed).getParentNamespace();
+                if (function instanceof Function) {
+                    return ((Function) function).getEntryPoint();
+                }
+            }
+        }
+        return null;
+    }
+
+    private Set<Function> getFunctions(Program program) {
+        Set<Function> functions = new HashSet<>();
+        for (Function function : dependencies.keySet()) {
+            if (function.getProgram() == program) {
+                functions.add(function);
+            }
+        }
+        return functions;
+    }
+
+    private static void collectReferences(Function function, Set<Address> addresses) {
+        ReferenceManager referenceManager = function.getProgram().getReferenceManager();
+        AddressIterator sources =
+                referenceManager.getReferenceSourceIterator(function.getBody(), true);
+        while (sources.hasNext()) {
+            for (Reference reference : referenceManager.getReferencesFrom(sources.next())) {
+                Address target = reference.getToAddress();
+                if (target.isMemoryAddress()) {
+                    addresses.add(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the call targets and global addresses read or written by the p-code, and the data types
+     * of every high variable.
+     */
+    private static void collectHighDependencies(HighFunction highFunction,
+                                                DataTypeManager dataTypeManager,
+                                                Dependencies deps) {
+        Set<HighVariable> seen = new HashSet<>();
+        Iterator<PcodeOpAST> ops = highFunction.getPcodeOps();
+        while (ops.hasNext()) {
+            PcodeOp op = ops.next();
+            addVarnode(op.getOutput(), dataTypeManager, deps, seen);
+            for (int i = 0; i < op.getNumInputs(); i++) {
+                addVarnode(op.getInput(i), dataTypeManager, deps, seen);
+            }
+        }
+    }
+
+    private static void addVarnode(Varnode varnode, DataTypeManager dataTypeManager,
+                                   Dependencies deps, Set<HighVariable> seen) {
+        if (varnode == null) {
+            return;
+        }
+        if (varnode.isAddress() && varnode.getAddress().isMemoryAddress()) {
+            deps.addresses.add(varnode.getAddress());
+        }
+        HighVariable high = varnode.getHigh();
+        if (high != null && seen.add(high)) {
+            addDataType(dataTypeManager, high.getDataType(), deps.dataTypes);
+        }
+    }
+
+    /**
+     * Adds the ids of the data type and of every data type it is built on, including the members
+     * of composites and the return and parameter types of function definitions, so that editing
+     * a structure nested anywhere inside a variable's type evicts the function.
+     */
+    private static void addDataType(DataTypeManager dataTypeManager, DataType dataType,
+                                    Set<Long> ids) {
+        addDataType(dataTypeManager, dataType, ids,
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static void addDataType(DataTypeManager dataTypeManager, DataType dataType,
+                                    Set<Long> ids, Set<DataType> visited) {
+        if (dataType == null || !visited.add(dataType)) {
+            return; // types without an id may still refer to themselves
+        }
+        long id = dataTypeManager.getID(dataType);
+        if (id != DataTypeManager.NULL_DATATYPE_ID && !ids.add(id)) {
+            return; // already added, along with everything it is built on
+        }
+        if (dataType instanceof Pointer) {
+            addDataType(dataTypeManager, ((Pointer) dataType).getDataType(), ids, visited);
+        } else if (dataType instanceof Array) {
+            addDataType(dataTypeManager, ((Array) dataType).getDataType(), ids, visited);
+        } else if (dataType instanceof TypeDef) {
+            addDataType(dataTypeManager, ((TypeDef) dataType).getDataType(), ids, visited);
+        } else if (dataType instanceof Composite) {
+            for (DataTypeComponent component : ((Composite) dataType).getComponents()) {
+                addDataType(dataTypeManager, component.getDataType(), ids, visited);
+            }
+        } else if (dataType instanceof FunctionDefinition) {
+            FunctionDefinition definition = (FunctionDefinition) dataType;
+            addDataType(dataTypeManager, definition.getReturnType(), ids, visited);
+            for (ParameterDefinition parameter : definition.getArguments()) {
+                addDataType(dataTypeManager, parameter.getDataType(), ids, visited);
+            }
+        }
+    }
+
+    private static <K> void removeDependent(Map<K, Set<Function>> dependents, K key,
+                                            Function function) {
+        Set<Function> functions = dependents.get(key);
+        if (functions != null) {
+            functions.remove(function);
+            if (functions.isEmpty()) {
+                dependents.remove(key);
+            }
+        }
+    }
+
+    private static class BodyRange {
+        private final Address end;
+        private final Function function;
+
+        BodyRange(Address end, Function function) {
+            this.end = end;
+            this.function = function;
+        }
+    }
+
+    private static class Dependencies {
+        private final AddressSetView body;
+        private final Set<Address> addresses = new HashSet<>();
+        private final Set<Long> dataTypes = new HashSet<>();
+
+        Dependencies(AddressSetView body) {
+            this.body = new AddressSet(body);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package ugo.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+import ghidra.app.decompiler.DecompInterface;
+import ghidra.app.decompiler.DecompileOptions;
+import ghidra.program.model.address.*;
+import ghidra.program.model.data.*;
+import ghidra.program.model.data.Enum;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.mem.Memory;
+import ghidra.program.model.mem.MemoryAccessException;
+import ghidra.program.model.symbol.*;
+import ghidra.util.NumericUtilities;
+import ugo.UgoPlugin;
+
+/**
+ * Computes the content hash under which a function's decompiler output is stored in the
+ * {@link UgoDiskDecompileCache}.
+ *
+ * <p>The hash is specific to one program, since the stored response refers to its data types by
+ * id.  It covers everything the decompiler output depends on that can change without the
+ * function moving: the function bytes, its signature and variables with the full definitions of
+ * their types, the names of everything it references, the type and bytes of the data it reads,
+ * the no-return and flow override state of its calls, the equates on its operands, the
+ * decompiler options and the plugin version.  A function whose hash has not changed decompiles
+ * to the same output, so no explicit invalidation of the disk cache is needed.
+ */
+public final class UgoDecompileCacheKey {
+
+    // bump when the layout of the hashed data or of the stored response changes
+    private static final int FORMAT_VERSION = 4;
+    // the decompiler may read constants at a referenced address that has no data defined on it
+    private static final int UNDEFINED_DATA_BYTES = 64;
+    // large tables are only hashed in part
+    private static final int MAX_DATA_BYTES = 64 * 1024;
+    // only supplies the simplification style the options list is built for; never opened
+    private static final DecompInterface OPTIONS_INTERFACE = new DecompInterface();
+
+    private UgoDecompileCacheKey() {
+        // utility class
+    }
+
+    /**
+     * Returns the hex encoded hash for the function, or null if the function cannot be cached
+     * (for example, because some of its bytes are not initialized, or its program has not been
+     * saved in a project).
+     */
+    public static String compute(Function function, DecompileOptions options) {
+        if (function.isExternal()) {
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        Program program = function.getProgram();
+        String fileID = program.getDomainFile().getFileID();
+        if (fileID == null) {
+            return null; // not saved in a project, so not recognizable in a later session
+        }
+        add(digest, UgoPlugin.VERSION);
+        add(digest, FORMAT_VERSION);
+        // the stored response refers to data types by ids that are only unique within a program
+        add(digest, program.getExecutableMD5());
+        add(digest, fileID);
+        add(digest, program.getLanguageID().getIdAsString());
+        add(digest, program.getCompilerSpec().getCompilerSpecID().getIdAsString());
+        addOptions(digest, options);
+
+        Set<String> hashedTypes = new HashSet<>();
+        add(digest, function.getEntryPoint().toString());
+        add(digest, function.getSignature().getPrototypeString());
+        add(digest, function.getCallingConventionName());
+        add(digest, function.hasCustomVariableStorage());
+        add(digest, function.hasNoReturn());
+        addDataType(digest, function.getReturnType(), hashedTypes);
+        for (Variable variable : function.getAllVariables()) {
+            add(digest, variable.getName());
+            addDataType(digest, variable.getDataType(), hashedTypes);
+            add(digest, variable.getVariableStorage().toString());
+        }
+
+        try {
+            addBody(digest, program, function.getBody());
+        } catch (MemoryAccessException e) {
+            return null;
+        }
+        addFlowOverrides(digest, program, function.getBody());
+        addCallSiteOverrides(digest, program.getSymbolTable(), function.getSymbol());
+        addEquates(digest, program, function.getBody());
+        addReferences(digest, program, function.getBody(), hashedTypes);
+
+        return NumericUtilities.convertBytesToString(digest.digest());
+    }
+
+    private static void addBody(MessageDigest digest, Program program, AddressSetView body)
+            throws MemoryAccessException {
+        Memory memory = program.getMemory();
+        byte[] buffer = new byte[4096];
+        for (AddressRange range : body) {
+            add(digest, range.getMinAddress().toString());
+            Address address = range.getMinAddress();
+            long remaining = range.getLength();
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                memory.getBytes(address, buffer, 0, length);
+                digest.update(buffer, 0, length);
+                remaining -= length;
+                if (remaining > 0) {
+                    address = address.add(length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the whole definition of a data type: the layout and member types of composites, the
+     * values of enums, the parameters of function definitions and the targets of pointers,
+     * arrays and typedefs.  Each type is defined once; later uses only add its path.
+     */
+    private static void addDataType(MessageDigest digest, DataType dataType,
+                                    Set<String> hashedTypes) {
+        if (dataType == null) {
+            add(digest, (String) null);
+            return;
+        }
+        add(digest, dataType.getPathName());
+        if (!hashedTypes.add(dataType.getPathName())) {
+            return;
+        }
+        add(digest, dataType.getLength());
+        if (dataType instanceof TypeDef) {
+            addDataType(digest, ((TypeDef) dataType).getDataType(), hashedTypes);
+        } else if (dataType instanceof Pointer) {
+            addDataType(digest, ((Pointer) dataType).getDataType(), hashedTypes);
+        } else if (dataType instanceof Array) {
+            add(digest, ((Array) dataType).getNumElements());
+            addDataType(digest, ((Array) dataType).getDataType(), hashedTypes);
+        } else if (dataType instanceof Composite) {
+            for (DataTypeComponent component : ((Composite) dataType).getComponents()) {
+                add(digest, component.getOffset());
+                add(digest, component.getLength());
+                add(digest, component.getFieldName());
+                addDataType(digest, component.getDataType(), hashedTypes);
+            }
+        } else if (dataType instanceof Enum) {
+            Enum enumType = (Enum) dataType;
+            for (String name : enumType.getNames()) {
+                add(digest, name);
+                add(digest, Long.toString(enumType.getValue(name)));
+            }
+        } else if (dataType instanceof FunctionDefinition) {
+            FunctionDefinition definition = (FunctionDefinition) dataType;
+            add(digest, definition.getPrototypeString());
+            addDataType(digest, definition.getReturnType(), hashedTypes);
+            for (ParameterDefinition parameter : definition.getArguments()) {
+                addDataType(digest, parameter.getDataType(), hashedTypes);
+            }
+        }
+    }
+
+    private static void addFlowOverrides(MessageDigest digest, Program program,
+                                         AddressSetView body) {
+        for (Instruction instruction : program.getListing().getInstructions(body, true)) {
+            if (instruction.getFlowOverride() != FlowOverride.NONE) {
+                add(digest, instruction.getMinAddress().toString());
+                add(digest, instruction.getFlowOverride().name());
+            }
+        }
+    }
+
+    /**
+     * Adds the symbols in the function's namespace, among which are the prototype overrides of
+     * its call sites.
+     */
+    private static void addCallSiteOverrides(MessageDigest digest, SymbolTable symbolTable,
+                                             Symbol parent) {
+        if (parent == null) {
+            return;
+        }
+        for (Symbol child : symbolTable.getChildren(parent)) {
+            add(digest, child.getName());
+            add(digest, child.getAddress().toString());
+            if (child.getSymbolType() == SymbolType.NAMESPACE) {
+                addCallSiteOverrides(digest, symbolTable, child);
+            }
+        }
+    }
+
+    /**
+     * Adds the names and comments that the decompiler pulls into the output, so that renaming a
+     * callee or global changes the hash of every function that references it.  Also adds what
+     * the decompiler reads at referenced data, so that retyping a global or changing a string
+     * does too, and the no-return state of callees, which changes the control flow.
+     */
+    private static void addReferences(MessageDigest digest, Program program, AddressSetView body,
+                                      Set<String> hashedTypes) {
+        ReferenceManager referenceManager = program.getReferenceManager();
+        SymbolTable symbolTable = program.getSymbolTable();
+        Listing listing = program.getListing();
+
+        AddressIterator sources = referenceManager.getReferenceSourceIterator(body, true);
+        while (sources.hasNext()) {
+            Address source = sources.next();
+            for (Reference reference : referenceManager.getReferencesFrom(source)) {
+                Address target = reference.getToAddress();
+                add(digest, target.toString());
+                Symbol symbol = symbolTable.getPrimarySymbol(target);
+                if (symbol != null) {
+                    add(digest, symbol.getName(true));
+                }
+                Function callee = listing.getFunctionAt(target);
+                if (callee != null) {
+                    add(digest, callee.getSignature().getPrototypeString());
+                    add(digest, callee.hasNoReturn());
+                    add(digest, callee.isInline());
+                    add(digest, callee.getCallFixup());
+                    addDataType(digest, callee.getReturnType(), hashedTypes);
+                    for (Parameter parameter : callee.getParameters()) {
+                        addDataType(digest, parameter.getDataType(), hashedTypes);
+                    }
+                } else if (!reference.getReferenceType().isFlow()) {
+                    addData(digest, program, target, hashedTypes);
+                }
+            }
+        }
+
+        AddressIterator comments = listing.getCommentAddressIterator(body, true);
+        while (comments.hasNext()) {
+            CodeUnit codeUnit = listing.getCodeUnitAt(comments.next());
+            if (codeUnit == null) {
+                continue;
+            }
+            for (int type = CodeUnit.EOL_COMMENT; type <= CodeUnit.REPEATABLE_COMMENT; type++) {
+                add(digest, codeUnit.getComment(type));
+            }
+        }
+    }
+
+    private static void addData(MessageDigest digest, Program program, Address address,
+                                Set<String> hashedTypes) {
+        Data data = program.getListing().getDefinedDataContaining(address);
+        int length;
+        if (data != null) {
+            addDataType(digest, data.getDataType(), hashedTypes);
+            address = data.getMinAddress();
+            length = Math.min(data.getLength(), MAX_DATA_BYTES);
+        } else {
+            add(digest, (String) null);
+            length = UNDEFINED_DATA_BYTES;
+        }
+        byte[] bytes = new byte[length];
+        int read;
+        try {
+            read = program.getMemory().getBytes(address, bytes);
+        } catch (MemoryAccessException e) {
+            read = 0; // uninitialized, such as .bss
+        }
+        add(digest, read);
+        digest.update(bytes, 0, Math.max(0, read));
+    }
+
+    /**
+     * Adds the options list exactly as it is sent to the decompiler, so that every option that
+     * changes the output is covered.
+     */
+    private static void addOptions(MessageDigest digest, DecompileOptions options) {
+        add(digest, options.getXML(OPTIONS_INTERFACE));
+    }
+
+    /**
+     * Adds the equates on the operands of the function's instructions, which the decompiler
+     * prints in place of the constants.
+     */
+    private static void addEquates(MessageDigest digest, Program program, AddressSetView body) {
+        EquateTable equateTable = program.getEquateTable();
+        AddressIterator addresses = equateTable.getEquateAddresses(body);
+        while (addresses.hasNext()) {
+            Address address = addresses.next();
+            for (Equate equate : equateTable.getEquates(address)) {
+                add(digest, address.toString());
+                add(digest, equate.getName());
+                add(digest, Long.toString(equate.getValue()));
+                for (EquateReference reference : equate.getReferences(address)) {
+                    add(digest, reference.getOpIndex());
+                    add(digest, Long.toString(reference.getDynamicHashValue()));
+                }
+            }
+        }
+    }
+
+    private static void add(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        digest.update((byte) 1);
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static void add(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    private static void add(MessageDigest digest, boolean value) {
+        digest.update((byte) (value ? 1 : 0));
+    }
+}
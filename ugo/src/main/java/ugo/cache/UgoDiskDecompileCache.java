@@ -0,0 +1,222 @@
+package ugo.cache;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ghidra.app.decompiler.DecompInterface;
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.framework.Application;
+import ghidra.program.model.listing.Function;
+import ghidra.util.Msg;
+import ugo.lang.UgoDecompInterface;
+import ugo.metrics.UgoMetrics;
+
+/**
+ * A second-level decompiler cache that keeps raw decompiler responses on disk, keyed by
+ * {@link UgoDecompileCacheKey}.  Unlike the in-memory cache of the
+ * {@link ugo.UgoDecompilerController}, entries survive option changes, refreshes and restarts of
+ * the tool; an entry simply stops being found once the function it was made for changes.
+ *
+ * <p>Each entry is a gzip file named after its key, in a sub-directory named after the first two
+ * characters of the key.  When the cache grows past its size limit, the least recently used
+ * entries are deleted.
+ */
+public class UgoDiskDecompileCache {
+
+    private static final String CACHE_DIR_NAME = "ugo-decompiler-cache";
+    private static final String ENTRY_SUFFIX = ".xml.gz";
+    private static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private final AtomicLong approximateSize = new AtomicLong(-1);
+    private volatile UgoMetrics metrics = new UgoMetrics();
+
+    /**
+     * Creates a cache in the user cache directory of the Ghidra installation.
+     */
+    public static UgoDiskDecompileCache createDefault() {
+        File directory = new File(Application.getUserCacheDirectory(), CACHE_DIR_NAME);
+        return new UgoDiskDecompileCache(directory, DEFAULT_MAX_BYTES);
+    }
+
+    public UgoDiskDecompileCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the registry that counts the hits, misses and evictions of {@link #load}.
+     */
+    public void setMetrics(UgoMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the results stored for the function under the given key, or null if there are
+     * none.
+     *
+     * @param function the function to restore the results for
+     * @param key the key from {@link UgoDecompileCacheKey#compute}
+     */
+    public DecompileResults load(Function function, String key) {
+        byte[] response = get(key);
+        if (response == null) {
+            metrics.counter(UgoMetrics.DISK_CACHE_MISSES).increment();
+            return null;
+        }
+        try {
+            DecompileResults results = UgoDecompInterface.restoreResults(function, response);
+            if (results.decompileCompleted()) {
+                metrics.counter(UgoMetrics.DISK_CACHE_HITS).increment();
+                return results;
+            }
+        } catch (RuntimeException e) {
+            Msg.debug(this, "Discarding corrupt decompiler cache entry " + key, e);
+        }
+        getFile(key).delete();
+        metrics.counter(UgoMetrics.DISK_CACHE_MISSES).increment();
+        return null;
+    }
+
+    /**
+     * Stores the response of a decompile that just finished on the given interface.  Does nothing
+     * if the decompile failed or the interface does not keep responses.
+     *
+     * @param key the key from {@link UgoDecompileCacheKey#compute}
+     * @param ifc the interface the decompile ran on
+     * @param results the results of the decompile
+     */
+    public void store(String key, DecompInterface ifc, DecompileResults results) {
+        if (key == null || results == null || !results.decompileCompleted() ||
+                !(ifc instanceof UgoDecompInterface)) {
+            return;
+        }
+        put(key, ((UgoDecompInterface) ifc).getLastResponse());
+    }
+
+    /**
+     * Returns the stored response for the key, or null if there is none.
+     */
+    public byte[] get(String key) {
+        if (key == null) {
+            return null;
+        }
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length() * 4);
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            file.setLastModified(System.currentTimeMillis()); // for least recently used pruning
+            return out.toByteArray();
+        } catch (IOException e) {
+            Msg.debug(this, "Discarding unreadable decompiler cache entry " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response.  The entry is written to a temporary file first, so readers never see a
+     * partially written entry.
+     */
+    public void put(String key, byte[] response) {
+        if (key == null || response == null) {
+            return;
+        }
+        File file = getFile(key);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            return;
+        }
+        File temp = null;
+        boolean moved = false;
+        try {
+            temp = File.createTempFile(key, ".tmp", parent);
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(temp))) {
+                out.write(response);
+            }
+            long size = temp.length();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            if (approximateSize.get() < 0 || approximateSize.addAndGet(size) > maxBytes) {
+                prune(); // the first write measures the cache
+            }
+        } catch (IOException e) {
+            Msg.debug(this, "Unable to write decompiler cache entry " + file, e);
+        } finally {
+            if (temp != null && !moved) {
+                temp.delete(); // prune only sees finished entries
+            }
+        }
+    }
+
+    /**
+     * Deletes every entry.
+     */
+    public synchronized void clear() {
+        for (Path path : listEntries()) {
+            path.toFile().delete();
+        }
+        approximateSize.set(0);
+    }
+
+    /**
+     * Measures the cache and deletes the least recently used entries until it is back under
+     * three quarters of its size limit.  Safe to call at any time; entries being read or written
+     * concurrently are simply read again or rewritten later.
+     */
+    public synchronized void prune() {
+        List<Path> entries = listEntries();
+        long total = 0;
+        for (Path path : entries) {
+            total += path.toFile().length();
+        }
+        if (total > maxBytes) {
+            entries.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+            long target = maxBytes / 4 * 3;
+            for (Path path : entries) {
+                if (total <= target) {
+                    break;
+                }
+                long length = path.toFile().length();
+                if (path.toFile().delete()) {
+                    total -= length;
+                    metrics.counter(UgoMetrics.DISK_CACHE_EVICTIONS).increment();
+                }
+            }
+        }
+        approximateSize.set(total);
+    }
+
+    private List<Path> listEntries() {
+        List<Path> entries = new ArrayList<>();
+        if (!directory.isDirectory()) {
+            return entries;
+        }
+        try (Stream<Path> paths = Files.walk(directory.toPath(), 2)) {
+            paths.filter(path -> path.toString().endsWith(ENTRY_SUFFIX)).forEach(entries::add);
+        } catch (IOException e) {
+            Msg.debug(this, "Unable to list decompiler cache " + directory, e);
+        }
+        return entries;
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ENTRY_SUFFIX);
+    }
+}
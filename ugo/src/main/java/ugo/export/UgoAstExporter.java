@@ -0,0 +1,429 @@
+package ugo.export;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import ghidra.app.decompiler.ClangNode;
+import ghidra.app.decompiler.ClangToken;
+import ghidra.app.decompiler.ClangTokenGroup;
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.pcode.*;
+import ugo.UgoBatchDecompileResult;
+
+/**
+ * Writes the decompiler's structured output for a {@link ugo.UgoBatchDecompiler} run: the markup
+ * tree behind the C, the varnodes and the p-code of every function, with their addresses.
+ *
+ * <p>There is one record per function, in entry point order:
+ * <pre>
+ * { "name", "entry", "decompiled", "error",
+ *   "varnodes": [ { "id", "space", "offset", "size", "high", "def" } ],
+ *   "ops":      [ { "id", "address", "order", "mnemonic", "output", "inputs": [ id ] } ],
+ *   "markup":   [ { "parent", "kind", "text", "syntax", "min", "max", "varnode", "op" } ] }
+ * </pre>
+ * Varnodes and ops are numbered within their function, and tokens refer to them by number.  The
+ * markup tree is flattened in pre-order, each node naming the index of its parent, or -1 for the
+ * root.  Missing numbers and addresses are -1; missing strings are null.
+ *
+ * <p>{@link Format#NDJSON} writes each record as one line of JSON.  {@link Format#BINARY} starts
+ * with the magic {@code UGOA} and a version byte, then writes each record as a 4-byte big-endian
+ * length followed by the same fields in the same order, without names: numbers as zigzag varints,
+ * booleans as one byte, strings as a varint of the UTF-8 length plus one (0 for null) and the
+ * bytes, and arrays as a varint count followed by the elements.
+ */
+public class UgoAstExporter extends UgoOrderedResultSink<byte[]> {
+
+    public enum Format {
+        NDJSON,
+        BINARY
+    }
+
+    private static final byte[] BINARY_MAGIC = {'U', 'G', 'O', 'A'};
+    private static final int BINARY_VERSION = 1;
+    private static final int NONE = -1;
+
+    private final Format format;
+    private final OutputStream out;
+
+    public UgoAstExporter(File file, Format format) throws IOException {
+        this.format = format;
+        this.out = new BufferedOutputStream(new FileOutputStream(file));
+        if (format == Format.BINARY) {
+            out.write(BINARY_MAGIC);
+            out.write(BINARY_VERSION);
+        }
+    }
+
+    @Override
+    protected byte[] prepare(UgoBatchDecompileResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RecordOutput record =
+                format == Format.NDJSON ? new JsonOutput(bytes) : new BinaryOutput(bytes);
+        writeFunction(record, result);
+        record.finish();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    protected void write(byte[] record) throws IOException {
+        if (format == Format.BINARY) {
+            new DataOutputStream(out).writeInt(record.length);
+        }
+        out.write(record);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeFunction(RecordOutput record, UgoBatchDecompileResult result)
+            throws IOException {
+        Function function = result.getFunction();
+        DecompileResults results = result.getDecompileResults();
+        HighFunction highFunction = result.isSuccess() ? results.getHighFunction() : null;
+
+        record.beginObject();
+        record.value("name", function.getName());
+        record.value("entry", function.getEntryPoint().getOffset());
+        record.value("decompiled", highFunction != null);
+        record.value("error", highFunction != null ? null : result.getErrorMessage());
+
+        Numbering numbering = new Numbering(highFunction);
+        writeVarnodes(record, numbering);
+        writeOps(record, numbering);
+        writeMarkup(record, numbering, highFunction != null ? results.getCCodeMarkup() : null);
+        record.endObject();
+    }
+
+    private void writeVarnodes(RecordOutput record, Numbering numbering) throws IOException {
+        record.beginArray("varnodes", numbering.varnodes.size());
+        for (int i = 0; i < numbering.varnodes.size(); i++) {
+            Varnode varnode = numbering.varnodes.get(i);
+            HighVariable high = varnode.getHigh();
+            record.beginObject();
+            record.value("id", i);
+            record.value("space", varnode.getAddress().getAddressSpace().getName());
+            record.value("offset", varnode.getOffset());
+            record.value("size", varnode.getSize());
+            record.value("high", high != null ? high.getName() : null);
+            record.value("def", numbering.getId(varnode.getDef()));
+            record.endObject();
+        }
+        record.endArray();
+    }
+
+    private void writeOps(RecordOutput record, Numbering numbering) throws IOException {
+        record.beginArray("ops", numbering.ops.size());
+        for (int i = 0; i < numbering.ops.size(); i++) {
+            PcodeOp op = numbering.ops.get(i);
+            SequenceNumber seqnum = op.getSeqnum();
+            record.beginObject();
+            record.value("id", i);
+            record.value("address", getOffset(seqnum.getTarget()));
+            record.value("order", seqnum.getTime());
+            record.value("mnemonic", op.getMnemonic());
+            record.value("output", numbering.getId(op.getOutput()));
+            record.beginArray("inputs", op.getNumInputs());
+            for (int j = 0; j < op.getNumInputs(); j++) {
+                record.value(null, numbering.getId(op.getInput(j)));
+            }
+            record.endArray();
+            record.endObject();
+        }
+        record.endArray();
+    }
+
+    private void writeMarkup(RecordOutput record, Numbering numbering, ClangTokenGroup root)
+            throws IOException {
+        List<ClangNode> nodes = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        if (root != null) {
+            flattenMarkup(root, nodes, parents);
+        }
+
+        record.beginArray("markup", nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            ClangNode node = nodes.get(i);
+            ClangToken token = node instanceof ClangToken ? (ClangToken) node : null;
+            record.beginObject();
+            record.value("parent", parents.get(i));
+            record.value("kind", node.getClass().getSimpleName());
+            record.value("text", token != null ? token.getText() : null);
+            record.value("syntax", token != null ? token.getSyntaxType() : NONE);
+            record.value("min", getOffset(node.getMinAddress()));
+            record.value("max", getOffset(node.getMaxAddress()));
+            record.value("varnode", numbering.getId(token != null ? token.getVarnode() : null));
+            record.value("op", numbering.getId(token != null ? token.getPcodeOp() : null));
+            record.endObject();
+        }
+        record.endArray();
+    }
+
+    // pre-order, with an explicit stack so deeply nested code cannot overflow the thread stack
+    private static void flattenMarkup(ClangTokenGroup root, List<ClangNode> nodes,
+                                      List<Integer> parents) {
+        Deque<ClangNode> stack = new ArrayDeque<>();
+        Deque<Integer> stackParents = new ArrayDeque<>();
+        stack.push(root);
+        stackParents.push(NONE);
+        while (!stack.isEmpty()) {
+            ClangNode node = stack.pop();
+            int index = nodes.size();
+            nodes.add(node);
+            parents.add(stackParents.pop());
+            for (int i = node.numChildren() - 1; i >= 0; i--) {
+                stack.push(node.Child(i));
+                stackParents.push(index);
+            }
+        }
+    }
+
+    private static long getOffset(Address address) {
+        return address != null ? address.getOffset() : NONE;
+    }
+
+    /**
+     * The numbers of the varnodes and ops of one function, in p-code order.
+     */
+    private static class Numbering {
+        private final List<Varnode> varnodes = new ArrayList<>();
+        private final List<PcodeOp> ops = new ArrayList<>();
+        private final Map<Varnode, Integer> varnodeIds = new HashMap<>();
+        private final Map<PcodeOp, Integer> opIds = new HashMap<>();
+
+        Numbering(HighFunction highFunction) {
+            if (highFunction == null) {
+                return;
+            }
+            Iterator<PcodeOpAST> iter = highFunction.getPcodeOps();
+            while (iter.hasNext()) {
+                PcodeOp op = iter.next();
+                opIds.put(op, ops.size());
+                ops.add(op);
+                add(op.getOutput());
+                for (int i = 0; i < op.getNumInputs(); i++) {
+                    add(op.getInput(i));
+                }
+            }
+        }
+
+        private void add(Varnode varnode) {
+            if (varnode != null && !varnodeIds.containsKey(varnode)) {
+                varnodeIds.put(varnode, varnodes.size());
+                varnodes.add(varnode);
+            }
+        }
+
+        int getId(Varnode varnode) {
+            Integer id = varnode != null ? varnodeIds.get(varnode) : null;
+            return id != null ? id : NONE;
+        }
+
+        int getId(PcodeOp op) {
+            Integer id = op != null ? opIds.get(op) : null;
+            return id != null ? id : NONE;
+        }
+    }
+
+    /**
+     * Writes one record.  Names are ignored inside arrays.
+     */
+    private abstract static class RecordOutput {
+        abstract void beginObject() throws IOException;
+
+        abstract void endObject() throws IOException;
+
+        abstract void beginArray(String name, int size) throws IOException;
+
+        abstract void endArray() throws IOException;
+
+        abstract void value(String name, String value) throws IOException;
+
+        abstract void value(String name, long value) throws IOException;
+
+        abstract void value(String name, boolean value) throws IOException;
+
+        abstract void finish() throws IOException;
+    }
+
+    private static class JsonOutput extends RecordOutput {
+        private final Writer writer;
+        // whether the innermost object or array already has an element
+        private final BitSet hasElement = new BitSet();
+        private int depth;
+
+        JsonOutput(OutputStream out) {
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        void beginObject() throws IOException {
+            beginElement(null);
+            open('{');
+        }
+
+        @Override
+        void endObject() throws IOException {
+            close('}');
+        }
+
+        @Override
+        void beginArray(String name, int size) throws IOException {
+            beginElement(name);
+            open('[');
+        }
+
+        @Override
+        void endArray() throws IOException {
+            close(']');
+        }
+
+        @Override
+        void value(String name, String value) throws IOException {
+            beginElement(name);
+            if (value == null) {
+                writer.write("null");
+            } else {
+                writeString(value);
+            }
+        }
+
+        @Override
+        void value(String name, long value) throws IOException {
+            beginElement(name);
+            writer.write(Long.toString(value));
+        }
+
+        @Override
+        void value(String name, boolean value) throws IOException {
+            beginElement(name);
+            writer.write(value ? "true" : "false");
+        }
+
+        @Override
+        void finish() throws IOException {
+            writer.write('\n');
+            writer.flush();
+        }
+
+        private void open(char bracket) throws IOException {
+            writer.write(bracket);
+            hasElement.clear(++depth);
+        }
+
+        private void close(char bracket) throws IOException {
+            depth--;
+            writer.write(bracket);
+        }
+
+        private void beginElement(String name) throws IOException {
+            if (depth > 0) {
+                if (hasElement.get(depth)) {
+                    writer.write(',');
+                }
+                hasElement.set(depth);
+            }
+            if (name != null) {
+                writeString(name);
+                writer.write(':');
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                }
+            }
+            writer.write('"');
+        }
+    }
+
+    private static class BinaryOutput extends RecordOutput {
+        private final OutputStream out;
+
+        BinaryOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        void beginObject() {
+            // fields are positional
+        }
+
+        @Override
+        void endObject() {
+            // fields are positional
+        }
+
+        @Override
+        void beginArray(String name, int size) throws IOException {
+            writeVarint(size);
+        }
+
+        @Override
+        void endArray() {
+            // the count came first
+        }
+
+        @Override
+        void value(String name, String value) throws IOException {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            out.write(bytes);
+        }
+
+        @Override
+        void value(String name, long value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        @Override
+        void value(String name, boolean value) throws IOException {
+            out.write(value ? 1 : 0);
+        }
+
+        @Override
+        void finish() {
+            // nothing buffered
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package ugo.export;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.app.decompiler.DecompiledFunction;
+import ghidra.program.model.data.DataType;
+import ghidra.program.model.data.DataTypeWriter;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.program.model.pcode.FunctionPrototype;
+import ghidra.program.model.pcode.HighFunction;
+import ghidra.program.model.pcode.HighSymbol;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import ugo.UgoBatchDecompileResult;
+
+/**
+ * Writes the C of a {@link ugo.UgoBatchDecompiler} run to disk as the results come in.
+ *
+ * <p>Each function is printed on the worker that decompiled it and written in entry point order.
+ * Output goes either to one file or to one file per Go package, named from the
+ * {@code pkg.Func} form of Go symbol names.  The data types used by the exported functions are
+ * declared once, in a header that every file includes, written when the run finishes.
+ */
+public class UgoCExporter extends UgoOrderedResultSink<UgoCExporter.Chunk> {
+
+    /**
+     * The shard of functions whose names do not name a Go package.
+     */
+    public static final String NO_PACKAGE = "_unknown";
+
+    private static final String SHARD_HEADER_NAME = "types.h";
+    // shards beyond this are closed and reopened for appending when next written to
+    private static final int MAX_OPEN_SHARDS = 64;
+
+    private final Program program;
+    private final File directory;
+    private final File header;
+    private final Map<String, DataType> dataTypes = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final LinkedHashMap<String, Writer> openShards = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> startedShards = new HashSet<>();
+    private Writer singleWriter;
+
+    private UgoCExporter(Program program, File directory, File header) {
+        this.program = program;
+        this.directory = directory;
+        this.header = header;
+    }
+
+    /**
+     * Creates an exporter that writes every function to the given file, and the data types to a
+     * header next to it with the same name and a {@code .h} extension.
+     */
+    public static UgoCExporter toFile(Program program, File file) throws IOException {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String headerName = (dot > 0 ? name.substring(0, dot) : name) + ".h";
+        File header = new File(file.getAbsoluteFile().getParentFile(), headerName);
+        UgoCExporter exporter =
+                new UgoCExporter(program, file.getAbsoluteFile().getParentFile(), header);
+        exporter.singleWriter = exporter.openWriter(file, false);
+        return exporter;
+    }
+
+    /**
+     * Creates an exporter that writes each Go package to its own file in the given directory,
+     * along with a {@value #SHARD_HEADER_NAME} header of the data types.
+     */
+    public static UgoCExporter toPackageDirectory(Program program, File directory)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        return new UgoCExporter(program, directory, new File(directory, SHARD_HEADER_NAME));
+    }
+
+    /**
+     * Returns the Go package of a symbol name such as {@code main.main},
+     * {@code net/http.(*Server).Serve} or {@code pkg.Map[go.shape.string]}, or {@link #NO_PACKAGE}
+     * if the name does not contain one.
+     */
+    public static String getGoPackage(String name) {
+        // a package path ends at the first '.' after its last '/'; receivers and type arguments
+        // may contain both, so only look before them
+        int end = name.length();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '(' || c == '[') {
+                end = i;
+                break;
+            }
+        }
+        int slash = name.lastIndexOf('/', end - 1);
+        int dot = name.indexOf('.', slash + 1);
+        if (dot <= 0 || dot >= end || dot == slash + 1) {
+            return NO_PACKAGE;
+        }
+        return name.substring(0, dot);
+    }
+
+    @Override
+    protected Chunk prepare(UgoBatchDecompileResult result) {
+        Function function = result.getFunction();
+        String pkg = singleWriter == null ? getGoPackage(function.getName()) : null;
+        addDataTypes(result.getDecompileResults());
+        return new Chunk(pkg, formatFunction(result));
+    }
+
+    @Override
+    protected void write(Chunk chunk) throws IOException {
+        Writer writer = singleWriter != null ? singleWriter : getShardWriter(chunk.pkg);
+        writer.write(chunk.text);
+    }
+
+    @Override
+    public void batchFinished() throws IOException {
+        close();
+        writeHeader();
+    }
+
+    /**
+     * Closes every file still open.  A run that did not finish leaves the functions written so
+     * far, without a header.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        List<Writer> writers = new ArrayList<>(openShards.values());
+        if (singleWriter != null) {
+            writers.add(singleWriter);
+        }
+        for (Writer writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                failure = failure != null ? failure : e;
+            }
+        }
+        openShards.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private String formatFunction(UgoBatchDecompileResult result) {
+        DecompileResults results = result.getDecompileResults();
+        if (result.isSuccess()) {
+            DecompiledFunction decompiled = results.getDecompiledFunction();
+            if (decompiled != null) {
+                return decompiled.getC();
+            }
+        }
+        Function function = result.getFunction();
+        String error = result.getErrorMessage();
+        return String.format("/* %s @ %s could not be decompiled: %s */\n\n",
+                function.getName(), function.getEntryPoint(),
+                error == null ? "unknown error" : error.trim().replace("*/", "* /"));
+    }
+
+    private void addDataTypes(DecompileResults results) {
+        HighFunction highFunction = results != null ? results.getHighFunction() : null;
+        if (highFunction == null) {
+            return;
+        }
+        FunctionPrototype prototype = highFunction.getFunctionPrototype();
+        addDataType(prototype.getReturnType());
+        for (int i = 0; i < prototype.getNumParams(); i++) {
+            addDataType(prototype.getParam(i).getDataType());
+        }
+        Iterator<HighSymbol> symbols = highFunction.getLocalSymbolMap().getSymbols();
+        while (symbols.hasNext()) {
+            addDataType(symbols.next().getDataType());
+        }
+    }
+
+    private void addDataType(DataType dataType) {
+        if (dataType != null) {
+            dataTypes.putIfAbsent(dataType.getPathName(), dataType);
+        }
+    }
+
+    private Writer getShardWriter(String pkg) throws IOException {
+        Writer writer = openShards.get(pkg);
+        if (writer != null) {
+            return writer;
+        }
+        if (openShards.size() >= MAX_OPEN_SHARDS) {
+            Iterator<Writer> eldest = openShards.values().iterator();
+            eldest.next().close();
+            eldest.remove();
+        }
+        File file = new File(directory, getShardFileName(pkg));
+        writer = openWriter(file, !startedShards.add(pkg));
+        openShards.put(pkg, writer);
+        return writer;
+    }
+
+    static String getShardFileName(String pkg) {
+        return pkg.replaceAll("[^A-Za-z0-9_.-]", "_") + ".c";
+    }
+
+    private Writer openWriter(File file, boolean append) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, append), StandardCharsets.UTF_8));
+        if (!append) {
+            writer.write("#include \"" + header.getName() + "\"\n\n");
+        }
+        return writer;
+    }
+
+    private void writeHeader() throws IOException {
+        List<DataType> types = new ArrayList<>(dataTypes.values());
+        types.sort(Comparator.comparing(DataType::getPathName));
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(header), StandardCharsets.UTF_8))) {
+            writer.write("/* Data types used by the functions exported from " +
+                    program.getName() + " */\n\n");
+            DataTypeWriter dataTypeWriter =
+                    new DataTypeWriter(program.getDataTypeManager(), writer);
+            dataTypeWriter.write(types, TaskMonitor.DUMMY);
+        } catch (CancelledException e) {
+            // the dummy monitor cannot be cancelled
+        }
+    }
+
+    /**
+     * The printed C of one function and the shard it goes to.
+     */
+    static class Chunk {
+        private final String pkg;
+        private final String text;
+
+        Chunk(String pkg, String text) {
+            this.pkg = pkg;
+            this.text = text;
+        }
+    }
+}
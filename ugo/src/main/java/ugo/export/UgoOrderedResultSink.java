@@ -0,0 +1,57 @@
+package ugo.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import ugo.UgoBatchDecompileResult;
+import ugo.UgoDecompileResultSink;
+
+/**
+ * A sink that writes the results of a batch run in entry point order.
+ *
+ * <p>Each result is first prepared on the worker that produced it, so the expensive part of
+ * formatting runs in parallel.  Prepared results then wait in a reorder buffer until every result
+ * before them has been written, and are written one at a time in index order.  The
+ * {@link ugo.UgoBatchDecompiler} keeps its workers close behind the first result not yet handed
+ * over, so the buffer holds fewer than {@code UgoBatchDecompiler.MAX_RESULTS_AHEAD} results.
+ *
+ * @param <T> the prepared form of a result
+ */
+public abstract class UgoOrderedResultSink<T> implements UgoDecompileResultSink, Closeable {
+
+    // guarded by this
+    private final Map<Integer, T> pending = new HashMap<>();
+    private int nextIndex;
+
+    @Override
+    public final void resultReady(UgoBatchDecompileResult result) throws IOException {
+        T prepared = prepare(result);
+        synchronized (this) {
+            pending.put(result.getIndex(), prepared);
+            while ((prepared = pending.remove(nextIndex)) != null) {
+                write(prepared);
+                nextIndex++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of results written so far.
+     */
+    public synchronized int getFunctionCount() {
+        return nextIndex;
+    }
+
+    /**
+     * Prepares a result for writing.  Called from the batch worker threads, in no particular
+     * order, without holding any lock.
+     */
+    protected abstract T prepare(UgoBatchDecompileResult result) throws IOException;
+
+    /**
+     * Writes a prepared result.  Called in index order, while holding the lock of this sink.
+     */
+    protected abstract void write(T prepared) throws IOException;
+}
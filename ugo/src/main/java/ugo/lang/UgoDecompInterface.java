@@ -1,12 +1,130 @@
 package ugo.lang;
 
+import java.io.*;
+
 import ghidra.app.decompiler.DecompInterface;
+import ghidra.app.decompiler.DecompileProcess;
+import ghidra.app.decompiler.DecompileResults;
+import ghidra.program.model.lang.Language;
+import ghidra.program.model.listing.Function;
 import ghidra.program.model.listing.Program;
+import ghidra.program.model.pcode.PcodeDataTypeManager;
+import ghidra.program.model.pcode.Varnode;
+import ghidra.util.task.TaskMonitor;
+import ghidra.util.xml.LimitedByteBuffer;
 
+/**
+ * A {@link DecompInterface} that keeps the raw XML response of the last decompile, so that it can
+ * be stored and later turned back into {@link DecompileResults} without running the native
+ * decompiler again (see {@link #restoreResults(Function, byte[])}).
+ *
+ * <p>The decompile itself mirrors {@link DecompInterface#decompileFunction}; the only difference
+ * is that the response is read into memory before it is parsed.  Debug decompiles are passed
+ * straight through to the parent class and never keep a response.
+ */
 public class UgoDecompInterface extends DecompInterface {
 
+    private byte[] lastResponse;
+    private boolean debugEnabled;
+
     @Override
     public synchronized boolean openProgram(Program prog) {
         return super.openProgram(prog);
     }
+
+    @Override
+    public synchronized void enableDebug(File debugfile) {
+        super.enableDebug(debugfile);
+        debugEnabled = true;
+    }
+
+    /**
+     * Returns the raw XML response of the last successful {@link #decompileFunction} call, or
+     * null if the last decompile failed or was a debug decompile.
+     */
+    public synchronized byte[] getLastResponse() {
+        return lastResponse;
+    }
+
+    @Override
+    public synchronized DecompileResults decompileFunction(Function func, int timeoutSecs,
+                                                           TaskMonitor monitor) {
+        lastResponse = null;
+        if (debugEnabled || program == null) {
+            debugEnabled = false;
+            return super.decompileFunction(func, timeoutSecs, monitor);
+        }
+        if (monitor != null && monitor.isCancelled()) {
+            return null;
+        }
+        if (monitor != null) {
+            monitor.addCancelledListener(monitorListener);
+        }
+
+        String message = "";
+        byte[] response = null;
+        try {
+            decompCallback.setFunction(func, func.getEntryPoint(), null);
+            String addrstring = Varnode.buildXMLAddress(func.getEntryPoint());
+            verifyProcess();
+            LimitedByteBuffer res =
+                    decompProcess.sendCommand1ParamTimeout("decompileAt", addrstring, timeoutSecs);
+            message = decompCallback.getNativeMessage();
+            if (res != null) {
+                response = readFully(res.getInputStream());
+            }
+        } catch (Exception ex) {
+            message = "Exception while decompiling " + func.getEntryPoint() + ": " +
+                    ex.getMessage() + '\n';
+        } finally {
+            if (monitor != null) {
+                monitor.removeCancelledListener(monitorListener);
+            }
+        }
+
+        DecompileProcess.DisposeState processState;
+        if (decompProcess != null) {
+            processState = decompProcess.getDisposeState();
+            if (processState == DecompileProcess.DisposeState.NOT_DISPOSED) {
+                flushCache();
+            }
+        } else {
+            processState = DecompileProcess.DisposeState.DISPOSED_ON_CANCEL;
+        }
+
+        DecompileResults results = new DecompileResults(func, getLanguage(), compilerSpec,
+                getDataTypeManager(), message,
+                response != null ? new ByteArrayInputStream(response) : null, processState,
+                false);
+        if (results.decompileCompleted()) {
+            lastResponse = response;
+        }
+        return results;
+    }
+
+    /**
+     * Rebuilds decompile results from a response previously returned by
+     * {@link #getLastResponse()}.  No decompiler process is needed.
+     *
+     * @param func the function the response was produced for
+     * @param response the raw XML response
+     * @return the results
+     */
+    public static DecompileResults restoreResults(Function func, byte[] response) {
+        Program program = func.getProgram();
+        Language language = program.getLanguage();
+        return new DecompileResults(func, language, program.getCompilerSpec(),
+                new PcodeDataTypeManager(program), "", new ByteArrayInputStream(response),
+                DecompileProcess.DisposeState.NOT_DISPOSED, false);
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        byte[] buffer = new byte[16 * 1024];
+        int n;
+        while ((n = stream.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,262 @@
+package ugo.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of the counters and timers of the decompiler pipeline, shared by everything that
+ * uses the same {@link ugo.UgoDecompilerPool}.  Recording is cheap and thread safe, so it can
+ * be left on all the time.
+ */
+public class UgoMetrics {
+
+    /** From the request to decompile until the decompile starts, including the debounce. */
+    public static final String QUEUE_WAIT = "decompile.queue_wait";
+    /** Waiting for a free process from the pool. */
+    public static final String CHECKOUT_WAIT = "decompile.checkout_wait";
+    /** Inside the native decompiler. */
+    public static final String NATIVE_DECOMPILE = "decompile.native";
+    /** Laying out the result for display, off the Swing thread. */
+    public static final String LAYOUT = "decompile.layout";
+    /** From the request to decompile until the result is displayed. */
+    public static final String END_TO_END = "decompile.end_to_end";
+
+    public static final String REQUESTS = "decompile.requests";
+    /** Requests merged into the decompile already running for the same function. */
+    public static final String REQUESTS_MERGED = "decompile.requests_merged";
+    public static final String CANCELLATIONS = "decompile.cancellations";
+    /** Requests held back because they came in a burst or while a decompile was running. */
+    public static final String REQUESTS_DEBOUNCED = "decompile.requests_debounced";
+    /** Stale decompiles left to finish in the background rather than stopping their process. */
+    public static final String ABANDONED = "decompile.abandoned";
+
+    public static final String MEMORY_CACHE_HITS = "cache.memory.hits";
+    public static final String MEMORY_CACHE_MISSES = "cache.memory.misses";
+    public static final String MEMORY_CACHE_EVICTIONS = "cache.memory.evictions";
+    public static final String DISK_CACHE_HITS = "cache.disk.hits";
+    public static final String DISK_CACHE_MISSES = "cache.disk.misses";
+    public static final String DISK_CACHE_EVICTIONS = "cache.disk.evictions";
+
+    public static final String PROCESSES_STARTED = "pool.processes.started";
+    /** Processes stopped to end a decompile that was cancelled or abandoned for too long. */
+    public static final String PROCESSES_KILLED = "pool.processes.killed";
+    /** Processes discarded after timing out or dying. */
+    public static final String PROCESSES_FAILED = "pool.processes.failed";
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public UgoMetrics() {
+        // register the pipeline's metrics up front, so they are reported before they first occur
+        for (String name : new String[]{QUEUE_WAIT, CHECKOUT_WAIT, NATIVE_DECOMPILE, LAYOUT,
+                END_TO_END}) {
+            timer(name);
+        }
+        for (String name : new String[]{REQUESTS, REQUESTS_MERGED, REQUESTS_DEBOUNCED,
+                CANCELLATIONS, ABANDONED, MEMORY_CACHE_HITS, MEMORY_CACHE_MISSES,
+                MEMORY_CACHE_EVICTIONS, DISK_CACHE_HITS, DISK_CACHE_MISSES, DISK_CACHE_EVICTIONS,
+                PROCESSES_STARTED, PROCESSES_KILLED, PROCESSES_FAILED}) {
+            counter(name);
+        }
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Returns the current value of every metric, sorted by name.
+     */
+    public List<Sample> getSamples() {
+        List<Sample> samples = new ArrayList<>();
+        for (Counter counter : counters.values()) {
+            samples.add(counter.sample());
+        }
+        for (Timer timer : timers.values()) {
+            samples.add(timer.getSample());
+        }
+        samples.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return samples;
+    }
+
+    /**
+     * Sets every metric back to zero.
+     */
+    public void reset() {
+        for (Counter counter : counters.values()) {
+            counter.value.reset();
+        }
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+    }
+
+    public static class Counter {
+        private final String name;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        private Sample sample() {
+            return new Sample(name, false, value.sum(), 0, 0, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Records durations.  Count, total and maximum cover every recording; percentiles cover the
+     * most recent {@value #WINDOW} only, so that they follow changes in behavior.
+     */
+    public static class Timer {
+        static final int WINDOW = 1024;
+
+        private final String name;
+        // guarded by this
+        private final long[] window = new long[WINDOW];
+        private int windowSize;
+        private int next;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public synchronized void record(long nanos) {
+            window[next] = nanos;
+            next = (next + 1) % WINDOW;
+            windowSize = Math.min(windowSize + 1, WINDOW);
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /**
+         * Records the time since the given {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        private synchronized void reset() {
+            windowSize = 0;
+            next = 0;
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        /**
+         * Returns the current values of this timer.
+         */
+        public Sample getSample() {
+            long[] recent;
+            long c;
+            long total;
+            long max;
+            synchronized (this) {
+                recent = Arrays.copyOf(window, windowSize);
+                c = count;
+                total = totalNanos;
+                max = maxNanos;
+            }
+            Arrays.sort(recent);
+            return new Sample(name, true, c, total, percentile(recent, 50),
+                    percentile(recent, 95), percentile(recent, 99), max);
+        }
+
+        // nearest rank
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+
+    /**
+     * The value of one metric at one time.  Durations are in nanoseconds, and are zero for
+     * counters.
+     */
+    public static class Sample {
+        private final String name;
+        private final boolean timer;
+        private final long count;
+        private final long totalNanos;
+        private final long p50Nanos;
+        private final long p95Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        Sample(String name, boolean timer, long count, long totalNanos, long p50Nanos,
+               long p95Nanos, long p99Nanos, long maxNanos) {
+            this.name = name;
+            this.timer = timer;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isTimer() {
+            return timer;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return count > 0 ? totalNanos / count : 0;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP95Nanos() {
+            return p95Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+}
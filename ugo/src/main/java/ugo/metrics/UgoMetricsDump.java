@@ -0,0 +1,166 @@
+package ugo.metrics;
+
+import ghidra.util.Msg;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of a {@link UgoMetrics} registry to a file, either once or periodically.
+ *
+ * <p>A file ending in {@code .csv} gets one row per metric appended at every dump, so it keeps
+ * the history.  Any other file is replaced at every dump with a JSON object of the latest
+ * values.  Durations are written in milliseconds.
+ *
+ * <p>Periodic dumps are off unless the {@value #FILE_PROPERTY} system property names a file,
+ * for example {@code -Dugo.metrics.dump=/tmp/ugo-metrics.csv}.  They happen every
+ * {@value #DEFAULT_INTERVAL_SECONDS} seconds, or every {@value #INTERVAL_PROPERTY} seconds if
+ * that property is set.
+ */
+public class UgoMetricsDump implements Closeable {
+
+    public static final String FILE_PROPERTY = "ugo.metrics.dump";
+    public static final String INTERVAL_PROPERTY = "ugo.metrics.dump.interval";
+    private static final long DEFAULT_INTERVAL_SECONDS = 60;
+
+    private static final String CSV_HEADER =
+            "timestamp,name,kind,count,total_ms,mean_ms,p50_ms,p95_ms,p99_ms,max_ms";
+
+    private final UgoMetrics metrics;
+    private final File file;
+    private final ScheduledExecutorService executor;
+
+    private UgoMetricsDump(UgoMetrics metrics, File file, long intervalSeconds) {
+        this.metrics = metrics;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "UgoMetricsDump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::dump, intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts periodic dumps if the system properties ask for them.
+     *
+     * @return the running dump, to be closed when the metrics are no longer needed, or null
+     */
+    public static UgoMetricsDump startFromSystemProperties(UgoMetrics metrics) {
+        String path = System.getProperty(FILE_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        long interval = DEFAULT_INTERVAL_SECONDS;
+        try {
+            interval = Math.max(1, Long.parseLong(
+                    System.getProperty(INTERVAL_PROPERTY, Long.toString(interval))));
+        } catch (NumberFormatException e) {
+            Msg.warn(UgoMetricsDump.class, "Invalid " + INTERVAL_PROPERTY + "; using " +
+                    interval + " seconds");
+        }
+        return new UgoMetricsDump(metrics, new File(path), interval);
+    }
+
+    /**
+     * Stops dumping, after writing the final values.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        dump();
+    }
+
+    private synchronized void dump() {
+        try {
+            write(file, metrics.getSamples(), System.currentTimeMillis());
+        } catch (IOException e) {
+            Msg.warn(this, "Unable to write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the given samples to a file, in the format its name calls for.
+     */
+    public static void write(File file, List<UgoMetrics.Sample> samples, long timestampMillis)
+            throws IOException {
+        if (isCsv(file)) {
+            boolean header = !file.exists() || file.length() == 0;
+            try (Writer writer = openWriter(file, true)) {
+                writeCsv(writer, samples, timestampMillis, header);
+            }
+            return;
+        }
+        // replace the file whole, so a reader never sees half of it
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = openWriter(temp, false)) {
+            writeJson(writer, samples, timestampMillis);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static boolean isCsv(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    static void writeCsv(Writer writer, List<UgoMetrics.Sample> samples, long timestampMillis,
+                         boolean header) throws IOException {
+        if (header) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+        for (UgoMetrics.Sample sample : samples) {
+            writer.write(String.format(Locale.ROOT, "%d,%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+                    timestampMillis, sample.getName(), sample.isTimer() ? "timer" : "counter",
+                    sample.getCount(), millis(sample.getTotalNanos()),
+                    millis(sample.getMeanNanos()), millis(sample.getP50Nanos()),
+                    millis(sample.getP95Nanos()), millis(sample.getP99Nanos()),
+                    millis(sample.getMaxNanos())));
+        }
+    }
+
+    static void writeJson(Writer writer, List<UgoMetrics.Sample> samples, long timestampMillis)
+            throws IOException {
+        writer.write("{\"timestamp\":" + timestampMillis + ",\"counters\":{");
+        boolean first = true;
+        for (UgoMetrics.Sample sample : samples) {
+            if (!sample.isTimer()) {
+                writer.write((first ? "" : ",") + "\"" + sample.getName() + "\":" +
+                        sample.getCount());
+                first = false;
+            }
+        }
+        writer.write("},\"timers\":{");
+        first = true;
+        for (UgoMetrics.Sample sample : samples) {
+            if (sample.isTimer()) {
+                writer.write(String.format(Locale.ROOT, "%s\"%s\":{\"count\":%d," +
+                                "\"total_ms\":%.3f,\"mean_ms\":%.3f,\"p50_ms\":%.3f," +
+                                "\"p95_ms\":%.3f,\"p99_ms\":%.3f,\"max_ms\":%.3f}",
+                        first ? "" : ",", sample.getName(), sample.getCount(),
+                        millis(sample.getTotalNanos()), millis(sample.getMeanNanos()),
+                        millis(sample.getP50Nanos()), millis(sample.getP95Nanos()),
+                        millis(sample.getP99Nanos()), millis(sample.getMaxNanos())));
+                first = false;
+            }
+        }
+        writer.write("}}\n");
+    }
+
+    private static Writer openWriter(File file, boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append),
+                StandardCharsets.UTF_8));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
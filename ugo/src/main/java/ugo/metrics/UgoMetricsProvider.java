@@ -0,0 +1,167 @@
+package ugo.metrics;
+
+import docking.ActionContext;
+import docking.action.DockingAction;
+import docking.action.MenuData;
+import docking.widgets.filechooser.GhidraFileChooser;
+import docking.widgets.table.GTable;
+import ghidra.framework.plugintool.ComponentProviderAdapter;
+import ghidra.framework.plugintool.Plugin;
+import ghidra.util.Msg;
+import ghidra.util.filechooser.ExtensionFileFilter;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A window of the decompiler metrics, refreshed every second while it is showing.  Open it from
+ * the Window menu.
+ */
+public class UgoMetricsProvider extends ComponentProviderAdapter {
+
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final UgoMetrics metrics;
+    private final MetricsTableModel model = new MetricsTableModel();
+    private final JComponent component;
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    public UgoMetricsProvider(Plugin plugin, UgoMetrics metrics) {
+        super(plugin.getTool(), "Decompiler Metrics", plugin.getName());
+        this.metrics = metrics;
+        setTitle("Decompiler Metrics");
+        setWindowMenuGroup("Decompiler");
+
+        GTable table = new GTable(model);
+        component = new JScrollPane(table);
+        createActions(plugin.getName());
+    }
+
+    @Override
+    public JComponent getComponent() {
+        return component;
+    }
+
+    @Override
+    public void componentShown() {
+        refresh();
+        refreshTimer.start();
+    }
+
+    @Override
+    public void componentHidden() {
+        refreshTimer.stop();
+    }
+
+    public void dispose() {
+        refreshTimer.stop();
+    }
+
+    private void refresh() {
+        model.setSamples(metrics.getSamples());
+    }
+
+    private void createActions(String owner) {
+        DockingAction resetAction = new DockingAction("Reset Metrics", owner) {
+            @Override
+            public void actionPerformed(ActionContext context) {
+                metrics.reset();
+                refresh();
+            }
+        };
+        resetAction.setMenuBarData(new MenuData(new String[]{"Reset"}));
+        resetAction.setDescription("Set every metric back to zero");
+
+        DockingAction saveAction = new DockingAction("Save Metrics", owner) {
+            @Override
+            public void actionPerformed(ActionContext context) {
+                save();
+            }
+        };
+        saveAction.setMenuBarData(new MenuData(new String[]{"Save As..."}));
+        saveAction.setDescription("Write the current metrics to a CSV or JSON file");
+
+        addLocalAction(resetAction);
+        addLocalAction(saveAction);
+    }
+
+    private void save() {
+        GhidraFileChooser fileChooser = new GhidraFileChooser(component);
+        fileChooser.setTitle("Save Decompiler Metrics");
+        fileChooser.addFileFilter(new ExtensionFileFilter("csv", "CSV Files"));
+        fileChooser.setFileFilter(new ExtensionFileFilter("json", "JSON Files"));
+        File file = fileChooser.getSelectedFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            UgoMetricsDump.write(file, metrics.getSamples(), System.currentTimeMillis());
+        } catch (IOException e) {
+            Msg.showError(this, component, "Save Decompiler Metrics",
+                    "Unable to write " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static class MetricsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS =
+                {"Metric", "Count", "Mean (ms)", "p50 (ms)", "p95 (ms)", "p99 (ms)", "Max (ms)"};
+
+        private List<UgoMetrics.Sample> samples = Collections.emptyList();
+
+        void setSamples(List<UgoMetrics.Sample> samples) {
+            this.samples = samples;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return samples.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 1 ? Long.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            UgoMetrics.Sample sample = samples.get(row);
+            switch (column) {
+                case 0:
+                    return sample.getName();
+                case 1:
+                    return sample.getCount();
+                case 2:
+                    return millis(sample, sample.getMeanNanos());
+                case 3:
+                    return millis(sample, sample.getP50Nanos());
+                case 4:
+                    return millis(sample, sample.getP95Nanos());
+                case 5:
+                    return millis(sample, sample.getP99Nanos());
+                default:
+                    return millis(sample, sample.getMaxNanos());
+            }
+        }
+
+        // blank for counters, which have no durations
+        private static String millis(UgoMetrics.Sample sample, long nanos) {
+            return sample.isTimer() ? String.format(Locale.ROOT, "%.1f", nanos / 1e6) : "";
+        }
+    }
+}
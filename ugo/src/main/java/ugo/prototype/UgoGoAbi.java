@@ -0,0 +1,119 @@
+package ugo.prototype;
+
+import java.io.IOException;
+
+import ghidra.program.model.lang.Processor;
+import ghidra.program.model.lang.Register;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.scalar.Scalar;
+import ghidra.util.Msg;
+import ghidra.util.task.TaskMonitor;
+import ugo.symbolication.UgoPclntab;
+import ugo.symbolication.UgoPclntabLocator;
+
+/**
+ * The calling convention used by the Go functions of a program.
+ */
+public enum UgoGoAbi {
+    /**
+     * ABI0: every argument and result is passed on the stack.  Used by Go 1.16 and earlier, and
+     * by assembly functions in every release.
+     */
+    STACK,
+
+    /**
+     * ABIInternal: arguments and results are passed in RAX, RBX, RCX, RDI, RSI and R8 to R11,
+     * and in X0 to X14 for floats.  Used by Go 1.17 and later on amd64.
+     */
+    REGISTER;
+
+    // how many function prologues to look at when the pclntab does not settle the question
+    private static final int PROLOGUES_TO_SAMPLE = 200;
+    private static final int PROLOGUE_LENGTH = 4;
+
+    /**
+     * Detects the calling convention of the program.
+     *
+     * <p>The pclntab layout decides it when it can: tables older than Go 1.16 imply the stack
+     * ABI, and Go 1.18 and later tables the register ABI.  The Go 1.16 layout is shared by Go
+     * 1.16 and 1.17, so it (and binaries without a table) are told apart by their stack checks:
+     * the register ABI keeps the current goroutine in R14 and compares RSP with
+     * {@code [R14+0x10]}, while the stack ABI loads it from thread local storage through FS.
+     */
+    public static UgoGoAbi detect(Program program, TaskMonitor monitor) {
+        Processor x86 = Processor.findOrPossiblyCreateProcessor("x86");
+        if (!x86.equals(program.getLanguage().getProcessor()) ||
+                program.getDefaultPointerSize() != 8) {
+            return STACK;
+        }
+
+        try {
+            UgoPclntab pclntab = UgoPclntabLocator.find(program, monitor);
+            if (pclntab != null) {
+                switch (pclntab.getVersion()) {
+                    case GO_1_2:
+                        return STACK;
+                    case GO_1_18:
+                    case GO_1_20:
+                        return REGISTER;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            Msg.warn(UgoGoAbi.class, "Unable to read the pclntab: " + e.getMessage());
+        }
+        return detectFromPrologues(program, monitor);
+    }
+
+    private static UgoGoAbi detectFromPrologues(Program program, TaskMonitor monitor) {
+        Register r14 = program.getRegister("R14");
+        Listing listing = program.getListing();
+        int registerVotes = 0;
+        int stackVotes = 0;
+        int sampled = 0;
+
+        FunctionIterator functions = program.getFunctionManager().getFunctions(true);
+        while (functions.hasNext() && sampled < PROLOGUES_TO_SAMPLE && !monitor.isCancelled()) {
+            Function function = functions.next();
+            if (function.isExternal() || function.isThunk()) {
+                continue;
+            }
+            sampled++;
+
+            Instruction instruction = listing.getInstructionAt(function.getEntryPoint());
+            for (int i = 0; i < PROLOGUE_LENGTH && instruction != null; i++) {
+                if (isFsLoad(instruction)) {
+                    stackVotes++;
+                    break;
+                }
+                if (isGoroutineStackCheck(instruction, r14)) {
+                    registerVotes++;
+                    break;
+                }
+                instruction = instruction.getNext();
+            }
+        }
+        return registerVotes > stackVotes ? REGISTER : STACK;
+    }
+
+    private static boolean isFsLoad(Instruction instruction) {
+        return instruction.getMnemonicString().equals("MOV") &&
+                instruction.getNumOperands() == 2 &&
+                instruction.getDefaultOperandRepresentation(1).contains("FS:");
+    }
+
+    private static boolean isGoroutineStackCheck(Instruction instruction, Register r14) {
+        if (r14 == null || !instruction.getMnemonicString().equals("CMP") ||
+                instruction.getNumOperands() != 2) {
+            return false;
+        }
+        Object[] objects = instruction.getOpObjects(1);
+        if (objects.length != 2 || !r14.equals(objects[0]) || !(objects[1] instanceof Scalar)) {
+            return false;
+        }
+        // stackguard0, or stackguard1 in functions run on the system stack
+        long offset = ((Scalar) objects[1]).getValue();
+        return offset == 0x10 || offset == 0x18;
+    }
+}
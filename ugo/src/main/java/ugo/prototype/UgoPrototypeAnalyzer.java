@@ -0,0 +1,75 @@
+package ugo.prototype;
+
+import java.util.Set;
+
+import ghidra.program.model.address.Address;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.symbol.Reference;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * Recovers the prototype of a function, and the functions it calls, in a single pass over its
+ * instructions.  Analyzers only read the listing, so many functions can be analyzed at once.
+ */
+public abstract class UgoPrototypeAnalyzer {
+
+    /**
+     * What was learned about one function.
+     */
+    public static class Result {
+        private final UgoRecoveredPrototype prototype;
+        private final Set<Function> callees;
+
+        Result(UgoRecoveredPrototype prototype, Set<Function> callees) {
+            this.prototype = prototype;
+            this.callees = callees;
+        }
+
+        /**
+         * Returns the recovered parameters, or null if none were found.
+         */
+        public UgoRecoveredPrototype getPrototype() {
+            return prototype;
+        }
+
+        public Set<Function> getCallees() {
+            return callees;
+        }
+    }
+
+    protected final Program program;
+    protected final Listing listing;
+    protected final FunctionManager functionManager;
+
+    protected UgoPrototypeAnalyzer(Program program) {
+        this.program = program;
+        this.listing = program.getListing();
+        this.functionManager = program.getFunctionManager();
+    }
+
+    public abstract Result analyze(Function function, TaskMonitor monitor);
+
+    /**
+     * Adds the functions called by the instruction, if it is a call.
+     */
+    protected void addCallees(Instruction instruction, Set<Function> callees) {
+        if (!instruction.getFlowType().isCall()) {
+            return;
+        }
+        for (Address target : instruction.getFlows()) {
+            addCallee(target, callees);
+        }
+        for (Reference reference : instruction.getReferencesFrom()) {
+            if (reference.getReferenceType().isCall()) {
+                addCallee(reference.getToAddress(), callees);
+            }
+        }
+    }
+
+    private void addCallee(Address target, Set<Function> callees) {
+        Function callee = functionManager.getFunctionAt(target);
+        if (callee != null) {
+            callees.add(callee);
+        }
+    }
+}
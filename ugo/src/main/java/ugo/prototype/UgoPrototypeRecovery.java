@@ -0,0 +1,238 @@
+package ugo.prototype;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import ghidra.program.model.data.DataType;
+import ghidra.program.model.data.Undefined;
+import ghidra.program.model.lang.Register;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.symbol.SourceType;
+import ghidra.util.Msg;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.exception.DuplicateNameException;
+import ghidra.util.exception.InvalidInputException;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * Recovers the parameters of Go functions and applies them to the program.
+ *
+ * <p>Recovery runs in two phases.  The analysis phase only reads the listing: functions are
+ * analyzed in parallel, one call graph level at a time, with an explicit worklist instead of
+ * recursion, so deep Go call chains cannot overflow the stack.  The apply phase then writes every
+ * recovered prototype in batched transactions with domain object events switched off.
+ *
+ * <p>Binaries built for the stack calling convention get stack parameters; binaries built for the
+ * register calling convention get register parameters and results, all as custom storage.
+ */
+public class UgoPrototypeRecovery {
+
+    private static final int BATCH_SIZE = 5000;
+
+    private final Program program;
+    private final UgoGoAbi abi;
+    private final UgoPrototypeAnalyzer analyzer;
+
+    /**
+     * Creates a recovery for the calling convention detected in the program.
+     */
+    public UgoPrototypeRecovery(Program program, TaskMonitor monitor) {
+        this(program, UgoGoAbi.detect(program, monitor));
+    }
+
+    public UgoPrototypeRecovery(Program program, UgoGoAbi abi) {
+        this.program = program;
+        this.abi = abi;
+        this.analyzer = abi == UgoGoAbi.REGISTER
+                ? new UgoRegisterAbiAnalyzer(program)
+                : new UgoStackArgumentAnalyzer(program);
+    }
+
+    public UgoGoAbi getAbi() {
+        return abi;
+    }
+
+    /**
+     * Returns every non-external, non-thunk function of the program.
+     */
+    public List<Function> getAllFunctions() {
+        List<Function> functions = new ArrayList<>();
+        FunctionIterator iterator = program.getFunctionManager().getFunctions(true);
+        while (iterator.hasNext()) {
+            Function function = iterator.next();
+            if (!function.isExternal() && !function.isThunk()) {
+                functions.add(function);
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * Analyzes the given functions and, if requested, everything they call directly or
+     * indirectly.
+     *
+     * @param roots the functions to start from
+     * @param followCalls whether to also analyze the callees of every analyzed function
+     * @param monitor reports progress and allows cancellation
+     * @return the recovered prototypes, in no particular order
+     * @throws CancelledException if the monitor was cancelled
+     */
+    public List<UgoRecoveredPrototype> analyze(Collection<Function> roots, boolean followCalls,
+                                               TaskMonitor monitor) throws CancelledException {
+        List<UgoRecoveredPrototype> prototypes = new ArrayList<>();
+        Set<Function> visited = new HashSet<>(roots);
+        List<Function> worklist = new ArrayList<>(visited);
+        monitor.initialize(worklist.size());
+        monitor.setMessage("Recovering Go function prototypes...");
+
+        // task monitors do not count atomically, so the workers count here
+        AtomicLong analyzed = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            while (!worklist.isEmpty()) {
+                monitor.checkCanceled();
+                List<UgoPrototypeAnalyzer.Result> results =
+                        analyzeAll(pool, worklist, analyzed, monitor);
+                // the workers' last updates may have landed out of order
+                monitor.setProgress(analyzed.get());
+                monitor.checkCanceled();
+
+                List<Function> next = new ArrayList<>();
+                for (UgoPrototypeAnalyzer.Result result : results) {
+                    if (result.getPrototype() != null) {
+                        prototypes.add(result.getPrototype());
+                    }
+                    if (!followCalls) {
+                        continue;
+                    }
+                    for (Function callee : result.getCallees()) {
+                        if (!callee.isExternal() && visited.add(callee)) {
+                            next.add(callee);
+                        }
+                    }
+                }
+                monitor.setMaximum(visited.size());
+                worklist = next;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return prototypes;
+    }
+
+    private List<UgoPrototypeAnalyzer.Result> analyzeAll(ForkJoinPool pool,
+                                                           List<Function> functions,
+                                                           AtomicLong analyzed,
+                                                           TaskMonitor monitor)
+            throws CancelledException {
+        try {
+            return pool.submit(() -> functions.parallelStream()
+                    .map(function -> {
+                        UgoPrototypeAnalyzer.Result result =
+                                analyzer.analyze(function, monitor);
+                        monitor.setProgress(analyzed.incrementAndGet());
+                        return result;
+                    })
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            throw new CancelledException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Replaces the parameters of every function with the recovered ones.
+     *
+     * @return the number of functions updated
+     * @throws CancelledException if the monitor was cancelled; batches already written are kept
+     */
+    public int apply(List<UgoRecoveredPrototype> prototypes, TaskMonitor monitor)
+            throws CancelledException {
+        List<UgoRecoveredPrototype> sorted = new ArrayList<>(prototypes);
+        sorted.sort(Comparator.comparing(prototype -> prototype.getFunction().getEntryPoint()));
+        monitor.initialize(sorted.size());
+        monitor.setMessage("Applying " + sorted.size() + " Go function prototypes...");
+
+        int applied = 0;
+        boolean sendingEvents = program.isSendingEvents();
+        program.setEventsEnabled(false);
+        try {
+            for (int start = 0; start < sorted.size(); start += BATCH_SIZE) {
+                monitor.checkCanceled();
+                int end = Math.min(start + BATCH_SIZE, sorted.size());
+                int transactionID = program.startTransaction("Restore Go prototypes");
+                try {
+                    for (int i = start; i < end; i++) {
+                        if (applyPrototype(sorted.get(i))) {
+                            applied++;
+                        }
+                        monitor.setProgress(i + 1);
+                    }
+                } finally {
+                    program.endTransaction(transactionID, true);
+                }
+            }
+        } finally {
+            program.setEventsEnabled(sendingEvents);
+        }
+        return applied;
+    }
+
+    private boolean applyPrototype(UgoRecoveredPrototype prototype) {
+        Function function = prototype.getFunction();
+        try {
+            List<Variable> parameters = new ArrayList<>();
+            if (prototype.isRegisterBased()) {
+                Register[] arguments = prototype.getArgumentRegisters();
+                for (int i = 0; i < arguments.length; i++) {
+                    parameters.add(new ParameterImpl(String.format("arg%d", i + 1),
+                            Undefined.getUndefinedDataType(arguments[i].getMinimumByteSize()),
+                            arguments[i], program));
+                }
+                for (long offset : prototype.getArgumentOffsets()) {
+                    parameters.add(new ParameterImpl(
+                            String.format("arg%d", parameters.size() + 1),
+                            DataType.DEFAULT, (int) offset, program));
+                }
+            } else {
+                for (long offset : prototype.getArgumentOffsets()) {
+                    parameters.add(new ParameterImpl(String.format("arg%d", offset / 8),
+                            DataType.DEFAULT, (int) offset, program));
+                }
+            }
+            function.setCustomVariableStorage(true);
+            function.replaceParameters(parameters, Function.FunctionUpdateType.CUSTOM_STORAGE,
+                    true, SourceType.ANALYSIS);
+            if (prototype.getResultRegisters().length != 0) {
+                applyResults(function, prototype.getResultRegisters());
+            }
+            return true;
+        } catch (InvalidInputException | DuplicateNameException e) {
+            Msg.warn(this, "Unable to restore the prototype of " + function.getName() + ": " +
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    // multiple results are returned as one value joined from their registers, most significant
+    // (the last result) first
+    private void applyResults(Function function, Register[] results)
+            throws InvalidInputException {
+        Register[] joined = new Register[results.length];
+        int size = 0;
+        for (int i = 0; i < results.length; i++) {
+            joined[results.length - 1 - i] = results[i];
+            size += results[i].getMinimumByteSize();
+        }
+        function.setReturn(Undefined.getUndefinedDataType(size),
+                new VariableStorage(program, joined), SourceType.ANALYSIS);
+    }
+}
@@ -0,0 +1,88 @@
+package ugo.prototype;
+
+import ghidra.program.model.lang.Register;
+import ghidra.program.model.listing.Function;
+
+/**
+ * The parameters recovered for one function, waiting to be applied.
+ */
+public class UgoRecoveredPrototype {
+    private static final long[] NO_OFFSETS = new long[0];
+    private static final Register[] NO_REGISTERS = new Register[0];
+
+    private final Function function;
+    private final long[] argumentOffsets;
+    private final Register[] argumentRegisters;
+    private final Register[] resultRegisters;
+
+    /**
+     * @param function the function
+     * @param argumentOffsets the stack offsets of the arguments relative to the stack pointer on
+     * entry, in ascending order
+     */
+    public UgoRecoveredPrototype(Function function, long[] argumentOffsets) {
+        this.function = function;
+        this.argumentOffsets = argumentOffsets;
+        this.argumentRegisters = NO_REGISTERS;
+        this.resultRegisters = NO_REGISTERS;
+    }
+
+    /**
+     * @param function the function
+     * @param argumentRegisters the registers holding the arguments, in argument order
+     * @param resultRegisters the registers holding the results, in result order
+     */
+    public UgoRecoveredPrototype(Function function, Register[] argumentRegisters,
+                                 Register[] resultRegisters) {
+        this(function, argumentRegisters, NO_OFFSETS, resultRegisters);
+    }
+
+    /**
+     * @param function the function
+     * @param argumentRegisters the registers holding the arguments, in argument order
+     * @param argumentOffsets the stack offsets of the arguments that did not fit in registers,
+     * relative to the stack pointer on entry, in ascending order
+     * @param resultRegisters the registers holding the results, in result order
+     */
+    public UgoRecoveredPrototype(Function function, Register[] argumentRegisters,
+                                 long[] argumentOffsets, Register[] resultRegisters) {
+        this.function = function;
+        this.argumentOffsets = argumentOffsets;
+        this.argumentRegisters = argumentRegisters;
+        this.resultRegisters = resultRegisters;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns whether the function passes its arguments and results in registers.
+     */
+    public boolean isRegisterBased() {
+        return argumentRegisters.length != 0 || resultRegisters.length != 0;
+    }
+
+    /**
+     * Returns the stack offsets of the arguments relative to the stack pointer on entry, in
+     * ascending order.  For a register-based function, these are the arguments passed on the
+     * stack after the argument registers ran out.
+     */
+    public long[] getArgumentOffsets() {
+        return argumentOffsets;
+    }
+
+    /**
+     * Returns the registers holding the arguments, in argument order.
+     */
+    public Register[] getArgumentRegisters() {
+        return argumentRegisters;
+    }
+
+    /**
+     * Returns the registers holding the results, in result order.
+     */
+    public Register[] getResultRegisters() {
+        return resultRegisters;
+    }
+}
@@ -0,0 +1,362 @@
+package ugo.prototype;
+
+import java.util.*;
+
+import ghidra.program.model.address.Address;
+import ghidra.program.model.address.AddressSetView;
+import ghidra.program.model.lang.Register;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.scalar.Scalar;
+import ghidra.program.model.symbol.FlowType;
+import ghidra.program.model.symbol.ReferenceManager;
+import ghidra.program.model.symbol.Symbol;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * Finds the register arguments and results of a function compiled with the Go register-based
+ * calling convention (ABIInternal, used on amd64 since Go 1.17).
+ *
+ * <p>Functions that check for stack growth spill every argument register to its stack slot before
+ * calling {@code runtime.morestack}, so the spills give the argument registers, their sizes and
+ * their order.  Functions without that path fall back to the argument registers read before being
+ * written at the start of the function.  Results are the leading integer and float result
+ * registers written on every path to a {@code RET}.
+ *
+ * <p>Arguments that do not fit in the registers, because they come after the ninth integer or
+ * fifteenth float or are aggregates too big to split, are passed on the stack.  They are the
+ * {@code RSP+offset} reads above the frame, below the spill slots of the register arguments.
+ */
+public class UgoRegisterAbiAnalyzer extends UgoPrototypeAnalyzer {
+
+    private static final String[] INTEGER_REGISTERS =
+            {"RAX", "RBX", "RCX", "RDI", "RSI", "R8", "R9", "R10", "R11"};
+    private static final int FLOAT_REGISTER_COUNT = 15;
+
+    private static final String MORESTACK_PREFIX = "runtime.morestack";
+    private static final Set<String> SPILL_MNEMONICS =
+            new HashSet<>(Arrays.asList("MOV", "MOVQ", "MOVSD", "MOVSS", "MOVUPS"));
+    private static final Set<String> ZEROING_MNEMONICS =
+            new HashSet<>(Arrays.asList("XOR", "XORPS", "PXOR"));
+
+    // how far the fallback and result scans look before giving up
+    private static final int MAX_PROLOGUE_INSTRUCTIONS = 64;
+    private static final int MAX_EPILOGUE_INSTRUCTIONS = 16;
+    // stack arguments further than this above the frame are ignored
+    private static final int MAX_ARGUMENT_OFFSET = 1 << 16;
+
+    private final Register stackPointer;
+    private final Register[] integerRegisters;
+    private final Register[] floatRegisters;
+    private final Map<Register, Integer> integerIndexes = new HashMap<>();
+    private final Map<Register, Integer> floatIndexes = new HashMap<>();
+    private final ReferenceManager referenceManager;
+
+    public UgoRegisterAbiAnalyzer(Program program) {
+        super(program);
+        this.stackPointer = program.getRegister("RSP");
+        this.referenceManager = program.getReferenceManager();
+        this.integerRegisters = new Register[INTEGER_REGISTERS.length];
+        for (int i = 0; i < INTEGER_REGISTERS.length; i++) {
+            integerRegisters[i] = program.getRegister(INTEGER_REGISTERS[i]);
+            integerIndexes.put(integerRegisters[i], i);
+        }
+        this.floatRegisters = new Register[FLOAT_REGISTER_COUNT];
+        for (int i = 0; i < FLOAT_REGISTER_COUNT; i++) {
+            floatRegisters[i] = program.getRegister("XMM" + i);
+            floatIndexes.put(floatRegisters[i], i);
+        }
+    }
+
+    @Override
+    public Result analyze(Function function, TaskMonitor monitor) {
+        Set<Function> callees = new LinkedHashSet<>();
+        Instruction morestackCall = null;
+        List<Instruction> returns = new ArrayList<>();
+        long frameSize = 0;
+        TreeSet<Long> stackReads = new TreeSet<>();
+
+        InstructionIterator iter = listing.getInstructions(function.getBody(), true);
+        while (iter.hasNext()) {
+            if (monitor.isCancelled()) {
+                break;
+            }
+            Instruction curr = iter.next();
+            addCallees(curr, callees);
+            if (morestackCall == null && isMorestackCall(curr)) {
+                morestackCall = curr;
+            } else if (curr.getFlowType().isTerminal() && curr.getMnemonicString().equals("RET")) {
+                returns.add(curr);
+            }
+            if (frameSize == 0) {
+                frameSize = getFrameAllocation(curr);
+            }
+            addStackRead(curr, frameSize, stackReads);
+        }
+
+        Register[] arguments;
+        long spillStart = Long.MAX_VALUE;
+        if (morestackCall != null) {
+            TreeMap<Long, Register> spills = findSpills(function.getBody(), morestackCall);
+            arguments = spills.values().toArray(new Register[0]);
+            if (!spills.isEmpty()) {
+                spillStart = spills.firstKey();
+            }
+        } else {
+            arguments = findArgumentsRead(function);
+        }
+        long[] stackArguments = stackReads.headSet(spillStart).stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+        Register[] results = findResults(function.getBody(), returns);
+
+        UgoRecoveredPrototype prototype = null;
+        if (arguments.length != 0 || stackArguments.length != 0 || results.length != 0) {
+            prototype = new UgoRecoveredPrototype(function, arguments, stackArguments, results);
+        }
+        return new Result(prototype, callees);
+    }
+
+    /**
+     * Returns the size of the frame the instruction allocates, if it is a {@code SUB RSP}.
+     */
+    private long getFrameAllocation(Instruction instruction) {
+        if (!instruction.getMnemonicString().equals("SUB") || instruction.getNumOperands() != 2) {
+            return 0;
+        }
+        Object[] destination = instruction.getOpObjects(0);
+        Object[] amount = instruction.getOpObjects(1);
+        if (destination.length != 1 || !stackPointer.equals(destination[0]) ||
+                amount.length != 1 || !(amount[0] instanceof Scalar)) {
+            return 0;
+        }
+        return Math.max(0, ((Scalar) amount[0]).getValue());
+    }
+
+    /**
+     * Adds the offset, relative to the stack pointer on entry, of a read above the frame.
+     */
+    private void addStackRead(Instruction instruction, long frameSize, Set<Long> stackReads) {
+        if (instruction.getNumOperands() < 2) {
+            return;
+        }
+        Object[] source = instruction.getOpObjects(1);
+        if (source.length != 2 || !stackPointer.equals(source[0]) ||
+                !(source[1] instanceof Scalar)) {
+            return;
+        }
+        // zero is the return address
+        long offset = ((Scalar) source[1]).getValue() - frameSize;
+        if (offset > 0 && offset < MAX_ARGUMENT_OFFSET) {
+            stackReads.add(offset);
+        }
+    }
+
+    private boolean isMorestackCall(Instruction instruction) {
+        if (!instruction.getFlowType().isCall()) {
+            return false;
+        }
+        for (Address target : instruction.getFlows()) {
+            Function callee = functionManager.getFunctionAt(target);
+            String name = null;
+            if (callee != null) {
+                name = callee.getName();
+            } else {
+                Symbol symbol = program.getSymbolTable().getPrimarySymbol(target);
+                if (symbol != null) {
+                    name = symbol.getName();
+                }
+            }
+            if (name != null && name.startsWith(MORESTACK_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the argument registers stored by the spill sequence just before the morestack call,
+     * keyed and ordered by their stack slots.
+     */
+    private TreeMap<Long, Register> findSpills(AddressSetView body, Instruction morestackCall) {
+        TreeMap<Long, Register> spills = new TreeMap<>();
+        Instruction prev = listing.getInstructionBefore(morestackCall.getMinAddress());
+        while (prev != null && body.contains(prev.getMinAddress())) {
+            String mnemonic = prev.getMnemonicString();
+            if (!mnemonic.equals("NOP")) {
+                if (!SPILL_MNEMONICS.contains(mnemonic) || prev.getNumOperands() != 2) {
+                    break;
+                }
+                Object[] slot = prev.getOpObjects(0);
+                Object[] source = prev.getOpObjects(1);
+                if (slot.length != 2 || !stackPointer.equals(slot[0]) ||
+                        !(slot[1] instanceof Scalar) || source.length != 1 ||
+                        !(source[0] instanceof Register)) {
+                    break;
+                }
+                Register register = (Register) source[0];
+                if (integerIndexOf(register) >= 0) {
+                    spills.put(((Scalar) slot[1]).getValue(), register);
+                } else if (floatIndexOf(register) >= 0) {
+                    int size = mnemonic.equals("MOVSS") ? 4 : 8;
+                    spills.put(((Scalar) slot[1]).getValue(), sized(register, size));
+                } else {
+                    break;
+                }
+            }
+            prev = listing.getInstructionBefore(prev.getMinAddress());
+        }
+        return spills;
+    }
+
+    /**
+     * Returns the argument registers read before being written at the start of the function.  Go
+     * assigns registers in order, so every register before the last one read is an argument too.
+     */
+    private Register[] findArgumentsRead(Function function) {
+        BitSet written = new BitSet();
+        int integerCount = 0;
+        int floatCount = 0;
+
+        AddressSetView body = function.getBody();
+        Instruction curr = listing.getInstructionAt(function.getEntryPoint());
+        for (int i = 0; i < MAX_PROLOGUE_INSTRUCTIONS && curr != null &&
+                body.contains(curr.getMinAddress()); i++) {
+            if (!isZeroing(curr)) {
+                for (Object input : curr.getInputObjects()) {
+                    if (!(input instanceof Register)) {
+                        continue;
+                    }
+                    int index = integerIndexOf((Register) input);
+                    if (index >= 0 && !written.get(index)) {
+                        integerCount = Math.max(integerCount, index + 1);
+                    }
+                    index = floatIndexOf((Register) input);
+                    if (index >= 0 && !written.get(INTEGER_REGISTERS.length + index)) {
+                        floatCount = Math.max(floatCount, index + 1);
+                    }
+                }
+            }
+            for (Object result : curr.getResultObjects()) {
+                if (result instanceof Register) {
+                    int index = integerIndexOf((Register) result);
+                    if (index >= 0) {
+                        written.set(index);
+                    }
+                    index = floatIndexOf((Register) result);
+                    if (index >= 0) {
+                        written.set(INTEGER_REGISTERS.length + index);
+                    }
+                }
+            }
+
+            FlowType flow = curr.getFlowType();
+            if (flow.isCall() || flow.isTerminal() || (flow.isJump() && !flow.isConditional())) {
+                break;
+            }
+            curr = curr.getNext();
+        }
+
+        Register[] arguments = new Register[integerCount + floatCount];
+        for (int i = 0; i < integerCount; i++) {
+            arguments[i] = integerRegisters[i];
+        }
+        for (int i = 0; i < floatCount; i++) {
+            arguments[integerCount + i] = sized(floatRegisters[i], 8);
+        }
+        return arguments;
+    }
+
+    /**
+     * Returns the leading integer result registers, then the leading float result registers,
+     * written in the block of every return.
+     */
+    private Register[] findResults(AddressSetView body, List<Instruction> returns) {
+        if (returns.isEmpty()) {
+            return new Register[0];
+        }
+        int count = INTEGER_REGISTERS.length;
+        int floatCount = FLOAT_REGISTER_COUNT;
+        BitSet written = new BitSet();
+        BitSet floatsWritten = new BitSet();
+        // single precision results are written with MOVSS on every path
+        BitSet doublePrecision = new BitSet();
+        for (Instruction ret : returns) {
+            written.clear();
+            floatsWritten.clear();
+            Instruction prev = ret;
+            for (int i = 0; i < MAX_EPILOGUE_INSTRUCTIONS; i++) {
+                // a jump target starts the block, and nothing before it is known to reach the return
+                if (referenceManager.hasReferencesTo(prev.getMinAddress())) {
+                    break;
+                }
+                prev = listing.getInstructionBefore(prev.getMinAddress());
+                if (prev == null || !body.contains(prev.getMinAddress()) ||
+                        prev.getFlowType().isCall() || prev.getFlowType().isJump() ||
+                        prev.getFlowType().isTerminal()) {
+                    break;
+                }
+                for (Object result : prev.getResultObjects()) {
+                    if (!(result instanceof Register)) {
+                        continue;
+                    }
+                    int index = integerIndexOf((Register) result);
+                    if (index >= 0) {
+                        written.set(index);
+                    }
+                    index = floatIndexOf((Register) result);
+                    if (index >= 0 && !floatsWritten.get(index)) {
+                        // the last write before the return decides the size
+                        floatsWritten.set(index);
+                        if (!prev.getMnemonicString().equals("MOVSS")) {
+                            doublePrecision.set(index);
+                        }
+                    }
+                }
+            }
+            count = Math.min(count, written.nextClearBit(0));
+            floatCount = Math.min(floatCount, floatsWritten.nextClearBit(0));
+            if (count == 0 && floatCount == 0) {
+                break;
+            }
+        }
+        Register[] results = Arrays.copyOf(integerRegisters, count + floatCount);
+        for (int i = 0; i < floatCount; i++) {
+            results[count + i] = sized(floatRegisters[i], doublePrecision.get(i) ? 8 : 4);
+        }
+        return results;
+    }
+
+    private boolean isZeroing(Instruction instruction) {
+        if (!ZEROING_MNEMONICS.contains(instruction.getMnemonicString()) ||
+                instruction.getNumOperands() != 2) {
+            return false;
+        }
+        Object[] destination = instruction.getOpObjects(0);
+        Object[] source = instruction.getOpObjects(1);
+        return destination.length == 1 && source.length == 1 && destination[0].equals(source[0]);
+    }
+
+    private int integerIndexOf(Register register) {
+        return indexOf(register, integerIndexes);
+    }
+
+    private int floatIndexOf(Register register) {
+        return indexOf(register, floatIndexes);
+    }
+
+    // looks through sub-registers such as EAX or XMM0_Qa to the ABI register they belong to
+    private static int indexOf(Register register, Map<Register, Integer> indexes) {
+        for (Register curr = register; curr != null; curr = curr.getParentRegister()) {
+            Integer index = indexes.get(curr);
+            if (index != null) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private Register sized(Register register, int size) {
+        Register sized = program.getRegister(register.getAddress(), size);
+        return sized != null ? sized : register;
+    }
+}
@@ -0,0 +1,132 @@
+package ugo.prototype;
+
+import java.util.*;
+
+import ghidra.program.model.lang.Register;
+import ghidra.program.model.listing.*;
+import ghidra.program.model.scalar.Scalar;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * Finds the stack arguments of a function compiled with the Go stack-based calling convention
+ * (ABI0, used by every Go release before 1.17).
+ *
+ * <p>Arguments are the {@code RSP+offset} operands above the frame allocated by the first
+ * {@code SUB RSP}.
+ */
+public class UgoStackArgumentAnalyzer extends UgoPrototypeAnalyzer {
+
+    // arguments further than this above the frame are ignored; Go never passes that much on the
+    // stack, and it bounds the scratch bitmap
+    private static final int MAX_ARGUMENT_OFFSET = 1 << 16;
+
+    private final Register stackPointer;
+    private final ThreadLocal<ArgumentSlots> scratch = ThreadLocal.withInitial(ArgumentSlots::new);
+
+    public UgoStackArgumentAnalyzer(Program program) {
+        super(program);
+        Register rsp = program.getLanguage().getRegister("RSP");
+        this.stackPointer = rsp != null ? rsp : program.getCompilerSpec().getStackPointer();
+    }
+
+    @Override
+    public Result analyze(Function function, TaskMonitor monitor) {
+        Set<Function> callees = new LinkedHashSet<>();
+        long frameSize = 0;
+        boolean hasFrame = true;
+        ArgumentSlots slots = scratch.get();
+
+        InstructionIterator iter = listing.getInstructions(function.getBody(), true);
+        while (iter.hasNext()) {
+            if (monitor.isCancelled()) {
+                break;
+            }
+            Instruction curr = iter.next();
+            addCallees(curr, callees);
+            if (!hasFrame) {
+                continue;
+            }
+
+            // find the first SUB RSP
+            if (frameSize == 0) {
+                if (curr.getMnemonicString().equals("SUB")) {
+                    Object[] objs = curr.getOpObjects(1);
+                    if (objs.length == 0 || !(objs[0] instanceof Scalar) ||
+                            ((Scalar) objs[0]).getValue() == 0) {
+                        hasFrame = false;
+                    } else {
+                        frameSize = ((Scalar) objs[0]).getValue();
+                    }
+                }
+                continue;
+            }
+
+            if (curr.getNumOperands() < 2) {
+                continue;
+            }
+            Object[] opObjects = curr.getOpObjects(1);
+            if (opObjects.length < 2) {
+                continue; // we need something with RSP+offset
+            }
+            if (!stackPointer.equals(opObjects[0]) || !(opObjects[1] instanceof Scalar)) {
+                continue; // RSP + register is hard
+            }
+
+            long offset = ((Scalar) opObjects[1]).getValue() - frameSize;
+            if (offset > 0 && offset < MAX_ARGUMENT_OFFSET) {
+                slots.add((int) offset);
+            }
+        }
+
+        UgoRecoveredPrototype prototype = null;
+        if (frameSize != 0 && !slots.isEmpty()) {
+            prototype = new UgoRecoveredPrototype(function, slots.toArray());
+        }
+        slots.clear();
+        return new Result(prototype, callees);
+    }
+
+    /**
+     * A reusable bitmap of the argument offsets seen in one function.  Each analyzing thread keeps
+     * its own, so offsets are never boxed, collected into lists or sorted.
+     */
+    private static class ArgumentSlots {
+        private long[] bits = new long[4];
+        private int maxWord = -1;
+
+        void add(int offset) {
+            int word = offset >>> 6;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(bits.length * 2, word + 1));
+            }
+            bits[word] |= 1L << offset;
+            maxWord = Math.max(maxWord, word);
+        }
+
+        boolean isEmpty() {
+            return maxWord < 0;
+        }
+
+        long[] toArray() {
+            int count = 0;
+            for (int word = 0; word <= maxWord; word++) {
+                count += Long.bitCount(bits[word]);
+            }
+            long[] offsets = new long[count];
+            int next = 0;
+            for (int word = 0; word <= maxWord; word++) {
+                long remaining = bits[word];
+                while (remaining != 0) {
+                    offsets[next++] = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                    remaining &= remaining - 1;
+                }
+            }
+            return offsets;
+        }
+
+        void clear() {
+            Arrays.fill(bits, 0, maxWord + 1, 0L);
+            maxWord = -1;
+        }
+    }
+}
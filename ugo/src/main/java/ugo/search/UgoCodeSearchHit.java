@@ -0,0 +1,43 @@
+package ugo.search;
+
+import ghidra.program.model.address.Address;
+import ghidra.program.model.listing.Function;
+
+/**
+ * One line of decompiled C that matched a search.
+ */
+public class UgoCodeSearchHit {
+    private final Function function;
+    private final int lineNumber;
+    private final String text;
+    private final Address address;
+
+    UgoCodeSearchHit(Function function, int lineNumber, String text, Address address) {
+        this.function = function;
+        this.lineNumber = lineNumber;
+        this.text = text;
+        this.address = address;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the 1-based line number, as shown in the Decompiler window.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the first address of the line, or the function entry point if the line has none.
+     */
+    public Address getAddress() {
+        return address;
+    }
+}
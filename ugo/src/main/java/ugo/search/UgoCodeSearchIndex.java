@@ -0,0 +1,345 @@
+package ugo.search;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import ghidra.app.decompiler.*;
+import ghidra.framework.model.DomainObjectChangedEvent;
+import ghidra.framework.model.DomainObjectListener;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ugo.UgoBatchDecompileResult;
+import ugo.UgoDecompileResultSink;
+import ugo.cache.UgoCacheDependencyIndex;
+
+/**
+ * A program-wide index of decompiled C, for searching every function at once.
+ *
+ * <p>Functions are added as they are decompiled, whether they are shown in a Decompiler window,
+ * prefetched, loaded from the disk cache or decompiled in bulk through this class's
+ * {@link UgoDecompileResultSink} side.  Every line is split into terms: the text of each token
+ * with a letter or digit in it, and the words inside that text, so that
+ * {@code runtime.morestack_noctxt} is found by its full name as well as by
+ * {@code morestack_noctxt}.  An inverted index maps each lower-cased term to the lines it is on.
+ *
+ * <p>Entries are dropped when a program change may alter their output, using the same dependency
+ * tracking as the decompiler cache.  The index listens to every program it holds functions of
+ * itself, so each change is handled once however many Decompiler windows show the program.
+ */
+public class UgoCodeSearchIndex implements UgoDecompileResultSink, DomainObjectListener {
+
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^A-Za-z0-9_]+");
+
+    private final Map<Program, ProgramIndex> programs = new HashMap<>();
+
+    // lines are extracted off the Swing thread for functions added from the Decompiler window
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Ugo Code Search Indexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Indexes the decompiled output of a function in the background, replacing what was indexed
+     * for it before.  The results must match the program as it is now; they are dropped if it
+     * changes before they are indexed.
+     */
+    public void add(Function function, DecompileResults results) {
+        if (results == null || !results.decompileCompleted()) {
+            return;
+        }
+        long modificationNumber = function.getProgram().getModificationNumber();
+        indexer.execute(() -> {
+            try {
+                index(function, results, modificationNumber);
+            } catch (RuntimeException e) {
+                Msg.debug(this, "Unable to index " + function.getName(), e);
+            }
+        });
+    }
+
+    @Override
+    public void resultReady(UgoBatchDecompileResult result) {
+        DecompileResults results = result.getDecompileResults();
+        if (result.isSuccess() && results != null && results.decompileCompleted()) {
+            index(result.getFunction(), results, result.getModificationNumber());
+        }
+    }
+
+    private void index(Function function, DecompileResults results, long modificationNumber) {
+        IndexedFunction indexed = IndexedFunction.create(function, results.getCCodeMarkup());
+        if (indexed == null) {
+            return;
+        }
+        Program program = function.getProgram();
+        synchronized (this) {
+            // a change since the results were produced may already have been invalidated, and
+            // would not drop them
+            if (program.isClosed() || program.getModificationNumber() != modificationNumber) {
+                return;
+            }
+            ProgramIndex index = programs.get(program);
+            if (index == null) {
+                index = new ProgramIndex();
+                programs.put(program, index);
+                program.addListener(this);
+            }
+            index.put(indexed);
+            // together with the put, so an invalidation sees either both or neither
+            index.dependencies.add(function, results.getHighFunction());
+        }
+    }
+
+    private synchronized ProgramIndex getProgramIndex(Program program) {
+        return programs.get(program);
+    }
+
+    /**
+     * Returns whether the function has been indexed.
+     */
+    public synchronized boolean contains(Function function) {
+        ProgramIndex index = programs.get(function.getProgram());
+        return index != null && index.functions.containsKey(function.getEntryPoint());
+    }
+
+    /**
+     * Returns the number of functions of the program that have been indexed.
+     */
+    public synchronized int getFunctionCount(Program program) {
+        ProgramIndex index = programs.get(program);
+        return index == null ? 0 : index.functions.size();
+    }
+
+    @Override
+    public void domainObjectChanged(DomainObjectChangedEvent event) {
+        if (event.getSource() instanceof Program) {
+            invalidate((Program) event.getSource(), event);
+        }
+    }
+
+    /**
+     * Drops the functions whose decompiled output may be changed by the given program change.
+     */
+    public void invalidate(Program program, DomainObjectChangedEvent event) {
+        ProgramIndex index = getProgramIndex(program);
+        if (index == null) {
+            return;
+        }
+        Set<Function> affected = index.dependencies.getAffectedFunctions(program, event);
+        synchronized (this) {
+            for (Function function : affected) {
+                index.remove(function.getEntryPoint());
+                index.dependencies.remove(function);
+            }
+        }
+    }
+
+    /**
+     * Forgets everything indexed for the program.
+     */
+    public synchronized void programClosed(Program program) {
+        if (programs.remove(program) != null) {
+            program.removeListener(this);
+        }
+    }
+
+    /**
+     * Returns the lines containing the query, ignoring case, ordered by function entry point and
+     * line.  The query may span several tokens, such as {@code runtime.newobject(} or
+     * {@code x = 0}: the lines with a term containing each of its words are looked up, and then
+     * checked against the whole query.
+     *
+     * @param program the program to search
+     * @param query the text to find
+     * @param maxHits the most lines to return
+     */
+    public synchronized List<UgoCodeSearchHit> search(Program program, String query, int maxHits) {
+        ProgramIndex index = programs.get(program);
+        String text = query.trim().toLowerCase();
+        if (index == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Address, BitSet> candidates = null;
+        for (String word : WORD_SEPARATOR.split(text)) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            Map<Address, BitSet> matches = findTerm(index, word);
+            if (candidates != null) {
+                matches.keySet().retainAll(candidates.keySet());
+                for (Map.Entry<Address, BitSet> match : matches.entrySet()) {
+                    match.getValue().and(candidates.get(match.getKey()));
+                }
+            }
+            candidates = matches;
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        if (candidates == null) {
+            // only punctuation, which is not indexed, so every line is a candidate
+            candidates = new TreeMap<>();
+            for (IndexedFunction function : index.functions.values()) {
+                BitSet lines = new BitSet();
+                lines.set(0, function.lines.length);
+                candidates.put(function.function.getEntryPoint(), lines);
+            }
+        }
+
+        List<UgoCodeSearchHit> hits = new ArrayList<>();
+        for (Map.Entry<Address, BitSet> candidate : candidates.entrySet()) {
+            IndexedFunction function = index.functions.get(candidate.getKey());
+            BitSet lines = candidate.getValue();
+            for (int line = lines.nextSetBit(0); line >= 0; line = lines.nextSetBit(line + 1)) {
+                if (!function.lines[line].toLowerCase().contains(text)) {
+                    continue;
+                }
+                if (hits.size() >= maxHits) {
+                    return hits;
+                }
+                hits.add(function.getHit(line));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the lines of every function with a term containing the word, by entry point.
+     */
+    private static Map<Address, BitSet> findTerm(ProgramIndex index, String word) {
+        // the vocabulary is far smaller than the text, so scanning it for partial matches is cheap
+        Map<Address, BitSet> matches = new TreeMap<>();
+        for (Map.Entry<String, Map<Address, BitSet>> posting : index.postings.entrySet()) {
+            if (!posting.getKey().contains(word)) {
+                continue;
+            }
+            for (Map.Entry<Address, BitSet> lines : posting.getValue().entrySet()) {
+                matches.computeIfAbsent(lines.getKey(), a -> new BitSet()).or(lines.getValue());
+            }
+        }
+        return matches;
+    }
+
+    public void dispose() {
+        indexer.shutdownNow();
+        synchronized (this) {
+            for (Program program : programs.keySet()) {
+                program.removeListener(this);
+            }
+            programs.clear();
+        }
+    }
+
+    /**
+     * The indexed functions of one program.
+     */
+    private static class ProgramIndex {
+        private final Map<Address, IndexedFunction> functions = new HashMap<>();
+        private final Map<String, Map<Address, BitSet>> postings = new HashMap<>();
+        private final UgoCacheDependencyIndex dependencies = new UgoCacheDependencyIndex();
+
+        void put(IndexedFunction indexed) {
+            Address entry = indexed.function.getEntryPoint();
+            remove(entry);
+            functions.put(entry, indexed);
+            for (Map.Entry<String, BitSet> term : indexed.terms.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), t -> new HashMap<>())
+                        .put(entry, term.getValue());
+            }
+        }
+
+        void remove(Address entry) {
+            IndexedFunction indexed = functions.remove(entry);
+            if (indexed == null) {
+                return;
+            }
+            for (String term : indexed.terms.keySet()) {
+                Map<Address, BitSet> functionLines = postings.get(term);
+                if (functionLines != null) {
+                    functionLines.remove(entry);
+                    if (functionLines.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The lines and terms of one decompiled function.
+     */
+    private static class IndexedFunction {
+        private final Function function;
+        private final String[] lines;
+        private final Address[] lineAddresses;
+        private final Map<String, BitSet> terms;
+
+        private IndexedFunction(Function function, String[] lines, Address[] lineAddresses,
+                                Map<String, BitSet> terms) {
+            this.function = function;
+            this.lines = lines;
+            this.lineAddresses = lineAddresses;
+            this.terms = terms;
+        }
+
+        static IndexedFunction create(Function function, ClangTokenGroup markup) {
+            if (markup == null) {
+                return null;
+            }
+            List<ClangLine> clangLines = new PrettyPrinter(function, markup).getLines();
+            String[] lines = new String[clangLines.size()];
+            Address[] lineAddresses = new Address[clangLines.size()];
+            Map<String, BitSet> terms = new HashMap<>();
+
+            for (int i = 0; i < lines.length; i++) {
+                StringBuilder buffy = new StringBuilder();
+                for (ClangToken token : clangLines.get(i).getAllTokens()) {
+                    String text = token.getText();
+                    buffy.append(text);
+                    if (lineAddresses[i] == null) {
+                        lineAddresses[i] = token.getMinAddress();
+                    }
+                    addTerms(text, i, terms);
+                }
+                lines[i] = buffy.toString().trim();
+            }
+            return new IndexedFunction(function, lines, lineAddresses, terms);
+        }
+
+        private static void addTerms(String text, int line, Map<String, BitSet> terms) {
+            String term = text.trim().toLowerCase();
+            if (term.isEmpty() || !hasLetterOrDigit(term)) {
+                return;
+            }
+            terms.computeIfAbsent(term, t -> new BitSet()).set(line);
+            for (String word : WORD_SEPARATOR.split(term)) {
+                if (!word.isEmpty() && !word.equals(term)) {
+                    terms.computeIfAbsent(word, t -> new BitSet()).set(line);
+                }
+            }
+        }
+
+        private static boolean hasLetterOrDigit(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (Character.isLetterOrDigit(text.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        UgoCodeSearchHit getHit(int line) {
+            Address address = lineAddresses[line];
+            if (address == null) {
+                address = function.getEntryPoint();
+            }
+            return new UgoCodeSearchHit(function, line + 1, lines[line], address);
+        }
+    }
+}
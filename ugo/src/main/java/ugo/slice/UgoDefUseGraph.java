@@ -0,0 +1,272 @@
+package ugo.slice;
+
+import java.util.*;
+
+import ghidra.program.model.pcode.HighFunction;
+import ghidra.program.model.pcode.PcodeOp;
+import ghidra.program.model.pcode.PcodeOpAST;
+import ghidra.program.model.pcode.Varnode;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * The SSA def-use graph of a decompiled function, in compact int-indexed arrays.
+ *
+ * <p>Every varnode and op of the function is numbered once.  The inputs of each op and the
+ * readers of each varnode are stored as offsets into shared int arrays, so a slice is a walk
+ * over ints and bit sets rather than over varnode iterators and hash sets.  Recently computed
+ * slices are remembered, and a slice that reaches a varnode whose slice is known takes that
+ * slice as a whole instead of walking it again.
+ *
+ * <p>The slices are the same as those of {@code DecompilerUtils}.  A graph may be sliced from
+ * several threads at once.
+ */
+public class UgoDefUseGraph {
+
+    // slices remembered per direction
+    private static final int MAX_MEMOIZED_SLICES = 256;
+    private static final int NONE = -1;
+
+    private final Map<Varnode, Integer> varnodeIds;
+    private final Varnode[] varnodes;
+    private final PcodeOp[] ops;
+
+    private final int[] defOp;             // varnode -> op writing it, or NONE
+    private final int[] opOutput;          // op -> varnode written, or NONE
+    private final int[] inputStart;        // op -> offset into inputs, with ops.length + 1 entries
+    private final int[] inputs;
+    private final int[] descendantStart;   // varnode -> offset into descendants
+    private final int[] descendants;
+
+    private final Map<Integer, Reach> forwardSlices = createMemo();
+    private final Map<Integer, Reach> backwardSlices = createMemo();
+
+    private UgoDefUseGraph(Map<Varnode, Integer> varnodeIds, Varnode[] varnodes, PcodeOp[] ops,
+                           int[] opOutput, int[] inputStart, int[] inputs) {
+        this.varnodeIds = varnodeIds;
+        this.varnodes = varnodes;
+        this.ops = ops;
+        this.opOutput = opOutput;
+        this.inputStart = inputStart;
+        this.inputs = inputs;
+
+        defOp = new int[varnodes.length];
+        Arrays.fill(defOp, NONE);
+        for (int op = 0; op < ops.length; op++) {
+            if (opOutput[op] != NONE) {
+                defOp[opOutput[op]] = op;
+            }
+        }
+
+        // invert the op inputs into the readers of each varnode
+        descendantStart = new int[varnodes.length + 1];
+        int inputCount = inputStart[ops.length];
+        for (int i = 0; i < inputCount; i++) {
+            descendantStart[inputs[i] + 1]++;
+        }
+        for (int vn = 0; vn < varnodes.length; vn++) {
+            descendantStart[vn + 1] += descendantStart[vn];
+        }
+        descendants = new int[inputCount];
+        int[] next = Arrays.copyOf(descendantStart, varnodes.length);
+        for (int op = 0; op < ops.length; op++) {
+            for (int i = inputStart[op]; i < inputStart[op + 1]; i++) {
+                descendants[next[inputs[i]]++] = op;
+            }
+        }
+    }
+
+    /**
+     * Builds the graph of every op of the given function.
+     *
+     * @throws CancelledException if the monitor was cancelled
+     */
+    public static UgoDefUseGraph build(HighFunction highFunction, TaskMonitor monitor)
+            throws CancelledException {
+        Map<Varnode, Integer> varnodeIds = new HashMap<>();
+        List<Varnode> varnodes = new ArrayList<>();
+        List<PcodeOp> ops = new ArrayList<>();
+        int[] opOutput = new int[64];
+        int[] inputStart = new int[65];
+        int[] inputs = new int[128];
+        int inputCount = 0;
+
+        Iterator<PcodeOpAST> iter = highFunction.getPcodeOps();
+        while (iter.hasNext()) {
+            monitor.checkCanceled();
+            PcodeOp op = iter.next();
+            int id = ops.size();
+            ops.add(op);
+            if (id + 1 >= opOutput.length) {
+                opOutput = Arrays.copyOf(opOutput, opOutput.length * 2);
+                inputStart = Arrays.copyOf(inputStart, inputStart.length * 2);
+            }
+            Varnode output = op.getOutput();
+            opOutput[id] = output != null ? getId(varnodeIds, varnodes, output) : NONE;
+            inputStart[id] = inputCount;
+            for (int i = 0; i < op.getNumInputs(); i++) {
+                Varnode input = op.getInput(i);
+                if (input == null) {
+                    continue;
+                }
+                if (inputCount == inputs.length) {
+                    inputs = Arrays.copyOf(inputs, inputs.length * 2);
+                }
+                inputs[inputCount++] = getId(varnodeIds, varnodes, input);
+            }
+        }
+        inputStart[ops.size()] = inputCount;
+
+        return new UgoDefUseGraph(varnodeIds, varnodes.toArray(new Varnode[0]),
+                ops.toArray(new PcodeOp[0]), opOutput, inputStart, inputs);
+    }
+
+    private static int getId(Map<Varnode, Integer> varnodeIds, List<Varnode> varnodes,
+                             Varnode varnode) {
+        Integer id = varnodeIds.get(varnode);
+        if (id == null) {
+            id = varnodes.size();
+            varnodes.add(varnode);
+            varnodeIds.put(varnode, id);
+        }
+        return id;
+    }
+
+    private static Map<Integer, Reach> createMemo() {
+        return Collections.synchronizedMap(new LinkedHashMap<Integer, Reach>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Reach> eldest) {
+                return size() > MAX_MEMOIZED_SLICES;
+            }
+        });
+    }
+
+    public int getVarnodeCount() {
+        return varnodes.length;
+    }
+
+    public int getPcodeOpCount() {
+        return ops.length;
+    }
+
+    /**
+     * Returns the slice from the given varnode if it has already been computed.
+     *
+     * @return the slice, or null if it has not been computed or the varnode is not part of this
+     * function
+     */
+    public UgoSlice getMemoizedSlice(Varnode seed, boolean forward) {
+        Integer id = varnodeIds.get(seed);
+        if (id == null) {
+            return null;
+        }
+        Reach reach = (forward ? forwardSlices : backwardSlices).get(id);
+        return reach != null ? toSlice(reach) : null;
+    }
+
+    /**
+     * Returns the varnodes reached from the given one by following each op from its inputs to its
+     * output (forward) or from its output to its inputs (backward), along with those ops.
+     *
+     * @return the slice, or null if the varnode is not part of this function
+     * @throws CancelledException if the monitor was cancelled
+     */
+    public UgoSlice getSlice(Varnode seed, boolean forward, TaskMonitor monitor)
+            throws CancelledException {
+        Integer id = varnodeIds.get(seed);
+        if (id == null) {
+            return null;
+        }
+        Map<Integer, Reach> memo = forward ? forwardSlices : backwardSlices;
+        Reach reach = memo.get(id);
+        if (reach == null) {
+            reach = walk(id, forward, memo, monitor);
+            memo.put(id, reach);
+        }
+        return toSlice(reach);
+    }
+
+    private Reach walk(int seed, boolean forward, Map<Integer, Reach> memo, TaskMonitor monitor)
+            throws CancelledException {
+        Walk walk = new Walk(memo);
+        walk.visit(seed);
+        while (walk.size > 0) {
+            monitor.checkCanceled();
+            int vn = walk.worklist[--walk.size];
+            if (forward) {
+                for (int d = descendantStart[vn]; d < descendantStart[vn + 1]; d++) {
+                    int op = descendants[d];
+                    walk.ops.set(op);
+                    if (opOutput[op] != NONE) {
+                        walk.visit(opOutput[op]);
+                    }
+                }
+            } else if (defOp[vn] != NONE) {
+                int op = defOp[vn];
+                walk.ops.set(op);
+                for (int i = inputStart[op]; i < inputStart[op + 1]; i++) {
+                    walk.visit(inputs[i]);
+                }
+            }
+        }
+        return new Reach(walk.varnodes, walk.ops);
+    }
+
+    private UgoSlice toSlice(Reach reach) {
+        Set<Varnode> sliceVarnodes = new HashSet<>();
+        for (int i = reach.varnodes.nextSetBit(0); i >= 0; i = reach.varnodes.nextSetBit(i + 1)) {
+            sliceVarnodes.add(varnodes[i]);
+        }
+        Set<PcodeOp> sliceOps = new HashSet<>();
+        for (int i = reach.ops.nextSetBit(0); i >= 0; i = reach.ops.nextSetBit(i + 1)) {
+            sliceOps.add(ops[i]);
+        }
+        return new UgoSlice(sliceVarnodes, sliceOps);
+    }
+
+    /**
+     * The state of one slice being computed.
+     */
+    private class Walk {
+        private final Map<Integer, Reach> memo;
+        private final BitSet varnodes = new BitSet(UgoDefUseGraph.this.varnodes.length);
+        private final BitSet ops = new BitSet(UgoDefUseGraph.this.ops.length);
+        private int[] worklist = new int[16];
+        private int size;
+
+        Walk(Map<Integer, Reach> memo) {
+            this.memo = memo;
+        }
+
+        void visit(int vn) {
+            if (varnodes.get(vn)) {
+                return;
+            }
+            Reach known = memo.get(vn);
+            if (known != null) {
+                // a known slice is closed, so it need not be walked again
+                varnodes.or(known.varnodes);
+                ops.or(known.ops);
+                return;
+            }
+            varnodes.set(vn);
+            if (size == worklist.length) {
+                worklist = Arrays.copyOf(worklist, size * 2);
+            }
+            worklist[size++] = vn;
+        }
+    }
+
+    /**
+     * The varnodes and ops of one slice, by number.
+     */
+    private static class Reach {
+        private final BitSet varnodes;
+        private final BitSet ops;
+
+        Reach(BitSet varnodes, BitSet ops) {
+            this.varnodes = varnodes;
+            this.ops = ops;
+        }
+    }
+}
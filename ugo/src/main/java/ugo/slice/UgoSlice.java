@@ -0,0 +1,34 @@
+package ugo.slice;
+
+import java.util.Collections;
+import java.util.Set;
+
+import ghidra.program.model.pcode.PcodeOp;
+import ghidra.program.model.pcode.Varnode;
+
+/**
+ * The varnodes and p-code ops reached by a forward or backward slice from one varnode.
+ */
+public class UgoSlice {
+    private final Set<Varnode> varnodes;
+    private final Set<PcodeOp> pcodeOps;
+
+    public UgoSlice(Set<Varnode> varnodes, Set<PcodeOp> pcodeOps) {
+        this.varnodes = Collections.unmodifiableSet(varnodes);
+        this.pcodeOps = Collections.unmodifiableSet(pcodeOps);
+    }
+
+    /**
+     * Returns the varnodes of the slice, including the varnode it starts from.
+     */
+    public Set<Varnode> getVarnodes() {
+        return varnodes;
+    }
+
+    /**
+     * Returns the ops that read (forward) or write (backward) the varnodes of the slice.
+     */
+    public Set<PcodeOp> getPcodeOps() {
+        return pcodeOps;
+    }
+}
@@ -0,0 +1,68 @@
+package ugo.slice;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import ghidra.app.decompiler.component.DecompilerUtils;
+import ghidra.program.model.pcode.HighFunction;
+import ghidra.program.model.pcode.Varnode;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * The def-use graphs of recently sliced functions.  A graph is built the first time a function is
+ * sliced and kept, along with its slices, for as long as the decompiled function is.  A new
+ * decompilation produces a new {@link HighFunction}, so a graph never outlives the results it was
+ * built from.
+ */
+public class UgoSliceCache {
+
+    private static final int MAX_CACHED_FUNCTIONS = 8;
+
+    //@formatter:off
+    private final Cache<HighFunction, UgoDefUseGraph> graphs = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(MAX_CACHED_FUNCTIONS)
+            .build();
+    //@formatter:on
+
+    /**
+     * Returns the slice from the given varnode if it can be answered without any work.
+     *
+     * @return the slice, or null if it must be computed
+     */
+    public UgoSlice getCachedSlice(HighFunction highFunction, Varnode seed, boolean forward) {
+        UgoDefUseGraph graph = graphs.getIfPresent(highFunction);
+        return graph != null ? graph.getMemoizedSlice(seed, forward) : null;
+    }
+
+    /**
+     * Returns the forward or backward slice from the given varnode, building the graph of the
+     * function first if needed.
+     *
+     * @throws CancelledException if the monitor was cancelled
+     */
+    public UgoSlice getSlice(HighFunction highFunction, Varnode seed, boolean forward,
+                             TaskMonitor monitor) throws CancelledException {
+        UgoDefUseGraph graph = graphs.getIfPresent(highFunction);
+        if (graph == null) {
+            monitor.setMessage("Building def-use graph...");
+            graph = UgoDefUseGraph.build(highFunction, monitor);
+            graphs.put(highFunction, graph);
+        }
+        monitor.setMessage("Computing slice...");
+        UgoSlice slice = graph.getSlice(seed, forward, monitor);
+        if (slice == null) {
+            // not one of the function's varnodes; slice it the slow way
+            slice = forward
+                    ? new UgoSlice(DecompilerUtils.getForwardSlice(seed),
+                            DecompilerUtils.getForwardSliceToPCodeOps(seed))
+                    : new UgoSlice(DecompilerUtils.getBackwardSlice(seed),
+                            DecompilerUtils.getBackwardSliceToPCodeOps(seed));
+        }
+        return slice;
+    }
+
+    public void clear() {
+        graphs.invalidateAll();
+    }
+}
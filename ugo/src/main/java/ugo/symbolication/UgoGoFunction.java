@@ -0,0 +1,83 @@
+package ugo.symbolication;
+
+/**
+ * A function described by the Go pclntab.
+ */
+public class UgoGoFunction {
+    private final int index;
+    private final long entry;
+    private final long end;
+    private final String name;
+    private final int argsSize;
+    private final int frameSize;
+    private final String sourceFile;
+    private final int sourceLine;
+
+    UgoGoFunction(int index, long entry, long end, String name, int argsSize, int frameSize,
+                  String sourceFile, int sourceLine) {
+        this.index = index;
+        this.entry = entry;
+        this.end = end;
+        this.name = name;
+        this.argsSize = argsSize;
+        this.frameSize = frameSize;
+        this.sourceFile = sourceFile;
+        this.sourceLine = sourceLine;
+    }
+
+    /**
+     * Returns the position of the function in the pclntab function table.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public long getEntry() {
+        return entry;
+    }
+
+    /**
+     * Returns the address just past the end of the function.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the size in bytes of the arguments and results, or a negative value if unknown.
+     */
+    public int getArgsSize() {
+        return argsSize;
+    }
+
+    /**
+     * Returns the largest stack pointer adjustment made by the function, excluding the return
+     * address.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the source file of the entry point, or null if it was not decoded or is unknown.
+     */
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * Returns the source line of the entry point, or 0 if it was not decoded or is unknown.
+     */
+    public int getSourceLine() {
+        return sourceLine;
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + Long.toHexString(entry);
+    }
+}
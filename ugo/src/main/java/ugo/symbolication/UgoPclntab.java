@@ -0,0 +1,460 @@
+package ugo.symbolication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A reader for the Go runtime's pc/line table (pclntab), the table behind
+ * {@code runtime.moduledata} that maps program counters to function names, stack frame sizes and
+ * source positions.  It is present, and not stripped, in every Go binary.
+ *
+ * <p>The table is read in place through a {@link ByteBuffer}, which may be a memory mapping of the
+ * executable, so nothing is copied up front.  Names are decoded when asked for and the pc-value
+ * tables are walked without allocating.  Reads never move the position of the buffer, so a parsed
+ * table can be used from several threads at once.
+ *
+ * <p>The layouts of Go 1.2 to 1.15, Go 1.16, Go 1.18 and Go 1.20 and later are supported.
+ */
+public final class UgoPclntab {
+
+    /**
+     * The table layouts, identified by the magic number at the start of the table.
+     */
+    public enum Version {
+        GO_1_2(0xfffffffb),
+        GO_1_16(0xfffffffa),
+        GO_1_18(0xfffffff0),
+        GO_1_20(0xfffffff1);
+
+        private final int magic;
+
+        Version(int magic) {
+            this.magic = magic;
+        }
+
+        public int getMagic() {
+            return magic;
+        }
+
+        static Version fromMagic(int magic) {
+            for (Version version : values()) {
+                if (version.magic == magic) {
+                    return version;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Receives the source positions of a function, one run of instructions at a time.
+     */
+    public interface LineVisitor {
+        /**
+         * @param start the first address of the run
+         * @param end the address just past the run
+         * @param file the source file, or null if unknown
+         * @param line the source line
+         */
+        void visit(long start, long end, String file, int line);
+    }
+
+    private static final int UNKNOWN_FILE = -1;
+
+    private final ByteBuffer table;
+    private final Version version;
+    private final int quantum;
+    private final int pointerSize;
+    private final int functionCount;
+    private final long textStart;
+
+    private final int functabOffset;
+    private final int functabStride;
+    private final int funcDataBase;
+    private final int funcnameBase;
+    private final int pctabBase;
+    private final int cutabBase;
+    private final int filetabBase;
+
+    // file names are shared by many functions
+    private final Map<Integer, String> fileNames = new ConcurrentHashMap<>();
+
+    private UgoPclntab(ByteBuffer table, Version version) throws IOException {
+        this.table = table;
+        this.version = version;
+        this.quantum = table.get(6) & 0xff;
+        this.pointerSize = table.get(7) & 0xff;
+        if (table.get(4) != 0 || table.get(5) != 0 || (quantum != 1 && quantum != 2 &&
+                quantum != 4) || (pointerSize != 4 && pointerSize != 8)) {
+            throw new IOException("Invalid pclntab header");
+        }
+
+        functionCount = toInt(readPointer(8));
+        switch (version) {
+            case GO_1_2:
+                textStart = 0;
+                functabOffset = 8 + pointerSize;
+                functabStride = 2 * pointerSize;
+                funcDataBase = 0;
+                funcnameBase = 0;
+                pctabBase = 0;
+                cutabBase = 0;
+                filetabBase = table.getInt(
+                        functabOffset + functionCount * functabStride + pointerSize);
+                break;
+            case GO_1_16:
+                textStart = 0;
+                funcnameBase = toInt(readPointer(8 + 2 * pointerSize));
+                cutabBase = toInt(readPointer(8 + 3 * pointerSize));
+                filetabBase = toInt(readPointer(8 + 4 * pointerSize));
+                pctabBase = toInt(readPointer(8 + 5 * pointerSize));
+                funcDataBase = toInt(readPointer(8 + 6 * pointerSize));
+                functabOffset = funcDataBase;
+                functabStride = 2 * pointerSize;
+                break;
+            default:
+                textStart = readPointer(8 + 2 * pointerSize);
+                funcnameBase = toInt(readPointer(8 + 3 * pointerSize));
+                cutabBase = toInt(readPointer(8 + 4 * pointerSize));
+                filetabBase = toInt(readPointer(8 + 5 * pointerSize));
+                pctabBase = toInt(readPointer(8 + 6 * pointerSize));
+                funcDataBase = toInt(readPointer(8 + 7 * pointerSize));
+                functabOffset = funcDataBase;
+                functabStride = 8;
+                break;
+        }
+
+        long functabEnd = (long) functabOffset + (long) (functionCount + 1) * functabStride;
+        if (functionCount < 0 || functabEnd > table.limit()) {
+            throw new IOException("Invalid pclntab function table");
+        }
+    }
+
+    /**
+     * Parses the table starting at the current position of the buffer.  The buffer is not
+     * modified; its remaining bytes must cover the whole table.
+     *
+     * @param buffer the bytes of the table
+     * @return the parsed table
+     * @throws IOException if the buffer does not start with a supported pclntab
+     */
+    public static UgoPclntab parse(ByteBuffer buffer) throws IOException {
+        ByteBuffer table = buffer.slice();
+        if (table.limit() < 16) {
+            throw new IOException("Truncated pclntab header");
+        }
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            table.order(order);
+            Version version = Version.fromMagic(table.getInt(0));
+            if (version != null) {
+                return new UgoPclntab(table, version);
+            }
+        }
+        throw new IOException("Unsupported pclntab magic");
+    }
+
+    /**
+     * Returns true if the bytes at the given offset look like the header of a pclntab.  Used
+     * to find the table in binaries whose section names have been stripped.
+     */
+    public static boolean isHeader(ByteBuffer buffer, int offset) {
+        if (offset < 0 || offset + 8 > buffer.limit()) {
+            return false;
+        }
+        int magic = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(offset);
+        if (Version.fromMagic(magic) == null && Version.fromMagic(Integer.reverseBytes(magic)) == null) {
+            return false;
+        }
+        int quantum = buffer.get(offset + 6);
+        int pointerSize = buffer.get(offset + 7);
+        return buffer.get(offset + 4) == 0 && buffer.get(offset + 5) == 0 &&
+                (quantum == 1 || quantum == 2 || quantum == 4) &&
+                (pointerSize == 4 || pointerSize == 8);
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    public int getPointerSize() {
+        return pointerSize;
+    }
+
+    /**
+     * Returns the instruction size quantum; pc deltas in the pc-value tables are multiples of it.
+     */
+    public int getQuantum() {
+        return quantum;
+    }
+
+    public int getFunctionCount() {
+        return functionCount;
+    }
+
+    public ByteOrder getByteOrder() {
+        return table.order();
+    }
+
+    /**
+     * Returns the entry point of the function at the given index.  Functions are sorted by
+     * entry point.
+     */
+    public long getEntry(int index) {
+        checkIndex(index);
+        return readFunctabPc(index);
+    }
+
+    /**
+     * Returns the address just past the end of the function at the given index.
+     */
+    public long getEnd(int index) {
+        checkIndex(index);
+        return readFunctabPc(index + 1);
+    }
+
+    public String getName(int index) {
+        checkIndex(index);
+        int func = getFuncOffset(index);
+        return readString(funcnameBase + table.getInt(func + fieldBase()));
+    }
+
+    /**
+     * Returns the size in bytes of the arguments and results of the function at the given index,
+     * or a negative value if unknown.
+     */
+    public int getArgsSize(int index) {
+        checkIndex(index);
+        return table.getInt(getFuncOffset(index) + fieldBase() + 4);
+    }
+
+    /**
+     * Returns the largest stack pointer adjustment made by the function at the given index,
+     * excluding the return address.
+     */
+    public int getFrameSize(int index) {
+        checkIndex(index);
+        int func = getFuncOffset(index);
+        int pcsp = table.getInt(func + fieldBase() + 12);
+        if (pcsp == 0) {
+            return 0;
+        }
+        PcValueCursor cursor = new PcValueCursor(pctabBase + pcsp, readFunctabPc(index));
+        int frameSize = 0;
+        while (cursor.next()) {
+            frameSize = Math.max(frameSize, cursor.value);
+        }
+        return frameSize;
+    }
+
+    /**
+     * Returns everything known about the function at the given index except its source positions.
+     */
+    public UgoGoFunction getFunction(int index) {
+        return getFunction(index, false);
+    }
+
+    /**
+     * Returns everything known about the function at the given index.
+     *
+     * @param withSource whether to also decode the source position of the entry point, which
+     * walks the function's file and line tables
+     */
+    public UgoGoFunction getFunction(int index, boolean withSource) {
+        String sourceFile = null;
+        int sourceLine = 0;
+        if (withSource) {
+            EntryLineVisitor visitor = new EntryLineVisitor();
+            visitLines(index, visitor);
+            sourceFile = visitor.file;
+            sourceLine = visitor.line;
+        }
+        return new UgoGoFunction(index, getEntry(index), getEnd(index), getName(index),
+                getArgsSize(index), getFrameSize(index), sourceFile, sourceLine);
+    }
+
+    /**
+     * Walks the source positions of the function at the given index in address order.  Runs of
+     * instructions with the same file and line are reported once.
+     */
+    public void visitLines(int index, LineVisitor visitor) {
+        checkIndex(index);
+        int func = getFuncOffset(index);
+        int fields = fieldBase();
+        int pcfile = table.getInt(func + fields + 16);
+        int pcln = table.getInt(func + fields + 20);
+        if (pcfile == 0 || pcln == 0) {
+            return;
+        }
+        int cuOffset = version == Version.GO_1_2 ? 0 : table.getInt(func + fields + 28);
+
+        long entry = readFunctabPc(index);
+        PcValueCursor files = new PcValueCursor(pctabBase + pcfile, entry);
+        PcValueCursor lines = new PcValueCursor(pctabBase + pcln, entry);
+        if (!files.next() || !lines.next()) {
+            return;
+        }
+        long start = entry;
+        while (true) {
+            long end = Math.min(files.end, lines.end);
+            if (end > start) {
+                visitor.visit(start, end, getFileName(cuOffset, files.value), lines.value);
+            }
+            start = end;
+            if (files.end == end && !files.next()) {
+                return;
+            }
+            if (lines.end == end && !lines.next()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the source file for a value of a function's pcfile table.
+     */
+    private String getFileName(int cuOffset, int fileIndex) {
+        if (fileIndex < 0) {
+            return null;
+        }
+        int nameOffset;
+        if (version == Version.GO_1_2) {
+            nameOffset = table.getInt(filetabBase + 4 * fileIndex);
+        } else {
+            int fileOffset = table.getInt(cutabBase + 4 * (cuOffset + fileIndex));
+            if (fileOffset == UNKNOWN_FILE) {
+                return null;
+            }
+            nameOffset = filetabBase + fileOffset;
+        }
+        return fileNames.computeIfAbsent(nameOffset, this::readString);
+    }
+
+    /**
+     * Returns the offset of the fields following the entry point in a function's record.
+     */
+    private int fieldBase() {
+        switch (version) {
+            case GO_1_2:
+            case GO_1_16:
+                return pointerSize;
+            default:
+                return 4;
+        }
+    }
+
+    private int getFuncOffset(int index) {
+        int slot = functabOffset + index * functabStride;
+        switch (version) {
+            case GO_1_2:
+            case GO_1_16:
+                return funcDataBase + (int) readPointer(slot + pointerSize);
+            default:
+                return funcDataBase + table.getInt(slot + 4);
+        }
+    }
+
+    private long readFunctabPc(int index) {
+        int slot = functabOffset + index * functabStride;
+        switch (version) {
+            case GO_1_2:
+            case GO_1_16:
+                return readPointer(slot);
+            default:
+                return textStart + (table.getInt(slot) & 0xffffffffL);
+        }
+    }
+
+    private long readPointer(int offset) {
+        return pointerSize == 8 ? table.getLong(offset) : table.getInt(offset) & 0xffffffffL;
+    }
+
+    private String readString(int offset) {
+        int end = offset;
+        int limit = table.limit();
+        while (end < limit && table.get(end) != 0) {
+            end++;
+        }
+        if (table.hasArray()) {
+            return new String(table.array(), table.arrayOffset() + offset, end - offset,
+                    StandardCharsets.UTF_8);
+        }
+        ByteBuffer bytes = table.duplicate();
+        bytes.limit(end).position(offset);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= functionCount) {
+            throw new IndexOutOfBoundsException("Function index " + index);
+        }
+    }
+
+    private static int toInt(long value) throws IOException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("pclntab offset out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Keeps the first source position it is given.
+     */
+    private static class EntryLineVisitor implements LineVisitor {
+        private boolean found;
+        private String file;
+        private int line;
+
+        @Override
+        public void visit(long start, long end, String file, int line) {
+            if (!found) {
+                found = true;
+                this.file = file;
+                this.line = line;
+            }
+        }
+    }
+
+    /**
+     * Steps through a pc-value table.  After each successful {@link #next()}, {@link #value}
+     * holds for the addresses from the previous {@link #end} up to the new one.
+     */
+    private class PcValueCursor {
+        private int offset;
+        private long end;
+        private int value = -1;
+        private boolean first = true;
+
+        PcValueCursor(int offset, long entry) {
+            this.offset = offset;
+            this.end = entry;
+        }
+
+        boolean next() {
+            int delta = readVarint();
+            if (delta == 0 && !first) {
+                return false;
+            }
+            first = false;
+            value += (delta & 1) != 0 ? ~(delta >>> 1) : delta >>> 1;
+            end += (readVarint() & 0xffffffffL) * quantum;
+            return true;
+        }
+
+        private int readVarint() {
+            int result = 0;
+            int shift = 0;
+            while (true) {
+                int b = table.get(offset++);
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ugo.symbolication;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import ghidra.program.database.mem.FileBytes;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.listing.Program;
+import ghidra.program.model.mem.*;
+import ghidra.util.Msg;
+import ghidra.util.task.TaskMonitor;
+
+/**
+ * Finds the pclntab of a Go program and opens a {@link UgoPclntab} on it.
+ *
+ * <p>The table is found through its section name when the binary still has one, and otherwise by
+ * scanning the initialized memory blocks for a valid pclntab header.  When the original executable
+ * is still on disk, the table is read through a memory mapping of the file; otherwise its block is
+ * read from the program with a single bulk copy.
+ */
+public final class UgoPclntabLocator {
+
+    private static final String[] SECTION_NAMES = {".gopclntab", "__gopclntab"};
+
+    private UgoPclntabLocator() {
+        // utility class
+    }
+
+    /**
+     * Returns the pclntab of the program, or null if the program does not have one.
+     *
+     * @throws IOException if a table was found but could not be read
+     */
+    public static UgoPclntab find(Program program, TaskMonitor monitor) throws IOException {
+        Address start = findTableStart(program, monitor);
+        if (start == null) {
+            return null;
+        }
+        MemoryBlock block = program.getMemory().getBlock(start);
+        long length = block.getEnd().subtract(start) + 1;
+
+        ByteBuffer buffer = mapFromExecutable(program, block, start, length);
+        if (buffer == null || !UgoPclntab.isHeader(buffer, 0)) {
+            buffer = readFromProgram(program, start, length);
+        }
+        return UgoPclntab.parse(buffer);
+    }
+
+    /**
+     * Returns the address of the pclntab header, or null if there is none.
+     */
+    public static Address findTableStart(Program program, TaskMonitor monitor) {
+        Memory memory = program.getMemory();
+        for (String name : SECTION_NAMES) {
+            MemoryBlock block = memory.getBlock(name);
+            if (block != null && block.isInitialized() && isHeader(memory, block.getStart())) {
+                return block.getStart();
+            }
+        }
+
+        for (MemoryBlock block : memory.getBlocks()) {
+            if (!block.isInitialized() || block.isExecute()) {
+                continue;
+            }
+            for (UgoPclntab.Version version : UgoPclntab.Version.values()) {
+                Address found = findHeader(memory, block, version, monitor);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Address findHeader(Memory memory, MemoryBlock block,
+                                      UgoPclntab.Version version, TaskMonitor monitor) {
+        byte[] magic = new byte[4];
+        ByteBuffer.wrap(magic)
+                .order(memory.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN)
+                .putInt(version.getMagic());
+        Address searchFrom = block.getStart();
+        while (searchFrom != null && !monitor.isCancelled()) {
+            Address found = memory.findBytes(searchFrom, block.getEnd(), magic, null, true, monitor);
+            if (found == null) {
+                return null;
+            }
+            if (isHeader(memory, found)) {
+                return found;
+            }
+            searchFrom = found.next();
+        }
+        return null;
+    }
+
+    private static boolean isHeader(Memory memory, Address address) {
+        byte[] header = new byte[8];
+        try {
+            if (memory.getBytes(address, header) != header.length) {
+                return false;
+            }
+        } catch (MemoryAccessException e) {
+            return false;
+        }
+        return UgoPclntab.isHeader(ByteBuffer.wrap(header), 0);
+    }
+
+    /**
+     * Maps the table straight from the original executable, if it is still where it was
+     * imported from and the block is backed by its file bytes.
+     */
+    private static ByteBuffer mapFromExecutable(Program program, MemoryBlock block, Address start,
+                                                long length) {
+        String path = program.getExecutablePath();
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        for (MemoryBlockSourceInfo sourceInfo : block.getSourceInfos()) {
+            Optional<FileBytes> fileBytes = sourceInfo.getFileBytes();
+            if (!fileBytes.isPresent() || !sourceInfo.contains(start) ||
+                    !sourceInfo.contains(start.add(length - 1)) ||
+                    fileBytes.get().getSize() != file.length()) {
+                continue;
+            }
+            long fileOffset = fileBytes.get().getFileOffset() + sourceInfo.getFileBytesOffset() +
+                    start.subtract(sourceInfo.getMinAddress());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, fileOffset, length);
+            } catch (IOException e) {
+                Msg.debug(UgoPclntabLocator.class, "Unable to map " + file, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer readFromProgram(Program program, Address start, long length)
+            throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("pclntab block is too large: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        try {
+            program.getMemory().getBytes(start, bytes);
+        } catch (MemoryAccessException e) {
+            throw new IOException("Unable to read pclntab at " + start, e);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -1,27 +1,257 @@
 package ugo.symbolication;
 
 import com.google.inject.Inject;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.address.AddressSet;
+import ghidra.program.model.address.AddressSpace;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.FunctionManager;
 import ghidra.program.model.listing.Program;
+import ghidra.program.model.mem.Memory;
+import ghidra.program.model.symbol.SourceType;
 import ghidra.program.model.symbol.SymbolTable;
+import ghidra.program.model.symbol.SymbolUtilities;
+import ghidra.program.database.function.OverlappingFunctionException;
+import ghidra.util.Msg;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.exception.DuplicateNameException;
+import ghidra.util.exception.InvalidInputException;
+import ghidra.util.task.TaskMonitor;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates functions and names from the pclntab of a Go program, and notes the source position of
+ * each function in its comment.
+ *
+ * <p>The table is decoded first, in parallel, and everything is then written in a few large
+ * transactions with domain object events switched off.  Listeners such as the Decompiler window
+ * see a single "program restored" event at the end instead of one change per function.
+ */
 public class UgoSymbolicator {
 
+    // functions written per transaction; large enough that commits are rare, small enough that
+    // cancelling keeps most of the work
+    private static final int BATCH_SIZE = 10000;
+
     @Inject
     public UgoSymbolicator() {
 
     }
 
     public void SymbolicateProgram(Program program) {
-        SymbolTable symbolTable = program.getSymbolTable();
+        try {
+            SymbolicateProgram(program, TaskMonitor.DUMMY);
+        } catch (CancelledException e) {
+            // can't happen with a dummy monitor
+        }
+    }
+
+    /**
+     * Names every function described by the pclntab, creating the functions that do not exist yet.
+     * Functions and labels named by the user are left alone.
+     *
+     * @return the number of functions created or renamed
+     * @throws CancelledException if the monitor was cancelled; batches already written are kept
+     */
+    public int SymbolicateProgram(Program program, TaskMonitor monitor) throws CancelledException {
+        UgoPclntab pclntab = loadPclntab(program, monitor);
+        if (pclntab == null) {
+            return 0;
+        }
 
+        List<UgoGoFunction> functions = decodeFunctions(pclntab, monitor);
+        return applyFunctions(program, functions, monitor);
+    }
+
+    /**
+     * Returns the pclntab of the program, or null if it has none or it could not be read.
+     */
+    public UgoPclntab loadPclntab(Program program, TaskMonitor monitor) {
+        try {
+            UgoPclntab pclntab = UgoPclntabLocator.find(program, monitor);
+            if (pclntab == null) {
+                Msg.info(this, "No pclntab found in " + program.getName());
+            }
+            return pclntab;
+        } catch (IOException e) {
+            Msg.error(this, "Unable to read the pclntab of " + program.getName(), e);
+            return null;
+        }
+    }
 
+    /**
+     * Decodes every function on a fork-join pool.  Each task fills its own slots of the result,
+     * so the functions come out in table order; they are sorted by entry point in case the table
+     * is not.
+     */
+    private List<UgoGoFunction> decodeFunctions(UgoPclntab pclntab, TaskMonitor monitor)
+            throws CancelledException {
+        int count = pclntab.getFunctionCount();
+        monitor.initialize(count);
+        monitor.setMessage("Reading " + count + " Go functions...");
 
+        DecodeRun run = new DecodeRun(pclntab, monitor);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new DecodeTask(run, 0, count));
+        } finally {
+            pool.shutdownNow();
+        }
+        monitor.checkCanceled();
 
+        List<UgoGoFunction> functions = Arrays.asList(run.functions);
+        for (int i = 1; i < functions.size(); i++) {
+            if (functions.get(i - 1).getEntry() > functions.get(i).getEntry()) {
+                functions.sort(Comparator.comparingLong(UgoGoFunction::getEntry));
+                break;
+            }
+        }
+        return functions;
     }
 
-    // TODO: pull in current program information
-    // TODO: run through entire current program
-    // TODO: add symbols to ghidra's database
-}
+    private int applyFunctions(Program program, List<UgoGoFunction> functions,
+                               TaskMonitor monitor) throws CancelledException {
+        monitor.initialize(functions.size());
+        monitor.setMessage("Symbolicating " + functions.size() + " Go functions...");
+
+        BatchWriter writer = new BatchWriter(program);
+        boolean sendingEvents = program.isSendingEvents();
+        program.setEventsEnabled(false);
+        try {
+            for (int start = 0; start < functions.size(); start += BATCH_SIZE) {
+                monitor.checkCanceled();
+                int end = Math.min(start + BATCH_SIZE, functions.size());
+                int transactionID = program.startTransaction("Symbolicate Go functions");
+                try {
+                    for (int i = start; i < end; i++) {
+                        writer.apply(functions.get(i));
+                        monitor.setProgress(i);
+                    }
+                } finally {
+                    program.endTransaction(transactionID, true);
+                }
+            }
+        } finally {
+            program.setEventsEnabled(sendingEvents);
+        }
+
+        Msg.info(this, "Symbolicated " + writer.applied + " of " + functions.size() +
+                " Go functions in " + program.getName() + " (" + writer.failed + " failed)");
+        return writer.applied;
+    }
+
+    /**
+     * State shared by every task of one {@link #decodeFunctions} call.
+     */
+    private static class DecodeRun {
+        private final UgoPclntab pclntab;
+        private final TaskMonitor monitor;
+        private final UgoGoFunction[] functions;
+        private final AtomicInteger decoded = new AtomicInteger();
 
-// TODO: Do we want to store symbols in a file?
\ No newline at end of file
+        DecodeRun(UgoPclntab pclntab, TaskMonitor monitor) {
+            this.pclntab = pclntab;
+            this.monitor = monitor;
+            this.functions = new UgoGoFunction[pclntab.getFunctionCount()];
+        }
+    }
+
+    /**
+     * Splits a range of function indexes until it is small enough to decode in one go.
+     */
+    private static class DecodeTask extends RecursiveAction {
+        private static final int THRESHOLD = 512;
+
+        private final DecodeRun run;
+        private final int start;
+        private final int end;
+
+        DecodeTask(DecodeRun run, int start, int end) {
+            this.run = run;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (run.monitor.isCancelled()) {
+                return;
+            }
+            if (end - start > THRESHOLD) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new DecodeTask(run, start, middle), new DecodeTask(run, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                run.functions[i] = run.pclntab.getFunction(i, true);
+            }
+            run.monitor.setProgress(run.decoded.addAndGet(end - start));
+        }
+    }
+
+    /**
+     * Writes functions into one program.  Must be used inside a transaction.
+     */
+    private static class BatchWriter {
+        private final AddressSpace space;
+        private final Memory memory;
+        private final FunctionManager functionManager;
+        private final SymbolTable symbolTable;
+        private int applied;
+        private int failed;
+
+        BatchWriter(Program program) {
+            space = program.getAddressFactory().getDefaultAddressSpace();
+            memory = program.getMemory();
+            functionManager = program.getFunctionManager();
+            symbolTable = program.getSymbolTable();
+        }
+
+        void apply(UgoGoFunction goFunction) {
+            Address entry = space.getAddress(goFunction.getEntry());
+            if (!memory.contains(entry)) {
+                failed++;
+                return;
+            }
+            String name = SymbolUtilities.replaceInvalidChars(goFunction.getName(), true);
+            try {
+                Function function = functionManager.getFunctionAt(entry);
+                if (function != null) {
+                    if (function.getSymbol().getSource() != SourceType.USER_DEFINED &&
+                            !name.equals(function.getName())) {
+                        function.setName(name, SourceType.ANALYSIS);
+                        applied++;
+                    }
+                    addSourceComment(function, goFunction);
+                    return;
+                }
+
+                AddressSet body = new AddressSet(entry,
+                        space.getAddress(Math.max(goFunction.getEntry(), goFunction.getEnd() - 1)));
+                try {
+                    function = functionManager.createFunction(name, entry, body,
+                            SourceType.ANALYSIS);
+                    addSourceComment(function, goFunction);
+                } catch (OverlappingFunctionException e) {
+                    symbolTable.createLabel(entry, name, SourceType.ANALYSIS).setPrimary();
+                }
+                applied++;
+            } catch (InvalidInputException | DuplicateNameException e) {
+                failed++;
+            }
+        }
+
+        private void addSourceComment(Function function, UgoGoFunction goFunction) {
+            if (goFunction.getSourceFile() != null && function.getComment() == null) {
+                function.setComment(goFunction.getSourceFile() + ":" + goFunction.getSourceLine());
+            }
+        }
+    }
+}